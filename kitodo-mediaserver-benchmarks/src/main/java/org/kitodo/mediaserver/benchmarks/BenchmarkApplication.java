@@ -0,0 +1,65 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.kitodo.mediaserver.fileserver.config.FileserverConfiguration;
+import org.kitodo.mediaserver.fileserver.controller.FileController;
+import org.kitodo.mediaserver.fileserver.conversion.DerivativeProducer;
+import org.kitodo.mediaserver.fileserver.util.AccessLog;
+import org.kitodo.mediaserver.fileserver.util.FileResponder;
+import org.kitodo.mediaserver.fileserver.util.FileSender;
+import org.kitodo.mediaserver.importer.WorkWriter;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+
+/**
+ * The beans of the fileserver without web server, and the writer of the importer, on an in-memory H2 database,
+ * for benchmarks.
+ *
+ * <p>
+ * The configuration is read from the default configuration, like by the fileserver, but the action queue and
+ * the reloads of identifiers are disabled, and only warnings are logged, so the log doesn't flood the results.
+ */
+@EnableAutoConfiguration
+@Import({FileserverConfiguration.class, FileController.class, FileResponder.class, FileSender.class,
+    DerivativeProducer.class, AccessLog.class, WorkWriter.class})
+public class BenchmarkApplication {
+
+    /**
+     * Starts the application context.
+     *
+     * @param properties additional properties as "key=value"
+     * @return the started context, to be closed after the benchmark
+     */
+    public static ConfigurableApplicationContext start(String... properties) {
+        // passed as arguments, as they override the configuration files
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "spring.datasource.url=jdbc:h2:mem:benchmarks;DB_CLOSE_DELAY=-1",
+                "actionQueue.enabled=false",
+                "identifierCache.interval=0",
+                "logging.level.org.kitodo.mediaserver=WARN"));
+        args.addAll(Arrays.asList(properties));
+
+        return new SpringApplicationBuilder(BenchmarkApplication.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .properties("spring.config.name=default")
+                .build().run(args.stream().map(property -> "--" + property).toArray(String[]::new));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.benchmarks;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.kitodo.mediaserver.core.api.IConverter;
+import org.kitodo.mediaserver.core.conversion.ImageIOConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the conversions of the {@link IConverter} for a typical scanned page.
+ *
+ * <p>
+ * The master is a page of 3000 x 4000 pixels with a gradient and noise, so it compresses like a scan, as
+ * uncompressed TIFF and as JPEG. The results are counted and discarded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConverterBenchmark {
+
+    private static final int WIDTH = 3000;
+    private static final int HEIGHT = 4000;
+
+    @Param({"tif", "jpg"})
+    private String masterFormat;
+
+    private final IConverter converter = new ImageIOConverter();
+
+    private Path directory;
+
+    private URI master;
+
+    /**
+     * Paints the page and writes it as master in the configured format.
+     *
+     * @throws IOException if the master could not be written
+     */
+    @Setup
+    public void init() throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(240, 230, 200), WIDTH, HEIGHT, new Color(120, 100, 80)));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.dispose();
+        Random random = new Random(WIDTH);
+        for (int i = 0; i < WIDTH * HEIGHT / 10; i++) {
+            image.setRGB(random.nextInt(WIDTH), random.nextInt(HEIGHT), random.nextInt(0x1000000));
+        }
+
+        directory = Files.createTempDirectory("converter-benchmark");
+        Path file = directory.resolve("00000001." + masterFormat);
+        if (!ImageIO.write(image, masterFormat, file.toFile())) {
+            throw new IllegalStateException("No writer for " + masterFormat);
+        }
+        master = file.toUri();
+    }
+
+    @TearDown
+    public void shutdown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public long thumbnail() throws Exception {
+        return convert(parameter(ImageIOConverter.SIZE_PARAMETER, "150"));
+    }
+
+    @Benchmark
+    public long derivative() throws Exception {
+        return convert(parameter(ImageIOConverter.SIZE_PARAMETER, "1000"));
+    }
+
+    /**
+     * Converts a region of 512 x 512 pixels at full resolution, like a tile requested by a IIIF viewer.
+     *
+     * @return the length of the tile
+     * @throws Exception if the conversion failed
+     */
+    @Benchmark
+    public long tile() throws Exception {
+        Map<String, String> parameter = parameter(ImageIOConverter.REGION_PARAMETER, "1024,1024,512,512");
+        parameter.put(ImageIOConverter.WIDTH_PARAMETER, "512");
+        return convert(parameter);
+    }
+
+    @Benchmark
+    public long fullSize() throws Exception {
+        return convert(new HashMap<>());
+    }
+
+    /**
+     * Converts the thumbnail, the derivative and the full size image from one read of the master.
+     *
+     * @return the length of all images
+     * @throws Exception if the conversion failed
+     */
+    @Benchmark
+    public long allDerivatives() throws Exception {
+        CountingOutputStream outputStream = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        Map<Map<String, String>, OutputStream> outputs = new LinkedHashMap<>();
+        outputs.put(parameter(ImageIOConverter.SIZE_PARAMETER, "150"), outputStream);
+        outputs.put(parameter(ImageIOConverter.SIZE_PARAMETER, "1000"), outputStream);
+        outputs.put(new HashMap<>(), outputStream);
+        converter.convertAll(master, outputs);
+        return outputStream.getByteCount();
+    }
+
+    private long convert(Map<String, String> parameter) throws Exception {
+        CountingOutputStream outputStream = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        converter.convert(master, parameter, outputStream);
+        return outputStream.getByteCount();
+    }
+
+    private static Map<String, String> parameter(String name, String value) {
+        Map<String, String> parameter = new HashMap<>();
+        parameter.put(name, value);
+        return parameter;
+    }
+}
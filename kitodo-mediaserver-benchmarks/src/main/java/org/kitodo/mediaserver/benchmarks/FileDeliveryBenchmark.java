@@ -0,0 +1,161 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import org.apache.commons.io.FileUtils;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.kitodo.mediaserver.fileserver.controller.FileController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Benchmark of the delivery of present files by the {@link FileController}, from the lookup of the work to the
+ * written response body.
+ *
+ * <p>
+ * The response is written without a servlet container, so neither sendfile nor asynchronous writing is used,
+ * and the body is counted and discarded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileDeliveryBenchmark {
+
+    private static final String WORK_ID = "PPN00000001";
+    private static final String FILE_PATH = "/derivatives/jpeg/00000001.jpg";
+
+    @Param({"16384", "1048576", "16777216"})
+    private int fileSize;
+
+    @Param({"none", "bytes=0-65535", "bytes=-65536"})
+    private String range;
+
+    private Path workDirectory;
+
+    private ConfigurableApplicationContext context;
+
+    private FileController fileController;
+
+    /**
+     * Writes the file to a temporary work directory and starts the fileserver context with the work.
+     *
+     * @throws IOException if the file could not be written
+     */
+    @Setup
+    public void init() throws IOException {
+        workDirectory = Files.createTempDirectory("delivery-benchmark");
+        Path file = workDirectory.resolve(FILE_PATH.substring(1));
+        Files.createDirectories(file.getParent());
+        byte[] content = new byte[fileSize];
+        new Random(fileSize).nextBytes(content);
+        Files.write(file, content);
+
+        context = BenchmarkApplication.start();
+        fileController = context.getBean(FileController.class);
+
+        Work work = new Work(WORK_ID, "Delivered work");
+        work.setPath(workDirectory.toString());
+        work.setEnabled(true);
+        context.getBean(WorkRepository.class).save(work);
+    }
+
+    @TearDown
+    public void shutdown() throws IOException {
+        context.close();
+        FileUtils.deleteDirectory(workDirectory.toFile());
+    }
+
+    /**
+     * Requests the file, or the configured range of it.
+     *
+     * @return the length of the response body
+     * @throws Exception if the file was not delivered
+     */
+    @Benchmark
+    public long deliver() throws Exception {
+        String path = "/files/" + WORK_ID + FILE_PATH;
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.setAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE, path);
+        if (!"none".equals(range)) {
+            request.addHeader(HttpHeaders.RANGE, range);
+        }
+        DiscardingResponse response = new DiscardingResponse();
+
+        fileController.getFile(WORK_ID, request, response);
+
+        if (response.getStatus() >= 300) {
+            throw new IllegalStateException("Delivery failed with status " + response.getStatus());
+        }
+        return response.written;
+    }
+
+    /**
+     * A response counting and discarding its body.
+     */
+    private static class DiscardingResponse extends MockHttpServletResponse {
+
+        private long written;
+
+        private final ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                written += len;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return outputStream;
+        }
+    }
+}
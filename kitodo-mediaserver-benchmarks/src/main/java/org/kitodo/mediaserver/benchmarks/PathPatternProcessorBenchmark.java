@@ -0,0 +1,111 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.kitodo.mediaserver.core.conversion.CompiledPathPatternProcessor;
+import org.kitodo.mediaserver.core.conversion.IiifPathPatternProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of resolving and composing derivative paths, compared to a regular expression with named groups,
+ * and of IIIF image requests.
+ *
+ * <p>
+ * Run with -prof gc to see the allocation per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PathPatternProcessorBenchmark {
+
+    private static final String PATH = "/derivatives/1000/00000001.jpg";
+    private static final String IMAGE_REQUEST = "1024,512,512,512/256,/0/default.jpg";
+
+    private final CompiledPathPatternProcessor processor =
+            new CompiledPathPatternProcessor("/derivatives/{width}/{name}.{format}");
+
+    private final Pattern regex = Pattern.compile("/derivatives/(?<width>[^/]+?)/(?<name>[^/]+?)\\.(?<format>[^/]+)");
+
+    private final IiifPathPatternProcessor iiifProcessor = new IiifPathPatternProcessor();
+
+    private final int[] bounds = new int[6];
+
+    private Map<String, String> parameter;
+
+    private Map<String, String> imageParameter;
+
+    @Setup
+    public void init() {
+        parameter = new HashMap<>(processor.resolve(PATH));
+        imageParameter = iiifProcessor.resolve(IMAGE_REQUEST);
+    }
+
+    @Benchmark
+    public boolean match() {
+        return processor.match(PATH, bounds);
+    }
+
+    @Benchmark
+    public Map<String, String> resolve() {
+        return processor.resolve(PATH);
+    }
+
+    @Benchmark
+    public String compose() {
+        return processor.compose(parameter);
+    }
+
+    /**
+     * Resolves the path with a regular expression, as a baseline for {@link #resolve()}.
+     *
+     * @return the values of the named groups
+     */
+    @Benchmark
+    public Map<String, String> resolveByRegex() {
+        Matcher matcher = regex.matcher(PATH);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException(PATH);
+        }
+        Map<String, String> result = new HashMap<>();
+        result.put("width", matcher.group("width"));
+        result.put("name", matcher.group("name"));
+        result.put("format", matcher.group("format"));
+        return result;
+    }
+
+    @Benchmark
+    public Map<String, String> resolveImageRequest() {
+        return iiifProcessor.resolve(IMAGE_REQUEST);
+    }
+
+    @Benchmark
+    public String composeImageRequest() {
+        return iiifProcessor.compose(imageParameter);
+    }
+}
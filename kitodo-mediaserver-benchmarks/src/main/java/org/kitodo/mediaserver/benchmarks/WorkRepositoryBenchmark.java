@@ -0,0 +1,109 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.kitodo.mediaserver.core.cache.WorkCache;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.kitodo.mediaserver.core.models.WorkInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Benchmark of looking up works by id against H2, as done for each delivered file.
+ *
+ * <p>
+ * Compares loading the entity, with its identifiers, to the projection to {@link WorkInfo} and to the
+ * {@link WorkCache} of the fileserver. The ids are looked up round robin.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WorkRepositoryBenchmark {
+
+    @Param("10000")
+    private int works;
+
+    private ConfigurableApplicationContext context;
+
+    private WorkRepository workRepository;
+
+    private WorkCache workCache;
+
+    private String[] ids;
+
+    private int next;
+
+    /**
+     * Starts the context and saves the works to look up.
+     */
+    @Setup
+    public void init() {
+        // the cache holds all works, so the lookups by the cache measure hits
+        context = BenchmarkApplication.start("workCache.maxSize=" + 2 * works);
+        workRepository = context.getBean(WorkRepository.class);
+        workCache = context.getBean(WorkCache.class);
+
+        List<Work> entities = new ArrayList<>();
+        ids = new String[works];
+        for (int i = 0; i < works; i++) {
+            ids[i] = String.format("PPN%08d", i);
+            Work work = new Work(ids[i], "Work " + i);
+            work.setPath("/works/" + ids[i]);
+            entities.add(work);
+        }
+        workRepository.saveAll(entities);
+    }
+
+    @TearDown
+    public void shutdown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<Work> findById() {
+        return workRepository.findById(nextId());
+    }
+
+    @Benchmark
+    public Optional<WorkInfo> findWorkInfoById() {
+        return workRepository.findWorkInfoById(nextId());
+    }
+
+    @Benchmark
+    public WorkInfo workCache() {
+        return workCache.get(nextId());
+    }
+
+    private String nextId() {
+        next = next + 1 < ids.length ? next + 1 : 0;
+        return ids[next];
+    }
+}
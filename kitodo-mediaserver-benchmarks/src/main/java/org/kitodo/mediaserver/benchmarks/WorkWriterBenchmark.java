@@ -0,0 +1,132 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.benchmarks;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.kitodo.mediaserver.core.db.entities.Identifier;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.IdentifierRepository;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.kitodo.mediaserver.importer.ImportJob;
+import org.kitodo.mediaserver.importer.WorkWriter;
+import org.kitodo.mediaserver.importer.mets.MetsData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Benchmark of writing imported works with two identifiers each against H2, in works per second.
+ *
+ * <p>
+ * Compares the JDBC batches of the {@link WorkWriter} to saving each work and identifier by the repositories,
+ * as the importer did before. Each invocation writes one transaction of new works, as mostly when importing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WorkWriterBenchmark {
+
+    private static final int BATCH_SIZE = 500;
+
+    private ConfigurableApplicationContext context;
+
+    private WorkWriter workWriter;
+
+    private WorkRepository workRepository;
+
+    private IdentifierRepository identifierRepository;
+
+    private TransactionTemplate transactionTemplate;
+
+    private int next;
+
+    /**
+     * Starts the context with an empty database.
+     */
+    @Setup
+    public void init() {
+        context = BenchmarkApplication.start();
+        workWriter = context.getBean(WorkWriter.class);
+        workRepository = context.getBean(WorkRepository.class);
+        identifierRepository = context.getBean(IdentifierRepository.class);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+    }
+
+    @TearDown
+    public void shutdown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void jdbcBatches() {
+        workWriter.write(nextBatch());
+    }
+
+    /**
+     * Writes a batch as before the JDBC batches, with a lookup and save per work and identifier.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void repositories() {
+        List<ImportJob> jobs = nextBatch();
+        transactionTemplate.execute(status -> {
+            for (ImportJob job : jobs) {
+                Work work = workRepository.findById(job.getWorkId()).orElseGet(() -> new Work(job.getWorkId(), null));
+                work.setTitle(job.getMets().getTitle());
+                work.setPath(job.getWorkPath().toString());
+                workRepository.save(work);
+                for (Map.Entry<String, String> entry : job.getMets().getIdentifiers().entrySet()) {
+                    identifierRepository.save(new Identifier(entry.getKey(), entry.getValue(), work));
+                }
+                identifierRepository.findIdentifiersByWorkId(work.getId());
+            }
+            return null;
+        });
+    }
+
+    private List<ImportJob> nextBatch() {
+        List<ImportJob> jobs = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            String workId = String.format("PPN%08d", next++);
+            MetsData mets = new MetsData();
+            mets.setTitle("Work " + workId);
+            mets.addIdentifier("urn:nbn:de:benchmark-" + workId, "urn");
+            mets.addIdentifier("urn:nbn:de:benchmark-" + workId + "-1", "urn");
+            ImportJob job = new ImportJob(Paths.get("/hotfolder", workId));
+            job.setMets(mets);
+            job.setWorkId(workId);
+            job.setWorkPath(Paths.get("/works", workId));
+            jobs.add(job);
+        }
+        return jobs;
+    }
+}
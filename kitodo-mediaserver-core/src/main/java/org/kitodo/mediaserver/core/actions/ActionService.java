@@ -0,0 +1,299 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.actions;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.PostConstruct;
+import org.kitodo.mediaserver.core.api.IAction;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.kitodo.mediaserver.core.db.repositories.ActionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.DigestUtils;
+
+/**
+ * The persistent queue of requested actions.
+ *
+ * <p>
+ * Equal requests, i.e. with the same work, action and parameters, are collapsed while the action is not done.
+ * Several nodes can take actions from the queue concurrently, each action is claimed by exactly one of them.
+ * A worker renews the heartbeat of its running actions; actions without a recent heartbeat are requested again.
+ * Only the worker of the last claim can mark an action as done, so a worker which was considered dead
+ * cannot overwrite the state of the action claimed by another worker.
+ *
+ * <p>
+ * The number of requested actions is measured as "mediaserver.actions.queued", the time actions wait in the
+ * queue as "mediaserver.actions.wait" and the performed actions as "mediaserver.actions".
+ */
+public class ActionService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ActionService.class);
+
+    private static final String ACTION_BEAN_SUFFIX = "Action";
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    @Autowired
+    private ActionRepository actionRepository;
+
+    @Autowired(required = false)
+    private Map<String, IAction> actions = Collections.emptyMap();
+
+    private final String workerName = ManagementFactory.getRuntimeMXBean().getName();
+
+    /**
+     * Registers the length of the queue as gauge, which is counted in the database when it is read.
+     */
+    @PostConstruct
+    public void init() {
+        Gauge.builder("mediaserver.actions.queued", actionRepository,
+            repository -> repository.countByState(ActionControl.State.REQUESTED))
+                .description("The number of requested actions on all nodes")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Requests an action as batch action.
+     *
+     * @param workId    the id of the work
+     * @param action    the action name
+     * @param parameter a map with parameter
+     * @return the requested action or the already requested equal action
+     * @throws IllegalArgumentException if there is no implementation of the action
+     */
+    public ActionControl request(String workId, String action, Map<String, String> parameter) {
+        return request(workId, action, parameter, ActionControl.Priority.BATCH);
+    }
+
+    /**
+     * Requests an action.
+     *
+     * <p>
+     * If an equal action is already requested or running, no new action is requested.
+     *
+     * @param workId    the id of the work
+     * @param action    the action name
+     * @param parameter a map with parameter
+     * @param priority  the priority class of the action
+     * @return the requested action or the already requested equal action
+     * @throws IllegalArgumentException if there is no implementation of the action
+     */
+    public ActionControl request(String workId, String action, Map<String, String> parameter,
+                                 ActionControl.Priority priority) {
+
+        getAction(action);
+
+        String requestKey = getRequestKey(workId, action, parameter);
+        ActionControl existing = actionRepository.findByRequestKey(requestKey);
+        if (existing != null) {
+            return existing;
+        }
+
+        ActionControl actionControl = new ActionControl(workId, action, parameter);
+        actionControl.setPriority(priority);
+        actionControl.setRequestKey(requestKey);
+        actionControl.setRequestTime(Instant.now());
+        try {
+            return actionRepository.save(actionControl);
+        } catch (DataIntegrityViolationException e) {
+            // another node requested the same action just now
+            existing = actionRepository.findByRequestKey(requestKey);
+            if (existing == null) {
+                throw e;
+            }
+            return existing;
+        }
+    }
+
+    /**
+     * Requests an action on many works as batch actions, e.g. on all works of a query.
+     *
+     * @param workIds   the ids of the works
+     * @param action    the action name
+     * @param parameter a map with parameter
+     * @return the number of works
+     * @throws IllegalArgumentException if there is no implementation of the action
+     */
+    public int request(Iterable<String> workIds, String action, Map<String, String> parameter) {
+        int count = 0;
+        for (String workId : workIds) {
+            request(workId, action, parameter);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Takes the oldest requested actions with the highest priority from the queue and marks them as running.
+     *
+     * @param max the maximum number of actions to take
+     * @return a list of actions, which were not taken by other workers
+     */
+    @Transactional
+    public List<ActionControl> claim(int max) {
+        return claimEach(actionRepository.findByStateOrderByPriorityAscIdAsc(ActionControl.State.REQUESTED,
+                PageRequest.of(0, max)));
+    }
+
+    /**
+     * Takes the oldest requested actions with a priority from the queue and marks them as running.
+     *
+     * @param max the maximum number of actions to take
+     * @param priority the priority of the actions
+     * @return a list of actions, which were not taken by other workers
+     */
+    @Transactional
+    public List<ActionControl> claim(int max, ActionControl.Priority priority) {
+        return claimEach(actionRepository.findByStateAndPriorityOrderByIdAsc(ActionControl.State.REQUESTED, priority,
+                PageRequest.of(0, max)));
+    }
+
+    private List<ActionControl> claimEach(List<ActionControl> requested) {
+        List<ActionControl> claimed = new ArrayList<>();
+        Instant now = Instant.now();
+        for (ActionControl actionControl : requested) {
+            if (actionRepository.claim(actionControl.getId(), actionControl.getAttempt(), workerName, now) == 1) {
+                actionControl.setState(ActionControl.State.RUNNING);
+                actionControl.setWorker(workerName);
+                actionControl.setStartTime(now);
+                actionControl.setHeartbeatTime(now);
+                actionControl.setAttempt(actionControl.getAttempt() + 1);
+                claimed.add(actionControl);
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Gives a claimed action back to the queue, e.g. because the worker has no thread for it.
+     *
+     * @param actionControl the action
+     * @return true, if the action was requested again, false if it was already requested again
+     */
+    public boolean unclaim(ActionControl actionControl) {
+        if (actionRepository.unclaim(actionControl.getId(), actionControl.getAttempt()) == 0) {
+            return false;
+        }
+        actionControl.setState(ActionControl.State.REQUESTED);
+        actionControl.setWorker(null);
+        actionControl.setStartTime(null);
+        actionControl.setHeartbeatTime(null);
+        return true;
+    }
+
+    /**
+     * Performs a claimed action and marks it as finished or failed.
+     *
+     * @param actionControl the action
+     * @return the result of the action, if any
+     * @throws Exception if the action failed
+     */
+    public Object perform(ActionControl actionControl) throws Exception {
+        String action = actionControl.getAction();
+        if (actionControl.getRequestTime() != null && actionControl.getStartTime() != null) {
+            Metrics.timer("mediaserver.actions.wait", "action", action)
+                    .record(Duration.between(actionControl.getRequestTime(), actionControl.getStartTime()));
+        }
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        String outcome = "failed";
+        try {
+            Object result = getAction(action).perform(actionControl);
+            done(actionControl, ActionControl.State.FINISHED, null);
+            outcome = "finished";
+            return result;
+        } catch (Exception e) {
+            done(actionControl, ActionControl.State.FAILED, truncate(e.toString()));
+            throw e;
+        } finally {
+            sample.stop(Metrics.timer("mediaserver.actions", "action", action, "outcome", outcome));
+        }
+    }
+
+    /**
+     * Renews the heartbeat of running actions.
+     *
+     * @param running the actions claimed by this worker
+     * @return the number of actions, which are still running in their claim
+     */
+    public int renew(Collection<ActionControl> running) {
+        int renewed = 0;
+        Instant now = Instant.now();
+        for (ActionControl actionControl : running) {
+            renewed += actionRepository.renew(actionControl.getId(), actionControl.getAttempt(), now);
+        }
+        return renewed;
+    }
+
+    /**
+     * Requests running actions again, whose heartbeat was not renewed for too long.
+     *
+     * @param heartbeatTime actions with a heartbeat before this time are requested again
+     * @return the number of requested actions
+     */
+    public int requestStale(Instant heartbeatTime) {
+        return actionRepository.requestStale(heartbeatTime);
+    }
+
+    /**
+     * Gets the implementation of an action.
+     *
+     * @param action the action name
+     * @return the implementation
+     * @throws IllegalArgumentException if there is no implementation of the action
+     */
+    public IAction getAction(String action) {
+        IAction implementation = actions.get(action + ACTION_BEAN_SUFFIX);
+        if (implementation == null) {
+            throw new IllegalArgumentException("There is no implementation of action " + action);
+        }
+        return implementation;
+    }
+
+    private void done(ActionControl actionControl, ActionControl.State state, String error) {
+        actionControl.setState(state);
+        actionControl.setEndTime(Instant.now());
+        actionControl.setError(error);
+        actionControl.setRequestKey(null);
+        if (actionRepository.finish(actionControl.getId(), actionControl.getAttempt(), state,
+                actionControl.getEndTime(), error) == 0) {
+            LOGGER.warn("Action " + actionControl.getAction() + " on work " + actionControl.getWorkId()
+                    + " was requested again while running, it is not marked as " + state);
+        }
+    }
+
+    private String truncate(String error) {
+        return error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+    }
+
+    private String getRequestKey(String workId, String action, Map<String, String> parameter) {
+        StringBuilder key = new StringBuilder(workId).append('\n').append(action);
+        for (Map.Entry<String, String> entry : new TreeMap<>(parameter).entrySet()) {
+            key.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return DigestUtils.md5DigestAsHex(key.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
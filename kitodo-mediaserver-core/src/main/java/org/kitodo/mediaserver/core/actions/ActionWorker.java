@@ -0,0 +1,136 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.actions;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Performs requested actions from the queue of the {@link ActionService} in the {@link PriorityScheduler}.
+ *
+ * <p>
+ * The queue is polled periodically for as many actions as there are free threads in the scheduler.
+ * Batch actions are only claimed for the free threads within their share.
+ * On each poll, the heartbeat of the actions running on this node is renewed.
+ * Claimed actions, which the scheduler rejects, are given back to the queue.
+ */
+public class ActionWorker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ActionWorker.class);
+
+    @Autowired
+    private ActionService actionService;
+
+    @Autowired
+    private PriorityScheduler priorityScheduler;
+
+    @Value("${actionQueue.enabled:true}")
+    private boolean enabled;
+
+    @Value("${actionQueue.pollInterval:5}")
+    private long pollInterval;
+
+    @Value("${actionQueue.staleTimeout:60}")
+    private long staleTimeout;
+
+    private ScheduledExecutorService scheduler;
+
+    private final Set<ActionControl> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts polling the queue, if enabled.
+     */
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("action-queue-"));
+        scheduler.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops polling.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Claims requested actions for the free threads of the scheduler.
+     */
+    public void poll() {
+        try {
+            actionService.renew(running);
+            int requested = actionService.requestStale(Instant.now().minusSeconds(staleTimeout));
+            if (requested > 0) {
+                LOGGER.warn("Requested " + requested + " stale actions again");
+            }
+
+            int free = priorityScheduler.getFreeThreads();
+            if (free <= 0) {
+                return;
+            }
+            List<ActionControl> claimed = new ArrayList<>(actionService.claim(free, ActionControl.Priority.INTERACTIVE));
+            // batch actions beyond their share of the threads would wait here, while other nodes could run them
+            int freeBatch = Math.min(free - claimed.size(), priorityScheduler.getFreeBatchThreads());
+            if (freeBatch > 0) {
+                claimed.addAll(actionService.claim(freeBatch, ActionControl.Priority.BATCH));
+            }
+            for (ActionControl actionControl : claimed) {
+                running.add(actionControl);
+                try {
+                    priorityScheduler.execute(() -> perform(actionControl), actionControl.getPriority());
+                } catch (RejectedExecutionException e) {
+                    // interactive conversions for waiting clients filled the queue since the threads were counted
+                    running.remove(actionControl);
+                    actionService.unclaim(actionControl);
+                    LOGGER.warn("Requested action " + actionControl.getAction() + " on work "
+                            + actionControl.getWorkId() + " again: " + e.getMessage());
+                }
+            }
+        } catch (RuntimeException e) {
+            // e.g. the database is not reachable, try again next time
+            LOGGER.error("Could not poll the action queue: " + e, e);
+        }
+    }
+
+    private void perform(ActionControl actionControl) {
+        try {
+            actionService.perform(actionControl);
+            LOGGER.info("Performed action " + actionControl.getAction() + " on work " + actionControl.getWorkId());
+        } catch (Exception e) {
+            LOGGER.error("Action " + actionControl.getAction() + " on work " + actionControl.getWorkId()
+                    + " failed: " + e, e);
+        } finally {
+            running.remove(actionControl);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.actions;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.kitodo.mediaserver.core.db.entities.ActionControl.Priority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Runs CPU intensive tasks, i.e. conversions, in a fixed number of threads, preferring interactive tasks.
+ *
+ * <p>
+ * Interactive tasks, e.g. conversions for a waiting client, are always run before batch tasks, unless a batch
+ * task waits longer than the aging time. Batch tasks never use more than a configured share of the threads,
+ * so the remaining threads are free for interactive tasks.
+ *
+ * <p>
+ * The waiting and running tasks are measured as "mediaserver.scheduler.waiting" and
+ * "mediaserver.scheduler.running", the time tasks wait for a thread as "mediaserver.scheduler.wait",
+ * each by priority.
+ */
+public class PriorityScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PriorityScheduler.class);
+
+    @Value("${scheduler.threads:0}")
+    private int threads;
+
+    @Value("${scheduler.batchShare:0.5}")
+    private double batchShare;
+
+    @Value("${scheduler.aging:60}")
+    private long aging;
+
+    @Value("${scheduler.queueSize:100}")
+    private int queueSize;
+
+    private int maxBatchRunning;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private final Deque<Task> interactive = new ArrayDeque<>();
+    private final Deque<Task> batch = new ArrayDeque<>();
+
+    private int running;
+    private int batchRunning;
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final Map<Priority, Timer> waitTimers = new EnumMap<>(Priority.class);
+
+    /**
+     * Starts the threads.
+     */
+    @PostConstruct
+    public void init() {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        maxBatchRunning = Math.max(1, (int) (threads * batchShare));
+        for (Priority priority : Priority.values()) {
+            String tag = priority.name().toLowerCase();
+            waitTimers.put(priority, Metrics.timer("mediaserver.scheduler.wait", "priority", tag));
+            Gauge.builder("mediaserver.scheduler.waiting", this, scheduler -> scheduler.getWaitingTasks(priority))
+                    .tag("priority", tag)
+                    .register(Metrics.globalRegistry);
+            Gauge.builder("mediaserver.scheduler.running", this, scheduler -> scheduler.getRunningTasks(priority))
+                    .tag("priority", tag)
+                    .register(Metrics.globalRegistry);
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("scheduler-");
+        for (int i = 0; i < threads; i++) {
+            Thread worker = threadFactory.newThread(this::work);
+            workers.add(worker);
+            worker.start();
+        }
+        LOGGER.info("Started " + threads + " threads, " + maxBatchRunning + " of them for batch tasks");
+    }
+
+    /**
+     * Stops the threads, interrupting running tasks.
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Runs a task as soon as a thread is free for its priority.
+     *
+     * @param task the task
+     * @param priority the priority of the task
+     * @throws RejectedExecutionException if too many interactive tasks are waiting
+     */
+    public void execute(Runnable task, Priority priority) {
+        lock.lock();
+        try {
+            if (priority == Priority.INTERACTIVE) {
+                if (interactive.size() >= queueSize) {
+                    throw new RejectedExecutionException("Too many interactive tasks are waiting");
+                }
+                interactive.add(new Task(task, priority));
+            } else {
+                batch.add(new Task(task, priority));
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tasks which could start immediately.
+     *
+     * @return the number of threads neither running nor reserved for a waiting task
+     */
+    public int getFreeThreads() {
+        lock.lock();
+        try {
+            return threads - running - interactive.size() - batch.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of batch tasks which could start immediately.
+     *
+     * @return the free threads within the share of batch tasks, at most the number of all free threads
+     */
+    public int getFreeBatchThreads() {
+        lock.lock();
+        try {
+            return Math.min(threads - running - interactive.size() - batch.size(),
+                    maxBatchRunning - batchRunning - batch.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tasks waiting for a thread.
+     *
+     * @param priority the priority of the tasks
+     * @return the number of waiting tasks
+     */
+    public int getWaitingTasks(Priority priority) {
+        lock.lock();
+        try {
+            return priority == Priority.INTERACTIVE ? interactive.size() : batch.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of running tasks.
+     *
+     * @param priority the priority of the tasks
+     * @return the number of running tasks
+     */
+    public int getRunningTasks(Priority priority) {
+        lock.lock();
+        try {
+            return priority == Priority.BATCH ? batchRunning : running - batchRunning;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Task task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            waitTimers.get(task.priority).record(System.nanoTime() - task.submitted, TimeUnit.NANOSECONDS);
+            try {
+                task.runnable.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Task failed: " + e, e);
+            } finally {
+                done(task);
+            }
+        }
+    }
+
+    private Task take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                Task task = next();
+                if (task != null) {
+                    running++;
+                    if (task.priority == Priority.BATCH) {
+                        batchRunning++;
+                    }
+                    return task;
+                }
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Task next() {
+        Task oldestBatch = batch.peek();
+        if (oldestBatch != null && batchRunning < maxBatchRunning
+                && (interactive.isEmpty() || oldestBatch.waitingSeconds() >= aging)) {
+            return batch.poll();
+        }
+        return interactive.poll();
+    }
+
+    private void done(Task task) {
+        lock.lock();
+        try {
+            running--;
+            if (task.priority == Priority.BATCH) {
+                batchRunning--;
+                // a waiting batch task may run now
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Task {
+
+        private final Runnable runnable;
+        private final Priority priority;
+        private final long submitted = System.nanoTime();
+
+        Task(Runnable runnable, Priority priority) {
+            this.runnable = runnable;
+            this.priority = priority;
+        }
+
+        long waitingSeconds() {
+            return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - submitted);
+        }
+    }
+}
@@ -11,38 +11,18 @@
 
 package org.kitodo.mediaserver.core.api;
 
-import java.util.Map;
-import org.kitodo.mediaserver.core.models.ActionControl;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
 
 
 /**
  * Interface of all actions.
+ *
+ * <p>
+ * Actions are requested with {@link org.kitodo.mediaserver.core.actions.ActionService#request}, which finds
+ * the implementation by its bean name, i.e. the action "convert" is performed by the bean "convertAction".
  */
 public interface IAction {
 
-    /**
-     * Request an action.
-     *
-     * <p>
-     * Requesting an action is basically just creating an ActionControl object and making it persistent.
-     *
-     * @param workId    the id of the work
-     * @param action    the action name
-     * @param parameter a map with parameter
-     */
-    default void request(int workId, String action, Map<String, String> parameter) throws Exception {
-
-        // Check that the action can be mapped to an implementation
-
-        // Check that the action is not already requested
-
-        // create an entity
-        ActionControl actionControl = new ActionControl(workId, action, parameter);
-
-        // make it persistent
-
-    }
-
     /**
      * Performs the action.
      *
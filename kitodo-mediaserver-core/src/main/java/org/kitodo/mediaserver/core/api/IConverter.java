@@ -11,6 +11,7 @@
 
 package org.kitodo.mediaserver.core.api;
 
+import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.Map;
@@ -20,6 +21,20 @@ import java.util.Map;
  */
 public interface IConverter {
 
+    /**
+     * Converts a file from a given uri and writes the result to the given output stream.
+     *
+     * <p>
+     * Implementations should write the result while it is produced and must not close the stream,
+     * so the caller can pass the data on, e.g. to a http response and to a file at the same time.
+     *
+     * @param master the uri of the master file
+     * @param parameter a map of parameter
+     * @param outputStream the stream to write the converted file to
+     * @throws Exception by fatal errors
+     */
+    void convert(URI master, Map<String, String> parameter, OutputStream outputStream) throws Exception;
+
     /**
      * Converts a file from a given uri. Returns an output stream with the result.
      *
@@ -27,6 +42,30 @@ public interface IConverter {
      * @param parameter a map of parameter
      * @return an output stream of the converted file
      * @throws Exception by fatal errors
+     * @deprecated buffers the complete result in memory, use {@link #convert(URI, Map, OutputStream)}
+     */
+    @Deprecated
+    default OutputStream convert(URI master, Map<String, String> parameter) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        convert(master, parameter, outputStream);
+        return outputStream;
+    }
+
+    /**
+     * Converts a file from a given uri to several derivatives at once.
+     *
+     * <p>
+     * This implementation converts each derivative separately. Implementations should override this
+     * to read and decode the master only once and produce all derivatives from the decoded image.
+     * The streams must not be closed.
+     *
+     * @param master the uri of the master file
+     * @param outputs the parameter map of each derivative, mapped to the stream to write it to
+     * @throws Exception by fatal errors
      */
-    OutputStream convert(URI master, Map<String, String> parameter) throws Exception;
+    default void convertAll(URI master, Map<Map<String, String>, OutputStream> outputs) throws Exception {
+        for (Map.Entry<Map<String, String>, OutputStream> output : outputs.entrySet()) {
+            convert(master, output.getKey(), output.getValue());
+        }
+    }
 }
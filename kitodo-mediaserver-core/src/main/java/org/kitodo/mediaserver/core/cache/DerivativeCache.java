@@ -0,0 +1,376 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StringUtils;
+
+/**
+ * Keeps the disk space used by generated derivatives within a quota per volume.
+ *
+ * <p>
+ * Derivatives are the files in the work directories matching a configured pattern, so masters and METS files
+ * are never touched. Size, last access and number of accesses of every derivative are held in memory.
+ * The index is built by a directory scan of all works in the background at startup and kept up to date by
+ * {@link #add(String, File)} for produced and {@link #touch(File)} for delivered derivatives. The scan only
+ * walks the directory named by the leading literal part of the pattern, e.g. "derivatives" of
+ * "glob:derivatives/**".
+ *
+ * <p>
+ * If the derivatives on a volume exceed the quota, the least valuable ones are deleted until the usage is
+ * below the low watermark. The value of a derivative is its last access time plus a bonus for frequent access,
+ * so a derivative accessed often survives one which was accessed only once a little later.
+ *
+ * <p>
+ * The indexed derivatives are measured as "mediaserver.derivatives" and their disk usage as
+ * "mediaserver.derivatives.usage".
+ */
+public class DerivativeCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DerivativeCache.class);
+
+    @Autowired
+    private WorkRepository workRepository;
+
+    @Value("${derivativeCache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${derivativeCache.pattern:glob:derivatives/**}")
+    private String pattern;
+
+    @Value("${derivativeCache.quota:10240}")
+    private long quotaMegabytes;
+
+    @Value("${derivativeCache.lowWatermark:0.9}")
+    private double lowWatermark;
+
+    @Value("${derivativeCache.frequencyBonus:3600}")
+    private long frequencyBonusSeconds;
+
+    @Value("${derivativeCache.interval:300}")
+    private long interval;
+
+    private static final int PAGE_SIZE = 1000;
+
+    private static final String GLOB_SYNTAX = "glob:";
+
+    private PathMatcher matcher;
+
+    private String baseDirectory;
+
+    private ScheduledExecutorService scheduler;
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Map<FileStore, AtomicLong> usage = new ConcurrentHashMap<>();
+
+    // by device id, i.e. one per volume
+    private final Map<Object, FileStore> fileStores = new ConcurrentHashMap<>();
+
+    /**
+     * An indexed derivative.
+     */
+    private static class Entry {
+
+        private final long size;
+        private final FileStore fileStore;
+        private volatile long lastAccess;
+        private final AtomicInteger accesses = new AtomicInteger();
+
+        Entry(long size, FileStore fileStore, long lastAccess) {
+            this.size = size;
+            this.fileStore = fileStore;
+            this.lastAccess = lastAccess;
+        }
+
+        long getValue(long frequencyBonusMillis) {
+            // logarithmic, so a few accesses count much, many accesses not much more
+            return lastAccess + frequencyBonusMillis * (31 - Integer.numberOfLeadingZeros(accesses.get() + 1));
+        }
+    }
+
+    /**
+     * Starts the index scan and the periodic eviction in the background.
+     */
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        matcher = FileSystems.getDefault().getPathMatcher(pattern);
+        baseDirectory = getBaseDirectory(pattern);
+        Metrics.gauge("mediaserver.derivatives", this, DerivativeCache::size);
+        Gauge.builder("mediaserver.derivatives.usage", this, DerivativeCache::getUsage)
+                .baseUnit("bytes")
+                .register(Metrics.globalRegistry);
+        if (interval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("derivative-cache-"));
+            scheduler.execute(this::scan);
+            scheduler.scheduleWithFixedDelay(this::evict, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the periodic eviction.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Registers a produced derivative.
+     *
+     * @param derivativePath the path of the derivative relative to the work directory
+     * @param derivative the produced derivative
+     */
+    public void add(String derivativePath, File derivative) {
+        if (!enabled) {
+            return;
+        }
+        Path relativePath = new File(StringUtils.trimLeadingCharacter(derivativePath, '/')).toPath();
+        if (!matcher.matches(relativePath)) {
+            return;
+        }
+        Path path = derivative.toPath().toAbsolutePath();
+        try {
+            // a derivative may be produced again, e.g. after it was deleted by someone else
+            remove(path);
+            index(path, derivative.length(), System.currentTimeMillis(), getFileStore(path.getParent()));
+        } catch (IOException e) {
+            LOGGER.warn("Could not register derivative " + path + ": " + e);
+        }
+    }
+
+    /**
+     * Records an access to a derivative. Unknown files are ignored.
+     *
+     * @param derivative the accessed file
+     */
+    public void touch(File derivative) {
+        if (!enabled) {
+            return;
+        }
+        Entry entry = entries.get(derivative.toPath().toAbsolutePath());
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+            entry.accesses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the number of indexed derivatives.
+     *
+     * @return the number of derivatives
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the disk space used by indexed derivatives on all volumes.
+     *
+     * @return the used space in bytes
+     */
+    public long getUsage() {
+        return usage.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    /**
+     * Scans the directories of all works for derivatives.
+     */
+    public synchronized void scan() {
+        long start = System.currentTimeMillis();
+        Slice<String> paths = workRepository.findPaths(PageRequest.of(0, PAGE_SIZE, Sort.by("id")));
+        while (true) {
+            for (String path : paths) {
+                scan(new File(path).toPath().toAbsolutePath());
+            }
+            if (!paths.hasNext()) {
+                break;
+            }
+            paths = workRepository.findPaths(paths.nextPageable());
+        }
+        LOGGER.info("Indexed " + entries.size() + " derivatives with " + getUsage() + " bytes in "
+                + (System.currentTimeMillis() - start) + " ms");
+        evict();
+    }
+
+    private void scan(Path workDirectory) {
+        Path directory = workDirectory.resolve(baseDirectory);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try {
+            FileStore fileStore = getFileStore(directory);
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile() && matcher.matches(workDirectory.relativize(file))) {
+                        long lastAccess = Math.max(attributes.lastAccessTime().toMillis(),
+                                attributes.lastModifiedTime().toMillis());
+                        index(file, attributes.size(), lastAccess, fileStore);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Could not scan work directory " + workDirectory + ": " + e);
+        }
+    }
+
+    /**
+     * Deletes derivatives on all volumes exceeding the quota.
+     */
+    public synchronized void evict() {
+        long quota = quotaMegabytes * 1024 * 1024;
+        for (Map.Entry<FileStore, AtomicLong> volume : usage.entrySet()) {
+            if (volume.getValue().get() > quota) {
+                evict(volume.getKey(), volume.getValue().get() - (long) (quota * lowWatermark));
+            }
+        }
+    }
+
+    private void evict(FileStore fileStore, long bytesToFree) {
+        long frequencyBonusMillis = TimeUnit.SECONDS.toMillis(frequencyBonusSeconds);
+
+        List<Map.Entry<Path, Entry>> candidates = new ArrayList<>();
+        for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().fileStore.equals(fileStore)) {
+                candidates.add(entry);
+            }
+        }
+        // the value is read once, so concurrent accesses can't break the sort order
+        long[][] order = new long[candidates.size()][];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = new long[] {candidates.get(i).getValue().getValue(frequencyBonusMillis), i};
+        }
+        Arrays.sort(order, Comparator.comparingLong(item -> item[0]));
+
+        long freed = 0;
+        int deleted = 0;
+        for (long[] item : order) {
+            if (freed >= bytesToFree) {
+                break;
+            }
+            Map.Entry<Path, Entry> candidate = candidates.get((int) item[1]);
+            try {
+                Files.deleteIfExists(candidate.getKey());
+                if (remove(candidate.getKey())) {
+                    freed += candidate.getValue().size;
+                    deleted++;
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete derivative " + candidate.getKey() + ": " + e);
+            }
+        }
+        LOGGER.info("Deleted " + deleted + " derivatives with " + freed + " bytes from " + fileStore);
+    }
+
+    private void index(Path path, long size, long lastAccess, FileStore fileStore) {
+        Entry entry = new Entry(size, fileStore, lastAccess);
+        // an entry from a later access or production wins over a scanned one
+        if (entries.putIfAbsent(path, entry) == null) {
+            usage.computeIfAbsent(fileStore, key -> new AtomicLong()).addAndGet(size);
+        }
+    }
+
+    private boolean remove(Path path) {
+        Entry entry = entries.remove(path);
+        if (entry == null) {
+            return false;
+        }
+        usage.get(entry.fileStore).addAndGet(-entry.size);
+        return true;
+    }
+
+    /**
+     * Gets the volume of a directory, looked up once per device.
+     */
+    private FileStore getFileStore(Path directory) throws IOException {
+        Object device;
+        try {
+            device = Files.getAttribute(directory, "unix:dev");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // no device ids, e.g. on Windows
+            return Files.getFileStore(directory);
+        }
+        FileStore fileStore = fileStores.get(device);
+        if (fileStore == null) {
+            fileStore = Files.getFileStore(directory);
+            fileStores.put(device, fileStore);
+        }
+        return fileStore;
+    }
+
+    /**
+     * Gets the directory which contains all files matching a pattern, relative to the work directory.
+     *
+     * @param pattern the pattern of a {@link PathMatcher}
+     * @return the leading literal directories of a glob pattern or "" for the work directory
+     */
+    static String getBaseDirectory(String pattern) {
+        if (!pattern.startsWith(GLOB_SYNTAX)) {
+            return "";
+        }
+        String[] segments = pattern.substring(GLOB_SYNTAX.length()).split("/");
+        StringBuilder baseDirectory = new StringBuilder();
+        // the last segment is the file name
+        for (int i = 0; i < segments.length - 1; i++) {
+            if (segments[i].isEmpty() || segments[i].matches(".*[*?\\[{\\\\].*")) {
+                break;
+            }
+            baseDirectory.append(baseDirectory.length() > 0 ? "/" : "").append(segments[i]);
+        }
+        return baseDirectory.toString();
+    }
+}
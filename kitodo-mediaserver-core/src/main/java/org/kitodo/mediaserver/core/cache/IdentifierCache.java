@@ -0,0 +1,128 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.cache;
+
+import io.micrometer.core.instrument.Metrics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.kitodo.mediaserver.core.db.repositories.IdentifierRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * In-memory map of all identifiers, i.e. URNs and DOIs, to the ids of their works.
+ *
+ * <p>
+ * The map is loaded at startup, so resolving an identifier needs no database query.
+ * Identifiers of changed works are reloaded by {@link #reload(String)}, which is called
+ * when a work is invalidated, see {@link WorkCacheNotifier}.
+ * To catch missed notifications, the complete map is reloaded periodically.
+ * The number of identifiers is measured as "mediaserver.identifiers".
+ */
+public class IdentifierCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdentifierCache.class);
+
+    @Autowired
+    private IdentifierRepository identifierRepository;
+
+    @Value("${identifierCache.interval:3600}")
+    private long interval;
+
+    private volatile Map<String, String> workIds = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Loads all identifiers and schedules their periodic reloading.
+     */
+    @PostConstruct
+    public void init() {
+        Metrics.gauge("mediaserver.identifiers", this, IdentifierCache::size);
+        reloadAll();
+        if (interval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("identifier-cache-"));
+            scheduler.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the periodic reloading.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Resolves an identifier.
+     *
+     * @param identifier the identifier
+     * @return the id of the work or null, if the identifier is unknown
+     */
+    public String resolve(String identifier) {
+        return workIds.get(identifier);
+    }
+
+    /**
+     * Reloads the identifiers of a work, e.g. after it was imported or deleted.
+     *
+     * @param workId the id of the work
+     */
+    public void reload(String workId) {
+        Map<String, String> current = workIds;
+        current.values().removeIf(workId::equals);
+        for (String identifier : identifierRepository.findIdentifiersByWorkId(workId)) {
+            current.put(identifier, workId);
+        }
+    }
+
+    /**
+     * Reloads all identifiers.
+     */
+    public synchronized void reloadAll() {
+        Map<String, String> loaded = new ConcurrentHashMap<>();
+        for (Object[] row : identifierRepository.findAllWorkIds()) {
+            loaded.put((String) row[0], (String) row[1]);
+        }
+        workIds = loaded;
+        LOGGER.info("Loaded " + loaded.size() + " identifiers");
+    }
+
+    private void refresh() {
+        try {
+            reloadAll();
+        } catch (RuntimeException e) {
+            // keep the current identifiers and try again next time
+            LOGGER.error("Could not reload identifiers: " + e, e);
+        }
+    }
+
+    /**
+     * Gets the number of known identifiers.
+     *
+     * @return the number of identifiers
+     */
+    public int size() {
+        return workIds.size();
+    }
+}
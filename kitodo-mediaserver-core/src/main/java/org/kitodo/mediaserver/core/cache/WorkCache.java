@@ -0,0 +1,109 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.kitodo.mediaserver.core.models.WorkInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Read-through cache of the delivery relevant properties of works.
+ *
+ * <p>
+ * Works are cached for a configurable time and the number of cached works is bounded.
+ * Unknown works are not cached, so a newly imported work is found immediately.
+ * Changed works must be invalidated, see {@link WorkCacheNotifier} for other processes.
+ *
+ * <p>
+ * The cache is measured as cache "works", the lookups in the database as "mediaserver.works.lookup".
+ */
+public class WorkCache {
+
+    @Autowired
+    private WorkRepository workRepository;
+
+    @Value("${workCache.ttl:300}")
+    private long ttl;
+
+    @Value("${workCache.maxSize:10000}")
+    private long maxSize;
+
+    private Cache<String, WorkInfo> cache;
+
+    private final Timer lookupTimer = Metrics.timer("mediaserver.works.lookup");
+
+    /**
+     * Creates the cache.
+     */
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, cache, "works");
+    }
+
+    /**
+     * Gets a work from the cache or, if not cached, from the database.
+     *
+     * @param workId the id of the work
+     * @return the work or null, if there is no work with this id
+     */
+    public WorkInfo get(String workId) {
+        return cache.get(workId, id -> lookupTimer.record(() -> workRepository.findWorkInfoById(id).orElse(null)));
+    }
+
+    /**
+     * Removes a work from the cache, so changes in the database become visible.
+     *
+     * @param workId the id of the work
+     */
+    public void invalidate(String workId) {
+        cache.invalidate(workId);
+    }
+
+    /**
+     * Removes all works from the cache.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Gets the number of cached works.
+     *
+     * @return the number of works
+     */
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    /**
+     * Gets the statistics of the cache, i.e. hits and misses.
+     *
+     * @return the statistics
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.cache;
+
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Notifies the fileservers about changed works, so they invalidate their {@link WorkCache}.
+ *
+ * <p>
+ * To be used by the modules which change works, i.e. the importer and the UI.
+ * A fileserver which can't be reached is logged and skipped, its cache gets consistent after the TTL.
+ * The configured shared secret is sent in the header {@link #SECRET_HEADER}, the fileservers reject
+ * notifications without it.
+ */
+public class WorkCacheNotifier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkCacheNotifier.class);
+
+    public static final String INVALIDATION_PATH = "/cache/works/{workId}/invalidate";
+
+    public static final String SECRET_HEADER = "X-Mediaserver-Secret";
+
+    @Value("${workCache.fileservers:}")
+    private List<String> fileservers;
+
+    @Value("${workCache.secret:}")
+    private String secret;
+
+    private final RestTemplate restTemplate = new RestTemplate();
+
+    /**
+     * Notifies all configured fileservers about a changed work.
+     *
+     * @param workId the id of the changed work
+     */
+    public void workChanged(String workId) {
+        HttpHeaders headers = new HttpHeaders();
+        if (!secret.isEmpty()) {
+            headers.set(SECRET_HEADER, secret);
+        }
+        for (String fileserver : fileservers) {
+            try {
+                restTemplate.postForLocation(fileserver + INVALIDATION_PATH, new HttpEntity<>(headers), workId);
+            } catch (RestClientException e) {
+                LOGGER.warn("Could not notify fileserver " + fileserver + " about changed work " + workId + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.io.File;
+import java.io.IOException;
+import javax.annotation.PostConstruct;
+import org.kitodo.mediaserver.core.models.WorkIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Cache of the memory-mapped {@link WorkIndex} files of works.
+ *
+ * <p>
+ * An index is mapped again when the modification time of its file changed, i.e. when the work was imported
+ * again. Works without index, e.g. imported before indexes existed, are not cached, so their index is found
+ * once built. The cache is measured as cache "workIndexes".
+ */
+public class WorkIndexCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkIndexCache.class);
+
+    @Value("${workIndexCache.maxSize:1000}")
+    private long maxSize;
+
+    private Cache<String, MappedIndex> cache;
+
+    /**
+     * Creates the cache.
+     */
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, cache, "workIndexes");
+    }
+
+    /**
+     * Gets the index of a work.
+     *
+     * @param workPath the directory of the work
+     * @return the index, or null if the work has none or it is unreadable
+     */
+    public WorkIndex get(String workPath) {
+        File file = new File(workPath, WorkIndex.FILE_NAME);
+        long lastModified = file.lastModified();
+        if (lastModified == 0) {
+            return null;
+        }
+        MappedIndex cached = cache.getIfPresent(workPath);
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.index;
+        }
+        try {
+            WorkIndex index = WorkIndex.map(file.toPath());
+            cache.put(workPath, new MappedIndex(index, lastModified));
+            return index;
+        } catch (IOException e) {
+            LOGGER.warn("Could not read work index " + file.getAbsolutePath() + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * An index with the modification time of its file when mapped.
+     */
+    private static class MappedIndex {
+
+        private final WorkIndex index;
+        private final long lastModified;
+
+        MappedIndex(WorkIndex index, long lastModified) {
+            this.index = index;
+            this.lastModified = lastModified;
+        }
+    }
+}
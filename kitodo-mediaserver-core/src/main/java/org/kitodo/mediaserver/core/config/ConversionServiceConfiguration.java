@@ -0,0 +1,38 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+/**
+ * Spring configuration of the conversion of configuration values, imported by all modules.
+ *
+ * <p>
+ * Without a conversion service, a comma-separated value like workCache.allowedAddresses or
+ * workCache.fileservers is bound as a list with a single element. The cache endpoints of the fileserver
+ * would deny even the default loopback addresses, and the work cache notifier would call one invalid URL.
+ */
+@Configuration
+public class ConversionServiceConfiguration {
+
+    /**
+     * Gets the conversion service of the configuration values, which splits comma-separated lists.
+     * @return the conversion service
+     */
+    @Bean
+    public ConversionService conversionService() {
+        return new DefaultConversionService();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.kitodo.mediaserver.core.api.IAction;
+import org.kitodo.mediaserver.core.api.IConverter;
+import org.kitodo.mediaserver.core.cache.DerivativeCache;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Produces all configured derivatives of all masters of a work.
+ *
+ * <p>
+ * All derivatives of a master are produced in one pass by {@link IConverter#convertAll(java.net.URI, Map)},
+ * so the master is read only once. Derivatives already present are skipped.
+ * Request it as action "bulkConvert", e.g. for all works of a query with
+ * {@link org.kitodo.mediaserver.core.actions.ActionService#request(Iterable, String, Map)}.
+ */
+@ConfigurationProperties("bulk-conversion")
+public class BulkConvertAction implements IAction {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkConvertAction.class);
+
+    /**
+     * The placeholder for the name of the master without extension in derivative paths.
+     */
+    public static final String NAME_PLACEHOLDER = "{name}";
+
+    @Autowired
+    private WorkRepository workRepository;
+
+    private IConverter converter;
+
+    @Autowired(required = false)
+    private DerivativeCache derivativeCache;
+
+    private String masterPattern = "glob:master/*";
+
+    private List<Derivative> derivatives = new ArrayList<>();
+
+    public String getMasterPattern() {
+        return masterPattern;
+    }
+
+    public void setMasterPattern(String masterPattern) {
+        this.masterPattern = masterPattern;
+    }
+
+    public List<Derivative> getDerivatives() {
+        return derivatives;
+    }
+
+    public void setDerivatives(List<Derivative> derivatives) {
+        this.derivatives = derivatives;
+    }
+
+    public IConverter getConverter() {
+        return converter;
+    }
+
+    @Autowired(required = false)
+    public void setConverter(IConverter converter) {
+        this.converter = converter;
+    }
+
+    /**
+     * Produces the missing derivatives of all masters of a work.
+     *
+     * @param actionControl the actionControl object with the id of the work
+     * @return the number of produced derivatives
+     * @throws IllegalStateException if no converter is configured
+     * @throws IllegalArgumentException if the work doesn't exist
+     */
+    @Override
+    public Integer perform(ActionControl actionControl) throws Exception {
+
+        if (converter == null) {
+            throw new IllegalStateException("No converter is configured");
+        }
+
+        Work work = workRepository.findById(actionControl.getWorkId()).orElseThrow(
+            () -> new IllegalArgumentException("Work with id " + actionControl.getWorkId() + " not found"));
+        Path workDirectory = Paths.get(work.getPath());
+
+        int produced = 0;
+        List<Path> masters = findMasters(workDirectory, masterPattern);
+        for (Path master : masters) {
+            produced += convert(workDirectory, master);
+        }
+
+        LOGGER.info("Produced " + produced + " derivatives of " + masters.size() + " masters of work " + work.getId());
+        return produced;
+    }
+
+    /**
+     * Finds the masters of a work.
+     *
+     * @param workDirectory the directory of the work
+     * @param masterPattern the pattern of the masters, relative to the work directory
+     * @return the masters, sorted by path
+     * @throws IOException if the work directory could not be read
+     */
+    static List<Path> findMasters(Path workDirectory, String masterPattern) throws IOException {
+        if (!Files.isDirectory(workDirectory)) {
+            return Collections.emptyList();
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(masterPattern);
+        try (Stream<Path> files = Files.walk(workDirectory)) {
+            return files
+                    .filter(file -> matcher.matches(workDirectory.relativize(file)) && Files.isRegularFile(file))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private int convert(Path workDirectory, Path master) throws Exception {
+        String fileName = master.getFileName().toString();
+        int extension = fileName.lastIndexOf('.');
+        String name = extension > 0 ? fileName.substring(0, extension) : fileName;
+
+        Map<Map<String, String>, OutputStream> outputs = new LinkedHashMap<>();
+        Map<Path, Path> temporaryFiles = new LinkedHashMap<>();
+        Map<Path, String> derivativePaths = new HashMap<>();
+        try {
+            for (Derivative derivative : derivatives) {
+                String derivativePath = derivative.getPath().replace(NAME_PLACEHOLDER, name);
+                Path target = workDirectory.resolve(derivativePath);
+                if (Files.isRegularFile(target)) {
+                    continue;
+                }
+                Files.createDirectories(target.getParent());
+                // written next to the derivative and moved atomically, so nobody reads a partial file
+                Path temporaryFile = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+                temporaryFiles.put(temporaryFile, target);
+                derivativePaths.put(target, derivativePath);
+
+                Map<String, String> parameter = new HashMap<>(derivative.getParameter());
+                parameter.put(ConvertAction.DERIVATIVE_PATH_PARAMETER, "/" + derivativePath);
+                outputs.put(parameter, new BufferedOutputStream(Files.newOutputStream(temporaryFile)));
+            }
+            if (outputs.isEmpty()) {
+                return 0;
+            }
+
+            converter.convertAll(master.toUri(), outputs);
+
+            for (OutputStream outputStream : outputs.values()) {
+                outputStream.close();
+            }
+            for (Map.Entry<Path, Path> file : temporaryFiles.entrySet()) {
+                Path target = file.getValue();
+                Files.move(file.getKey(), target, StandardCopyOption.ATOMIC_MOVE);
+                if (derivativeCache != null) {
+                    derivativeCache.add(derivativePaths.get(target), target.toFile());
+                }
+            }
+            return temporaryFiles.size();
+
+        } finally {
+            for (OutputStream outputStream : outputs.values()) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Could not close derivative of " + master + ": " + e);
+                }
+            }
+            for (Path temporaryFile : temporaryFiles.keySet()) {
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+    }
+
+    /**
+     * A configured derivative, i.e. a path pattern and the parameter for the converter.
+     */
+    public static class Derivative {
+
+        private String path;
+
+        private Map<String, String> parameter = new HashMap<>();
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public Map<String, String> getParameter() {
+            return parameter;
+        }
+
+        public void setParameter(Map<String, String> parameter) {
+            this.parameter = parameter;
+        }
+    }
+}
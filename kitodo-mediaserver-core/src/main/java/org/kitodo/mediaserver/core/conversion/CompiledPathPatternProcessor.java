@@ -0,0 +1,274 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.kitodo.mediaserver.core.api.IPathPatternProcessor;
+
+/**
+ * Path pattern processor for patterns with variables, e.g. "derivatives/{size}/{name}.{format}".
+ *
+ * <p>
+ * The pattern is parsed once into literals and variables. A variable matches a non-empty part of one path
+ * segment, i.e. up to the leftmost occurrence of the following literal. The variable before the last one ends
+ * at the rightmost occurrence of its literal, so "{name}.{format}" splits "page.001.jpg" at the extension
+ * like the file names of works, and the last variable ends at the trailing literal at the end of the path.
+ * So paths are matched in one pass, without regular expressions or backtracking, and without allocating
+ * anything but the resolved map and its values.
+ * {@link #match(String, int[])} doesn't allocate at all.
+ */
+public class CompiledPathPatternProcessor implements IPathPatternProcessor {
+
+    private static final int ESTIMATED_VALUE_LENGTH = 16;
+
+    private final String pattern;
+
+    // literals[i] precedes variables[i], the last literal follows the last variable and may be empty
+    private final String[] literals;
+    private final String[] variables;
+    private final int literalsLength;
+
+    /**
+     * Compiles a pattern.
+     *
+     * @param pattern the pattern, with variables in braces
+     * @throws IllegalArgumentException if the pattern is invalid, e.g. has two variables without a literal between
+     */
+    public CompiledPathPatternProcessor(String pattern) {
+        this.pattern = pattern;
+
+        int count = 0;
+        for (int i = pattern.indexOf('{'); i >= 0; i = pattern.indexOf('{', i + 1)) {
+            count++;
+        }
+        literals = new String[count + 1];
+        variables = new String[count];
+
+        int position = 0;
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int start = pattern.indexOf('{', position);
+            int end = pattern.indexOf('}', start);
+            if (end < 0) {
+                throw new IllegalArgumentException("Unclosed variable in pattern " + pattern);
+            }
+            literals[i] = pattern.substring(position, start);
+            variables[i] = pattern.substring(start + 1, end);
+            if (variables[i].isEmpty() || variables[i].indexOf('}') >= 0 || literals[i].indexOf('}') >= 0) {
+                throw new IllegalArgumentException("Invalid variable in pattern " + pattern);
+            }
+            if (i > 0 && literals[i].isEmpty()) {
+                throw new IllegalArgumentException("Variables without separator in pattern " + pattern);
+            }
+            if (Arrays.asList(variables).subList(0, i).contains(variables[i])) {
+                throw new IllegalArgumentException("Duplicate variable " + variables[i] + " in pattern " + pattern);
+            }
+            length += literals[i].length();
+            position = end + 1;
+        }
+        literals[count] = pattern.substring(position);
+        if (literals[count].indexOf('}') >= 0) {
+            throw new IllegalArgumentException("Invalid pattern " + pattern);
+        }
+        literalsLength = length + literals[count].length();
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Gets the names of the variables.
+     *
+     * @return the variables in the order of the pattern
+     */
+    public List<String> getVariables() {
+        return Collections.unmodifiableList(Arrays.asList(variables));
+    }
+
+    /**
+     * Checks if a path matches the pattern, without allocating.
+     *
+     * @param path the path
+     * @return true, if the path matches the pattern
+     */
+    public boolean matches(String path) {
+        return match(path, null, null);
+    }
+
+    /**
+     * Matches a path without allocating, storing the positions of the variables.
+     *
+     * @param path the path
+     * @param bounds receives the start and end position of each variable, must have twice their number of elements
+     * @return true, if the path matches the pattern
+     */
+    public boolean match(String path, int[] bounds) {
+        return match(path, bounds, null);
+    }
+
+    private boolean match(String path, int[] bounds, String[] values) {
+        String first = literals[0];
+        if (!path.startsWith(first)) {
+            return false;
+        }
+        int last = variables.length;
+        if (last == 0) {
+            return path.length() == first.length();
+        }
+        String trailing = literals[last];
+        if (!path.endsWith(trailing) || path.length() < first.length() + trailing.length()) {
+            return false;
+        }
+
+        int position = first.length();
+        for (int i = 0; i < last; i++) {
+            int end;
+            if (i == last - 1) {
+                end = path.length() - trailing.length();
+            } else if (i == last - 2) {
+                String separator = literals[i + 1];
+                end = path.lastIndexOf(separator, path.length() - trailing.length() - separator.length() - 1);
+            } else {
+                end = path.indexOf(literals[i + 1], position);
+            }
+            if (end <= position) {
+                return false;
+            }
+            for (int j = position; j < end; j++) {
+                if (path.charAt(j) == '/') {
+                    return false;
+                }
+            }
+            if (bounds != null) {
+                bounds[2 * i] = position;
+                bounds[2 * i + 1] = end;
+            }
+            if (values != null) {
+                values[i] = path.substring(position, end);
+            }
+            position = end + (i == last - 1 ? trailing.length() : literals[i + 1].length());
+        }
+        return position == path.length();
+    }
+
+    /**
+     * Resolves a path to the values of its variables.
+     *
+     * @param path a file path
+     * @return an unmodifiable map with the values of the variables
+     * @throws IllegalArgumentException if the path doesn't match the pattern
+     */
+    @Override
+    public Map<String, String> resolve(String path) {
+        String[] values = new String[variables.length];
+        if (!match(path, null, values)) {
+            throw new IllegalArgumentException("The path " + path + " doesn't match the pattern " + pattern);
+        }
+        return new ResolvedMap(variables, values);
+    }
+
+    /**
+     * Composes a path from the values of the variables.
+     *
+     * @param parameterMap the values of the variables, further entries are ignored
+     * @return the path
+     * @throws IllegalArgumentException if a value is missing, empty or contains a slash
+     */
+    @Override
+    public String compose(Map<String, String> parameterMap) {
+        StringBuilder path = new StringBuilder(literalsLength + variables.length * ESTIMATED_VALUE_LENGTH);
+        for (int i = 0; i < variables.length; i++) {
+            String value = parameterMap.get(variables[i]);
+            if (value == null || value.isEmpty() || value.indexOf('/') >= 0) {
+                throw new IllegalArgumentException("Invalid value " + value + " of variable " + variables[i]
+                        + " for pattern " + pattern);
+            }
+            path.append(literals[i]).append(value);
+        }
+        return path.append(literals[variables.length]).toString();
+    }
+
+    /**
+     * An unmodifiable map sharing the variables of the pattern as keys.
+     */
+    private static class ResolvedMap extends AbstractMap<String, String> {
+
+        private final String[] keys;
+        private final String[] values;
+
+        ResolvedMap(String[] keys, String[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public String get(Object key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return keys.length;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < keys.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (index >= keys.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, String> entry = new SimpleImmutableEntry<>(keys[index], values[index]);
+                            index++;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+            };
+        }
+    }
+}
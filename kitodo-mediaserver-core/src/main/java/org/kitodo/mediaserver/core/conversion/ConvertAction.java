@@ -11,36 +11,185 @@
 
 package org.kitodo.mediaserver.core.conversion;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.regex.Pattern;
 import org.kitodo.mediaserver.core.api.IAction;
 import org.kitodo.mediaserver.core.api.IConverter;
-import org.kitodo.mediaserver.core.models.ActionControl;
+import org.kitodo.mediaserver.core.cache.DerivativeCache;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.util.StringUtils;
 
 /**
  * Basic implementation of a convertion action.
+ *
+ * <p>
+ * Requested as action "convert", the derivative is stored in the work directory, so queued conversions
+ * have a persistent result. The fileserver streams conversions for waiting clients with
+ * {@link #perform(ActionControl, OutputStream)} instead.
+ *
+ * <p>
+ * The conversions are timed as "mediaserver.conversions", by converter, format and outcome.
  */
 public class ConvertAction implements IAction {
 
+    /**
+     * The parameter with the path of the derivative relative to the work directory.
+     */
+    public static final String DERIVATIVE_PATH_PARAMETER = "derivativePath";
+
+    /**
+     * The optional parameter with the URI of the master file, if it is already known to the requester.
+     */
+    public static final String MASTER_PARAMETER = "master";
+
+    private static final String CONVERSIONS_METER = "mediaserver.conversions";
+    private static final String FORMAT_PARAMETER = "format";
+
+    // the format is taken from the requested path, so only plausible extensions become tags
+    private static final Pattern FORMAT = Pattern.compile("[a-z0-9]{1,5}");
+
     private IConverter converter;
 
+    private MasterResolver masterResolver;
+
+    @Autowired(required = false)
+    private WorkRepository workRepository;
+
+    @Autowired(required = false)
+    private DerivativeCache derivativeCache;
+
+    public IConverter getConverter() {
+        return converter;
+    }
+
+    @Autowired(required = false)
+    public void setConverter(IConverter converter) {
+        this.converter = converter;
+    }
+
+    public MasterResolver getMasterResolver() {
+        return masterResolver;
+    }
+
+    @Autowired(required = false)
+    public void setMasterResolver(MasterResolver masterResolver) {
+        this.masterResolver = masterResolver;
+    }
+
     /**
-     * Performs a convert action.
+     * Performs a convert action, storing the derivative in the work directory.
      *
      * <p>
-     * Uses the injected converter to the convert the master file.
+     * The derivative is written next to its path and moved there atomically, so nobody reads a partial file,
+     * and added to the derivative cache. A derivative already present is not produced again.
      *
      * @param actionControl the actionControl object with the definition of the specific action.
-     * @return              the converted file.
+     * @return              the derivative file.
+     * @throws IllegalStateException if no converter or work repository is configured
+     * @throws IllegalArgumentException if the derivative path is missing or outside the work, or the work
+     *                                  or its master is not found
      */
-    public OutputStream perform(ActionControl actionControl) throws Exception {
+    @Override
+    public File perform(ActionControl actionControl) throws Exception {
+
+        String derivativePath = actionControl.getParameter().get(DERIVATIVE_PATH_PARAMETER);
+        if (derivativePath == null) {
+            throw new IllegalArgumentException("Parameter " + DERIVATIVE_PATH_PARAMETER + " is missing");
+        }
+        if (workRepository == null) {
+            throw new IllegalStateException("No work repository is configured");
+        }
+        Work work = workRepository.findById(actionControl.getWorkId()).orElseThrow(
+            () -> new IllegalArgumentException("Work with id " + actionControl.getWorkId() + " not found"));
+        Path workDirectory = Paths.get(work.getPath()).toAbsolutePath().normalize();
+        Path target = workDirectory.resolve(StringUtils.trimLeadingCharacter(derivativePath, '/')).normalize();
+        if (!target.startsWith(workDirectory) || target.equals(workDirectory)) {
+            throw new IllegalArgumentException("The derivative " + derivativePath + " is outside of work "
+                    + work.getId());
+        }
+        if (Files.isRegularFile(target)) {
+            return target.toFile();
+        }
+
+        Files.createDirectories(target.getParent());
+        Path temporaryFile = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(temporaryFile))) {
+                perform(actionControl, outputStream);
+            }
+            Files.move(temporaryFile, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        if (derivativeCache != null) {
+            derivativeCache.add(derivativePath, target.toFile());
+        }
+        return target.toFile();
+    }
+
+    /**
+     * Performs a convert action, writing the converted file to a stream.
+     *
+     * <p>
+     * Uses the injected converter to the convert the master file. The master is given as parameter or found by
+     * the {@link MasterResolver}.
+     *
+     * @param actionControl the actionControl object with the definition of the specific action.
+     * @param outputStream  the stream to write the converted file to, it is not closed.
+     * @throws IllegalStateException if no converter is configured
+     * @throws IllegalArgumentException if the master is not found
+     */
+    public void perform(ActionControl actionControl, OutputStream outputStream) throws Exception {
+
+        if (converter == null) {
+            throw new IllegalStateException("No converter is configured");
+        }
 
-        // Find the master file using the params in the actionControl object TODO
         URI masterFile = null;
+        if (actionControl.getParameter().containsKey(MASTER_PARAMETER)) {
+            masterFile = URI.create(actionControl.getParameter().get(MASTER_PARAMETER));
+        } else if (masterResolver != null) {
+            masterFile = masterResolver.resolve(actionControl.getWorkId(), actionControl.getParameter());
+            if (masterFile == null) {
+                throw new IllegalArgumentException("No master found for " + actionControl.getParameter()
+                        + " of work " + actionControl.getWorkId());
+            }
+        }
 
         // Convert the file
-        OutputStream convertedFile = converter.convert(masterFile, actionControl.getParameter());
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        String outcome = "error";
+        try {
+            converter.convert(masterFile, actionControl.getParameter(), outputStream);
+            outcome = "success";
+        } finally {
+            sample.stop(Metrics.timer(CONVERSIONS_METER, "converter", converter.getClass().getSimpleName(),
+                    "format", getFormat(actionControl.getParameter()), "outcome", outcome));
+        }
+    }
 
-        return convertedFile;
+    /**
+     * Gets the format of the derivative for the metrics, from the parameter or the extension of its path.
+     */
+    private static String getFormat(Map<String, String> parameter) {
+        String format = parameter.get(FORMAT_PARAMETER);
+        if (format == null) {
+            format = StringUtils.getFilenameExtension(parameter.get(DERIVATIVE_PATH_PARAMETER));
+        }
+        format = format != null ? format.toLowerCase() : "";
+        return FORMAT.matcher(format).matches() ? format : "other";
     }
 }
@@ -0,0 +1,237 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import org.kitodo.mediaserver.core.api.IPathPatternProcessor;
+
+/**
+ * Path pattern processor for the parameters of the IIIF Image API.
+ *
+ * <p>
+ * Resolves paths like "{region}/{size}/{rotation}/{quality}.{format}" of versions 2 and 3 of the API to the
+ * parameter of the {@link ImageIOConverter}, and composes the canonical path of a parameter map.
+ * Equivalent requests, e.g. "full/max/0/color.jpg" and "full/full/360/default.jpg", compose to the same path,
+ * so they share one derivative.
+ * All values are parsed, so composed paths are safe to use as file paths.
+ */
+public class IiifPathPatternProcessor implements IPathPatternProcessor {
+
+    private static final String FULL = "full";
+    private static final String DEFAULT_QUALITY = "default";
+    private static final String DEFAULT_FORMAT = "jpg";
+    private static final int MAX_DIGITS = 10;
+
+    /**
+     * Resolves IIIF image request parameters to converter parameters.
+     *
+     * @param path the image request parameters, i.e. the path following the identifier
+     * @return the parameter for the converter
+     * @throws IllegalArgumentException if the path is no valid or supported image request
+     */
+    @Override
+    public Map<String, String> resolve(String path) {
+        String[] segments = (path.startsWith("/") ? path.substring(1) : path).split("/");
+        if (segments.length != 4) {
+            throw new IllegalArgumentException("Invalid image request " + path);
+        }
+        int dot = segments[3].lastIndexOf('.');
+        if (dot < 0) {
+            throw new IllegalArgumentException("No format in image request " + path);
+        }
+
+        Map<String, String> parameter = new HashMap<>();
+        resolveRegion(segments[0], parameter);
+        resolveSize(segments[1], parameter);
+        resolveRotation(segments[2], parameter);
+        resolveQuality(segments[3].substring(0, dot), parameter);
+        resolveFormat(segments[3].substring(dot + 1), parameter);
+        return parameter;
+    }
+
+    /**
+     * Composes the canonical image request parameters of resolved converter parameters.
+     *
+     * @param parameterMap converter parameters resolved by this processor
+     * @return the image request parameters, e.g. "0,0,512,512/512,/0/default.jpg"
+     */
+    @Override
+    public String compose(Map<String, String> parameterMap) {
+        StringBuilder path = new StringBuilder(64);
+
+        path.append(parameterMap.getOrDefault(ImageIOConverter.REGION_PARAMETER, FULL)).append('/');
+
+        String width = parameterMap.get(ImageIOConverter.WIDTH_PARAMETER);
+        String height = parameterMap.get(ImageIOConverter.HEIGHT_PARAMETER);
+        if (parameterMap.containsKey(ImageIOConverter.SIZE_PARAMETER)) {
+            path.append('!').append(parameterMap.get(ImageIOConverter.SIZE_PARAMETER));
+        } else if (parameterMap.containsKey(ImageIOConverter.SCALE_PARAMETER)) {
+            path.append("pct:").append(parameterMap.get(ImageIOConverter.SCALE_PARAMETER));
+        } else if (width != null || height != null) {
+            path.append(width != null ? width : "").append(',').append(height != null ? height : "");
+        } else {
+            path.append(FULL);
+        }
+        path.append('/');
+
+        if (Boolean.parseBoolean(parameterMap.get(ImageIOConverter.MIRROR_PARAMETER))) {
+            path.append('!');
+        }
+        path.append(parameterMap.getOrDefault(ImageIOConverter.ROTATION_PARAMETER, "0")).append('/');
+
+        path.append(parameterMap.getOrDefault(ImageIOConverter.QUALITY_PARAMETER, DEFAULT_QUALITY)).append('.');
+        path.append(parameterMap.getOrDefault(ImageIOConverter.FORMAT_PARAMETER, DEFAULT_FORMAT));
+        return path.toString();
+    }
+
+    private void resolveRegion(String region, Map<String, String> parameter) {
+        if (FULL.equals(region)) {
+            return;
+        }
+        if ("square".equals(region)) {
+            parameter.put(ImageIOConverter.REGION_PARAMETER, region);
+            return;
+        }
+        boolean percent = region.startsWith("pct:");
+        String[] values = (percent ? region.substring(4) : region).split(",");
+        if (values.length != 4) {
+            throw new IllegalArgumentException("Invalid region " + region);
+        }
+        StringBuilder value = new StringBuilder(percent ? "pct:" : "");
+        for (int i = 0; i < 4; i++) {
+            String number = percent ? parseDecimal(values[i]) : String.valueOf(parseInteger(values[i]));
+            if (i >= 2 && (percent ? new BigDecimal(number).signum() : parseInteger(number)) <= 0) {
+                throw new IllegalArgumentException("Empty region " + region);
+            }
+            value.append(i > 0 ? "," : "").append(number);
+        }
+        parameter.put(ImageIOConverter.REGION_PARAMETER, value.toString());
+    }
+
+    private void resolveSize(String size, Map<String, String> parameter) {
+        // upscaling of version 3 is always allowed
+        String value = size.startsWith("^") ? size.substring(1) : size;
+        if (FULL.equals(value) || "max".equals(value)) {
+            return;
+        }
+        if (value.startsWith("pct:")) {
+            String scale = parseDecimal(value.substring(4));
+            if (new BigDecimal(scale).signum() <= 0) {
+                throw new IllegalArgumentException("Invalid size " + size);
+            }
+            parameter.put(ImageIOConverter.SCALE_PARAMETER, scale);
+            return;
+        }
+        boolean bounded = value.startsWith("!");
+        int comma = value.indexOf(',');
+        if (comma < 0) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        String width = value.substring(bounded ? 1 : 0, comma);
+        String height = value.substring(comma + 1);
+        if (bounded) {
+            parameter.put(ImageIOConverter.SIZE_PARAMETER, parsePositive(width, size) + "," + parsePositive(height, size));
+            return;
+        }
+        if (width.isEmpty() && height.isEmpty()) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        if (!width.isEmpty()) {
+            parameter.put(ImageIOConverter.WIDTH_PARAMETER, String.valueOf(parsePositive(width, size)));
+        }
+        if (!height.isEmpty()) {
+            parameter.put(ImageIOConverter.HEIGHT_PARAMETER, String.valueOf(parsePositive(height, size)));
+        }
+    }
+
+    private void resolveRotation(String rotation, Map<String, String> parameter) {
+        boolean mirror = rotation.startsWith("!");
+        BigDecimal degrees = new BigDecimal(parseDecimal(mirror ? rotation.substring(1) : rotation));
+        if (degrees.signum() < 0 || degrees.compareTo(BigDecimal.valueOf(360)) > 0
+                || degrees.remainder(BigDecimal.valueOf(90)).signum() != 0) {
+            throw new IllegalArgumentException("Only rotations by multiples of 90 degrees are supported");
+        }
+        int value = degrees.intValue() % 360;
+        if (value != 0) {
+            parameter.put(ImageIOConverter.ROTATION_PARAMETER, String.valueOf(value));
+        }
+        if (mirror) {
+            parameter.put(ImageIOConverter.MIRROR_PARAMETER, "true");
+        }
+    }
+
+    private void resolveQuality(String quality, Map<String, String> parameter) {
+        switch (quality) {
+            case DEFAULT_QUALITY:
+            case "color":
+                return;
+            case "gray":
+            case "bitonal":
+                parameter.put(ImageIOConverter.QUALITY_PARAMETER, quality);
+                return;
+            default:
+                throw new IllegalArgumentException("Unsupported quality " + quality);
+        }
+    }
+
+    private void resolveFormat(String format, Map<String, String> parameter) {
+        switch (format) {
+            case DEFAULT_FORMAT:
+                return;
+            case "png":
+            case "tif":
+            case "gif":
+                parameter.put(ImageIOConverter.FORMAT_PARAMETER, format);
+                return;
+            default:
+                throw new IllegalArgumentException("Unsupported format " + format);
+        }
+    }
+
+    private static int parseInteger(String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number < 0) {
+                throw new IllegalArgumentException("Negative value " + value);
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number " + value, e);
+        }
+    }
+
+    private static int parsePositive(String value, String size) {
+        int number = parseInteger(value);
+        if (number == 0) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        return number;
+    }
+
+    private static String parseDecimal(String value) {
+        try {
+            BigDecimal number = new BigDecimal(value).stripTrailingZeros();
+            if (number.signum() < 0) {
+                throw new IllegalArgumentException("Negative value " + value);
+            }
+            // exponents like 1e999999 would compose to huge paths
+            if (number.scale() > MAX_DIGITS || number.precision() - number.scale() > MAX_DIGITS) {
+                throw new IllegalArgumentException("Invalid number " + value);
+            }
+            return number.signum() == 0 ? "0" : number.toPlainString();
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number " + value, e);
+        }
+    }
+}
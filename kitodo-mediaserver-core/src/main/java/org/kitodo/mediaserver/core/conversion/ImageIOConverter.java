@@ -0,0 +1,363 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import org.kitodo.mediaserver.core.api.IConverter;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Converter for images, based on ImageIO with the TwelveMonkeys plugins for TIFF and JPEG.
+ *
+ * <p>
+ * Only the requested region of the master is decoded, and with subsampling if a smaller image is requested,
+ * so the decoded raster is at most twice as large as the result in each dimension.
+ * {@link #convertAll(URI, Map)} decodes the master once for all derivatives.
+ *
+ * <p>
+ * Supported parameters: region ("x,y,w,h" in pixels of the master, "pct:x,y,w,h" in percent or "square"),
+ * size (the maximum width and height, or "w,h" as bounding box), width and height (one of them keeps the
+ * aspect ratio), scale (in percent), rotation (a multiple of 90 degrees), mirror ("true"),
+ * quality ("color", "gray" or "bitonal") and format ("jpg", "png", "tif" or "gif").
+ */
+public class ImageIOConverter implements IConverter {
+
+    public static final String REGION_PARAMETER = "region";
+    public static final String SIZE_PARAMETER = "size";
+    public static final String WIDTH_PARAMETER = "width";
+    public static final String HEIGHT_PARAMETER = "height";
+    public static final String SCALE_PARAMETER = "scale";
+    public static final String ROTATION_PARAMETER = "rotation";
+    public static final String MIRROR_PARAMETER = "mirror";
+    public static final String QUALITY_PARAMETER = "quality";
+    public static final String FORMAT_PARAMETER = "format";
+
+    private static final String DEFAULT_FORMAT = "jpg";
+
+    @Value("${imageConverter.jpegQuality:0.85}")
+    private float jpegQuality = 0.85f;
+
+    @Value("${imageConverter.maxArea:100000000}")
+    private long maxArea = 100000000L;
+
+    /**
+     * Registers the ImageIO plugins of the classpath, which are not found in some servlet containers otherwise.
+     */
+    @PostConstruct
+    public void init() {
+        ImageIO.scanForPlugins();
+        // the streams are written to files or responses anyway, don't cache them in temporary files
+        ImageIO.setUseCache(false);
+    }
+
+    @Override
+    public void convert(URI master, Map<String, String> parameter, OutputStream outputStream) throws Exception {
+        convertAll(master, Collections.singletonMap(parameter, outputStream));
+    }
+
+    @Override
+    public void convertAll(URI master, Map<Map<String, String>, OutputStream> outputs) throws Exception {
+        if (master == null) {
+            throw new FileNotFoundException("No master file given");
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(master))) {
+            if (input == null) {
+                throw new IOException("Could not read " + master);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("The format of " + master + " is not supported");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                Dimension size = new Dimension(reader.getWidth(0), reader.getHeight(0));
+
+                List<Operation> operations = new ArrayList<>();
+                Rectangle region = null;
+                int subsampling = Integer.MAX_VALUE;
+                for (Map<String, String> parameter : outputs.keySet()) {
+                    Operation operation = new Operation(parameter, size);
+                    // the result is held uncompressed, so it must not exhaust the memory
+                    if ((long) operation.width * operation.height > maxArea) {
+                        throw new IllegalArgumentException("The size " + operation.width + "x" + operation.height
+                                + " exceeds the maximum area of " + maxArea + " pixels");
+                    }
+                    operations.add(operation);
+                    region = region == null ? operation.region : region.union(operation.region);
+                    subsampling = Math.min(subsampling, operation.getSubsampling());
+                }
+                if (operations.isEmpty()) {
+                    return;
+                }
+
+                // the TIFF reader fails on horizontal offsets combined with subsampling,
+                // so whole rows are decoded then, which are still subsampled
+                if (subsampling > 1 && reader.getFormatName().toLowerCase().startsWith("tif")) {
+                    region = new Rectangle(0, region.y, size.width, region.height);
+                }
+
+                ImageReadParam readParam = reader.getDefaultReadParam();
+                readParam.setSourceRegion(region);
+                readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, readParam);
+
+                Iterator<OutputStream> outputStreams = outputs.values().iterator();
+                for (Operation operation : operations) {
+                    BufferedImage image = operation.apply(decoded, region, subsampling);
+                    write(image, operation.format, outputStreams.next());
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reads the size of an image from its header, without decoding it.
+     *
+     * @param master the image
+     * @return the width and height of the image
+     * @throws IOException if the image could not be read or its format is not supported
+     */
+    public static Dimension readSize(URI master) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(master))) {
+            if (input == null) {
+                throw new IOException("Could not read " + master);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("The format of " + master + " is not supported");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Computes the size of a derivative from the size of its master, without reading the master.
+     *
+     * @param parameter the parameter of the derivative
+     * @param size the width and height of the master
+     * @return the width and height of the derivative, after rotation
+     * @throws IllegalArgumentException if the parameter are invalid or not supported
+     */
+    public static Dimension getSize(Map<String, String> parameter, Dimension size) {
+        Operation operation = new Operation(parameter, size);
+        return operation.rotation % 180 == 0
+                ? new Dimension(operation.width, operation.height)
+                : new Dimension(operation.height, operation.width);
+    }
+
+    /**
+     * Computes the subsampling for decoding a region for a smaller image.
+     *
+     * @param region the size of the region of the master
+     * @param width the width of the result
+     * @param height the height of the result
+     * @return the largest subsampling keeping at least the resolution of the result
+     */
+    static int getSubsampling(Dimension region, int width, int height) {
+        return Math.max(1, Math.min(region.width / width, region.height / height));
+    }
+
+    private void write(BufferedImage image, String format, OutputStream outputStream) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IllegalArgumentException("The format " + format + " is not supported");
+        }
+        ImageWriter writer = writers.next();
+        // closing the image stream doesn't close the output stream
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(outputStream)) {
+            writer.setOutput(output);
+            ImageWriteParam writeParam = writer.getDefaultWriteParam();
+            if (DEFAULT_FORMAT.equals(format)) {
+                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                writeParam.setCompressionQuality(jpegQuality);
+            }
+            writer.write(null, new IIOImage(image, null, null), writeParam);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * The operations producing one derivative.
+     */
+    private static class Operation {
+
+        private final Rectangle region;
+        private final int width;
+        private final int height;
+        private final int rotation;
+        private final boolean mirror;
+        private final int imageType;
+        private final String format;
+
+        Operation(Map<String, String> parameter, Dimension size) {
+            region = getRegion(parameter.get(REGION_PARAMETER), size);
+
+            if (parameter.containsKey(SIZE_PARAMETER)) {
+                String[] maximum = parameter.get(SIZE_PARAMETER).split(",");
+                int maximumWidth = Integer.parseInt(maximum[0].trim());
+                int maximumHeight = maximum.length > 1 ? Integer.parseInt(maximum[1].trim()) : maximumWidth;
+                double scale = Math.min((double) maximumWidth / region.width, (double) maximumHeight / region.height);
+                width = Math.max(1, (int) Math.round(region.width * scale));
+                height = Math.max(1, (int) Math.round(region.height * scale));
+            } else if (parameter.containsKey(SCALE_PARAMETER)) {
+                double scale = Double.parseDouble(parameter.get(SCALE_PARAMETER)) / 100;
+                width = Math.max(1, (int) Math.round(region.width * scale));
+                height = Math.max(1, (int) Math.round(region.height * scale));
+            } else if (parameter.containsKey(WIDTH_PARAMETER) && parameter.containsKey(HEIGHT_PARAMETER)) {
+                width = Integer.parseInt(parameter.get(WIDTH_PARAMETER));
+                height = Integer.parseInt(parameter.get(HEIGHT_PARAMETER));
+            } else if (parameter.containsKey(WIDTH_PARAMETER)) {
+                width = Integer.parseInt(parameter.get(WIDTH_PARAMETER));
+                height = Math.max(1, (int) Math.round((double) region.height * width / region.width));
+            } else if (parameter.containsKey(HEIGHT_PARAMETER)) {
+                height = Integer.parseInt(parameter.get(HEIGHT_PARAMETER));
+                width = Math.max(1, (int) Math.round((double) region.width * height / region.height));
+            } else {
+                width = region.width;
+                height = region.height;
+            }
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+            }
+
+            rotation = Math.floorMod(Integer.parseInt(parameter.getOrDefault(ROTATION_PARAMETER, "0")), 360);
+            if (rotation % 90 != 0) {
+                throw new IllegalArgumentException("Only rotations by multiples of 90 degrees are supported");
+            }
+            mirror = Boolean.parseBoolean(parameter.get(MIRROR_PARAMETER));
+
+            format = getFormat(parameter.getOrDefault(FORMAT_PARAMETER, DEFAULT_FORMAT));
+            String quality = parameter.getOrDefault(QUALITY_PARAMETER, "color");
+            if ("gray".equals(quality) || ("bitonal".equals(quality) && DEFAULT_FORMAT.equals(format))) {
+                imageType = BufferedImage.TYPE_BYTE_GRAY;
+            } else if ("bitonal".equals(quality)) {
+                imageType = BufferedImage.TYPE_BYTE_BINARY;
+            } else {
+                imageType = BufferedImage.TYPE_INT_RGB;
+            }
+        }
+
+        int getSubsampling() {
+            return ImageIOConverter.getSubsampling(region.getSize(), width, height);
+        }
+
+        BufferedImage apply(BufferedImage decoded, Rectangle decodedRegion, int subsampling) {
+            // the region within the decoded part of the master
+            int x = (region.x - decodedRegion.x) / subsampling;
+            int y = (region.y - decodedRegion.y) / subsampling;
+            int regionWidth = Math.max(1, Math.min(decoded.getWidth() - x, region.width / subsampling));
+            int regionHeight = Math.max(1, Math.min(decoded.getHeight() - y, region.height / subsampling));
+            BufferedImage cropped = decoded.getSubimage(x, y, regionWidth, regionHeight);
+
+            BufferedImage scaled = new BufferedImage(width, height, imageType);
+            Graphics2D graphics = scaled.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(cropped, 0, 0, width, height, null);
+            graphics.dispose();
+
+            if (rotation == 0 && !mirror) {
+                return scaled;
+            }
+            int rotatedWidth = rotation % 180 == 0 ? width : height;
+            int rotatedHeight = rotation % 180 == 0 ? height : width;
+            AffineTransform transform = new AffineTransform();
+            transform.translate(rotatedWidth / 2.0, rotatedHeight / 2.0);
+            transform.rotate(Math.toRadians(rotation));
+            if (mirror) {
+                transform.scale(-1, 1);
+            }
+            transform.translate(-width / 2.0, -height / 2.0);
+            BufferedImage rotated = new BufferedImage(rotatedWidth, rotatedHeight, imageType);
+            graphics = rotated.createGraphics();
+            graphics.drawImage(scaled, transform, null);
+            graphics.dispose();
+            return rotated;
+        }
+
+        private static Rectangle getRegion(String region, Dimension size) {
+            Rectangle image = new Rectangle(size);
+            if (region == null) {
+                return image;
+            }
+            if ("square".equals(region)) {
+                int side = Math.min(size.width, size.height);
+                return new Rectangle((size.width - side) / 2, (size.height - side) / 2, side, side);
+            }
+            boolean percent = region.startsWith("pct:");
+            String[] values = (percent ? region.substring(4) : region).split(",");
+            if (values.length != 4) {
+                throw new IllegalArgumentException("Invalid region " + region);
+            }
+            Rectangle requested;
+            if (percent) {
+                requested = new Rectangle(
+                        (int) Math.round(Double.parseDouble(values[0].trim()) * size.width / 100),
+                        (int) Math.round(Double.parseDouble(values[1].trim()) * size.height / 100),
+                        (int) Math.round(Double.parseDouble(values[2].trim()) * size.width / 100),
+                        (int) Math.round(Double.parseDouble(values[3].trim()) * size.height / 100));
+            } else {
+                requested = new Rectangle(Integer.parseInt(values[0].trim()), Integer.parseInt(values[1].trim()),
+                        Integer.parseInt(values[2].trim()), Integer.parseInt(values[3].trim()));
+            }
+            Rectangle clipped = requested.intersection(image);
+            if (clipped.isEmpty()) {
+                throw new IllegalArgumentException("The region " + region + " is outside of the image");
+            }
+            return clipped;
+        }
+
+        private static String getFormat(String format) {
+            switch (format.toLowerCase()) {
+                case "jpeg":
+                    return "jpg";
+                case "tiff":
+                    return "tif";
+                default:
+                    return format.toLowerCase();
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import org.kitodo.mediaserver.core.cache.WorkIndexCache;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.kitodo.mediaserver.core.models.WorkIndex;
+import org.kitodo.mediaserver.core.models.WorkInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Finds the master of a requested derivative by the name of the master, i.e. its file name without extension,
+ * resolved from the path of the derivative as parameter "name".
+ *
+ * <p>
+ * The master is looked up in the master file group of the {@link WorkIndex} of the work. For works without
+ * index, the master directory of the work is listed once and the listing is cached for a configurable time,
+ * so conversions don't list directories. Changed works must be invalidated. The listings are measured as cache
+ * "masterListings".
+ */
+public class MasterResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MasterResolver.class);
+
+    /**
+     * The parameter with the name of the master.
+     */
+    public static final String NAME_PARAMETER = "name";
+
+    @Autowired
+    private WorkRepository workRepository;
+
+    @Autowired(required = false)
+    private WorkIndexCache workIndexCache;
+
+    @Value("${masterResolver.fileGroup:MASTER}")
+    private String fileGroup;
+
+    @Value("${masterResolver.masterPath:master}")
+    private String masterPath;
+
+    @Value("${masterResolver.ttl:300}")
+    private long ttl;
+
+    @Value("${masterResolver.maxSize:1000}")
+    private long maxSize;
+
+    private Cache<String, Listing> listings;
+
+    /**
+     * Creates the cache of the listings.
+     */
+    @PostConstruct
+    public void init() {
+        listings = Caffeine.newBuilder()
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, listings, "masterListings");
+    }
+
+    /**
+     * Finds the master of a derivative of a work looked up by id.
+     *
+     * @param workId the id of the work
+     * @param parameter the parameter resolved from the path of the derivative
+     * @return the master, or null if the work, the name or the master is not found
+     */
+    public URI resolve(String workId, Map<String, String> parameter) {
+        String name = parameter.get(NAME_PARAMETER);
+        if (name == null) {
+            return null;
+        }
+        return workRepository.findWorkInfoById(workId).map(work -> resolve(work, name)).orElse(null);
+    }
+
+    /**
+     * Finds the master of a derivative.
+     *
+     * @param work the work
+     * @param parameter the parameter resolved from the path of the derivative
+     * @return the master, or null if the name or the master is not found
+     */
+    public URI resolve(WorkInfo work, Map<String, String> parameter) {
+        String name = parameter.get(NAME_PARAMETER);
+        return name != null ? resolve(work, name) : null;
+    }
+
+    /**
+     * Finds a master by name.
+     *
+     * @param work the work
+     * @param name the file name of the master without extension
+     * @return the master, or null if there is none
+     */
+    public URI resolve(WorkInfo work, String name) {
+        WorkIndex index = workIndexCache != null ? workIndexCache.get(work.getPath()) : null;
+        if (index != null) {
+            String location = index.findLocation(fileGroup, name);
+            if (location != null) {
+                // local files are relative to the work directory, others are URLs
+                return location.contains(":") ? URI.create(location) : Paths.get(work.getPath(), location).toUri();
+            }
+        }
+
+        Listing listing = listings.getIfPresent(work.getId());
+        if (listing == null || !listing.path.equals(work.getPath())) {
+            listing = new Listing(work.getPath(), listMasters(work));
+            listings.put(work.getId(), listing);
+        }
+        Path master = listing.masters.get(name);
+        return master != null ? master.toUri() : null;
+    }
+
+    /**
+     * Removes the cached listing of a changed work.
+     *
+     * @param workId the id of the work
+     */
+    public void invalidate(String workId) {
+        listings.invalidate(workId);
+    }
+
+    /**
+     * Removes all cached listings.
+     */
+    public void invalidateAll() {
+        listings.invalidateAll();
+    }
+
+    /**
+     * Lists the master directory of a work.
+     *
+     * @return a map of the names to the masters, the first by path if several have a name
+     */
+    private Map<String, Path> listMasters(WorkInfo work) {
+        Path masterDirectory = Paths.get(work.getPath(), masterPath);
+        if (!Files.isDirectory(masterDirectory)) {
+            return Collections.emptyMap();
+        }
+        List<Path> masters = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(masterDirectory, Files::isRegularFile)) {
+            files.forEach(masters::add);
+        } catch (IOException e) {
+            LOGGER.error("Could not list masters of work " + work.getId() + ": " + e, e);
+        }
+        Collections.sort(masters);
+        Map<String, Path> names = new HashMap<>();
+        for (Path master : masters) {
+            names.putIfAbsent(WorkIndex.getName(master.getFileName().toString()), master);
+        }
+        return names;
+    }
+
+    /**
+     * The masters of a work directory.
+     */
+    private static class Listing {
+
+        private final String path;
+        private final Map<String, Path> masters;
+
+        Listing(String path, Map<String, Path> masters) {
+            this.path = path;
+            this.masters = masters;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The index of a pyramid file, holding JPEG tiles of a master in several resolutions.
+ *
+ * <p>
+ * Level n has the scale factor 2^n, its tiles cover tileSize * 2^n pixels of the master and are reduced to at
+ * most tileSize pixels. The levels go up to the one with a single tile, like the tiles announced by the IIIF
+ * Image API, so a tile request can be answered with the bytes of one tile, without decoding.
+ *
+ * <p>
+ * The file starts with a header: magic number, version, tile size, width and height of the master, and the
+ * number of levels. It is followed by the index, i.e. offset and length of every tile, level by level and row
+ * by row, and the encoded tiles. All numbers are big endian.
+ */
+public class Pyramid {
+
+    /**
+     * The extension of pyramid files.
+     */
+    public static final String EXTENSION = ".pyr";
+
+    private static final int MAGIC = 0x4b4d5059;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 6 * Integer.BYTES;
+    private static final int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+    // the tiles are served as image/jpeg, so they never depend on the default format of the converter
+    private static final String TILE_FORMAT = "jpg";
+
+    private final int tileSize;
+    private final int width;
+    private final int height;
+    private final List<Integer> scaleFactors;
+    private final int[] firstTiles;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    /**
+     * Constructs the layout of an empty pyramid.
+     *
+     * @param tileSize the width and height of the tiles
+     * @param width the width of the master
+     * @param height the height of the master
+     */
+    public Pyramid(int tileSize, int width, int height) {
+        if (tileSize <= 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid pyramid " + width + "x" + height + " with tiles of "
+                    + tileSize);
+        }
+        this.tileSize = tileSize;
+        this.width = width;
+        this.height = height;
+        this.scaleFactors = getScaleFactors(new Dimension(width, height), tileSize);
+        this.firstTiles = new int[scaleFactors.size() + 1];
+        for (int level = 0; level < scaleFactors.size(); level++) {
+            firstTiles[level + 1] = firstTiles[level] + getColumns(level) * getRows(level);
+        }
+        this.offsets = new long[firstTiles[scaleFactors.size()]];
+        this.lengths = new int[offsets.length];
+    }
+
+    /**
+     * Reads the index of a pyramid file.
+     *
+     * @param file the pyramid file
+     * @return the pyramid
+     * @throws IOException if the file could not be read or is no pyramid
+     */
+    public static Pyramid read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is no pyramid");
+            }
+            Pyramid pyramid = new Pyramid(header.getInt(), header.getInt(), header.getInt());
+            if (header.getInt() != pyramid.getLevels()) {
+                throw new IOException("The levels of pyramid " + file + " don't match its size");
+            }
+            ByteBuffer index = read(channel, HEADER_SIZE, pyramid.offsets.length * INDEX_ENTRY_SIZE);
+            for (int tile = 0; tile < pyramid.offsets.length; tile++) {
+                pyramid.offsets[tile] = index.getLong();
+                pyramid.lengths[tile] = index.getInt();
+            }
+            return pyramid;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Pyramid file is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes the header and the index.
+     *
+     * @param channel the channel of the pyramid file, its position is not changed
+     * @throws IOException if the file could not be written
+     */
+    void writeIndex(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(getDataOffset());
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(tileSize).putInt(width).putInt(height).putInt(getLevels());
+        for (int tile = 0; tile < offsets.length; tile++) {
+            buffer.putLong(offsets[tile]).putInt(lengths[tile]);
+        }
+        buffer.flip();
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Gets the position of the first tile in the file, after header and index.
+     *
+     * @return the size of header and index
+     */
+    int getDataOffset() {
+        return HEADER_SIZE + offsets.length * INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * Sets the location of an encoded tile in the file.
+     */
+    void setTile(int tile, long offset, int length) {
+        offsets[tile] = offset;
+        lengths[tile] = length;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public List<Integer> getScaleFactors() {
+        return scaleFactors;
+    }
+
+    /**
+     * Gets the scale factors of tiles, up to the factor at which the whole image fits into one tile.
+     *
+     * @param size the size of the image
+     * @param tileSize the width and height of the tiles
+     * @return the scale factors, powers of 2
+     */
+    public static List<Integer> getScaleFactors(Dimension size, int tileSize) {
+        List<Integer> scaleFactors = new ArrayList<>();
+        int scaleFactor = 1;
+        scaleFactors.add(scaleFactor);
+        while (Math.max(size.width, size.height) > (long) tileSize * scaleFactor) {
+            scaleFactor *= 2;
+            scaleFactors.add(scaleFactor);
+        }
+        return scaleFactors;
+    }
+
+    public int getLevels() {
+        return scaleFactors.size();
+    }
+
+    public int getColumns(int level) {
+        return divideRoundingUp(width, tileSize * scaleFactors.get(level));
+    }
+
+    public int getRows(int level) {
+        return divideRoundingUp(height, tileSize * scaleFactors.get(level));
+    }
+
+    /**
+     * Gets the index of a tile.
+     *
+     * @param level the level
+     * @param column the column
+     * @param row the row
+     * @return the index of the tile in the file
+     */
+    public int getTile(int level, int column, int row) {
+        return firstTiles[level] + row * getColumns(level) + column;
+    }
+
+    /**
+     * Gets the region of the master covered by a tile.
+     *
+     * @param level the level
+     * @param column the column
+     * @param row the row
+     * @return the region in pixels of the master
+     */
+    public Rectangle getRegion(int level, int column, int row) {
+        int size = tileSize * scaleFactors.get(level);
+        int x = column * size;
+        int y = row * size;
+        return new Rectangle(x, y, Math.min(size, width - x), Math.min(size, height - y));
+    }
+
+    /**
+     * Gets the converter parameter producing a tile, in the form a tile request of the IIIF Image API resolves to.
+     *
+     * @param level the level
+     * @param column the column
+     * @param row the row
+     * @return the region and the width of the tile, and the JPEG format
+     */
+    public Map<String, String> getParameter(int level, int column, int row) {
+        Rectangle region = getRegion(level, column, row);
+        Map<String, String> parameter = new HashMap<>();
+        parameter.put(ImageIOConverter.REGION_PARAMETER, region.x + "," + region.y + "," + region.width + ","
+                + region.height);
+        parameter.put(ImageIOConverter.WIDTH_PARAMETER,
+                String.valueOf(divideRoundingUp(region.width, scaleFactors.get(level))));
+        parameter.put(ImageIOConverter.FORMAT_PARAMETER, TILE_FORMAT);
+        return parameter;
+    }
+
+    /**
+     * Finds the tile matching converter parameter, e.g. of a resolved tile request.
+     *
+     * @param parameter the converter parameter
+     * @return the index of the tile, or -1 if the parameter doesn't match a tile as JPEG in default quality
+     */
+    public int findTile(Map<String, String> parameter) {
+        String region = parameter.get(ImageIOConverter.REGION_PARAMETER);
+        String width = parameter.get(ImageIOConverter.WIDTH_PARAMETER);
+        String format = parameter.get(ImageIOConverter.FORMAT_PARAMETER);
+        if (width == null || format != null && !TILE_FORMAT.equals(format)
+                || parameter.size() != (region != null ? 2 : 1) + (format != null ? 1 : 0)) {
+            return -1;
+        }
+        return findTile(region, width);
+    }
+
+    /**
+     * Finds the tile covering a region in a width, regardless of the format and quality of the image.
+     *
+     * @param region the region parameter, null for the whole master
+     * @param width the width parameter
+     * @return the index of the tile, or -1 if region and width don't match a tile
+     */
+    public int findTile(String region, String width) {
+        if (width == null) {
+            return -1;
+        }
+        Rectangle requested = region != null ? parseRegion(region) : new Rectangle(0, 0, this.width, this.height);
+        if (requested == null) {
+            return -1;
+        }
+        for (int level = 0; level < scaleFactors.size(); level++) {
+            int size = tileSize * scaleFactors.get(level);
+            if (requested.x % size != 0 || requested.y % size != 0) {
+                continue;
+            }
+            int column = requested.x / size;
+            int row = requested.y / size;
+            if (column >= getColumns(level) || row >= getRows(level)) {
+                continue;
+            }
+            if (getRegion(level, column, row).equals(requested)
+                    && getParameter(level, column, row).get(ImageIOConverter.WIDTH_PARAMETER).equals(width)) {
+                return getTile(level, column, row);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the position of an encoded tile in the file.
+     *
+     * @param tile the index of the tile
+     * @return the offset of the tile
+     */
+    public long getOffset(int tile) {
+        return offsets[tile];
+    }
+
+    /**
+     * Gets the length of an encoded tile.
+     *
+     * @param tile the index of the tile
+     * @return the length of the tile in bytes
+     */
+    public int getLength(int tile) {
+        return lengths[tile];
+    }
+
+    private static Rectangle parseRegion(String region) {
+        String[] values = region.split(",");
+        if (values.length != 4) {
+            return null;
+        }
+        try {
+            return new Rectangle(Integer.parseInt(values[0]), Integer.parseInt(values[1]),
+                    Integer.parseInt(values[2]), Integer.parseInt(values[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int divideRoundingUp(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
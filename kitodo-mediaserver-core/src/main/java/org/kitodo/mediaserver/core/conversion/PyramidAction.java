@@ -0,0 +1,171 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.kitodo.mediaserver.core.api.IAction;
+import org.kitodo.mediaserver.core.api.IConverter;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Builds a {@link Pyramid} file of tiles for each master of a work.
+ *
+ * <p>
+ * The tiles are produced by the converter row by row, so each row of tiles of a level is decoded once and
+ * only a row of tiles is held in memory. Pyramids newer than their master are skipped.
+ * Request it as action "pyramid".
+ */
+public class PyramidAction implements IAction {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PyramidAction.class);
+
+    @Autowired
+    private WorkRepository workRepository;
+
+    private IConverter converter;
+
+    @Value("${pyramid.masterPattern:glob:master/*}")
+    private String masterPattern;
+
+    @Value("${pyramid.path:pyramids}")
+    private String pyramidPath;
+
+    @Value("${pyramid.tileSize:512}")
+    private int tileSize;
+
+    public IConverter getConverter() {
+        return converter;
+    }
+
+    @Autowired(required = false)
+    public void setConverter(IConverter converter) {
+        this.converter = converter;
+    }
+
+    /**
+     * Builds the missing or outdated pyramids of all masters of a work.
+     *
+     * @param actionControl the actionControl object with the id of the work
+     * @return the number of built pyramids
+     * @throws IllegalStateException if no converter is configured
+     * @throws IllegalArgumentException if the work doesn't exist
+     */
+    @Override
+    public Integer perform(ActionControl actionControl) throws Exception {
+
+        if (converter == null) {
+            throw new IllegalStateException("No converter is configured");
+        }
+
+        Work work = workRepository.findById(actionControl.getWorkId()).orElseThrow(
+            () -> new IllegalArgumentException("Work with id " + actionControl.getWorkId() + " not found"));
+        Path workDirectory = Paths.get(work.getPath());
+
+        int built = 0;
+        List<Path> masters = BulkConvertAction.findMasters(workDirectory, masterPattern);
+        for (Path master : masters) {
+            Path pyramidFile = getPyramidFile(workDirectory, master);
+            if (Files.isRegularFile(pyramidFile)
+                    && Files.getLastModifiedTime(pyramidFile).compareTo(Files.getLastModifiedTime(master)) >= 0) {
+                continue;
+            }
+            build(master, pyramidFile);
+            built++;
+        }
+
+        LOGGER.info("Built " + built + " pyramids of " + masters.size() + " masters of work " + work.getId());
+        return built;
+    }
+
+    /**
+     * Gets the location of the pyramid of a master.
+     *
+     * @param workDirectory the directory of the work
+     * @param master the master
+     * @return the pyramid file, named like the master without extension
+     */
+    Path getPyramidFile(Path workDirectory, Path master) {
+        String fileName = master.getFileName().toString();
+        int extension = fileName.lastIndexOf('.');
+        String name = extension > 0 ? fileName.substring(0, extension) : fileName;
+        return workDirectory.resolve(pyramidPath).resolve(name + Pyramid.EXTENSION);
+    }
+
+    /**
+     * Builds the pyramid of a master.
+     *
+     * @param master the master
+     * @param pyramidFile the pyramid file to write
+     * @throws Exception if the master could not be converted or the pyramid could not be written
+     */
+    void build(Path master, Path pyramidFile) throws Exception {
+        Dimension size = ImageIOConverter.readSize(master.toUri());
+        Pyramid pyramid = new Pyramid(tileSize, size.width, size.height);
+
+        Files.createDirectories(pyramidFile.getParent());
+        // written next to the pyramid and moved atomically, so nobody reads a partial file
+        Path temporaryFile = Files.createTempFile(pyramidFile.getParent(), "." + pyramidFile.getFileName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                long position = pyramid.getDataOffset();
+                for (int level = 0; level < pyramid.getLevels(); level++) {
+                    for (int row = 0; row < pyramid.getRows(level); row++) {
+                        position = writeRow(master, pyramid, level, row, channel, position);
+                    }
+                }
+                pyramid.writeIndex(channel);
+                channel.force(true);
+            }
+            Files.move(temporaryFile, pyramidFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private long writeRow(Path master, Pyramid pyramid, int level, int row, FileChannel channel, long position)
+            throws Exception {
+
+        Map<Map<String, String>, OutputStream> outputs = new LinkedHashMap<>();
+        for (int column = 0; column < pyramid.getColumns(level); column++) {
+            outputs.put(pyramid.getParameter(level, column, row), new ByteArrayOutputStream());
+        }
+        converter.convertAll(master.toUri(), outputs);
+
+        int column = 0;
+        for (OutputStream outputStream : outputs.values()) {
+            ByteBuffer tile = ByteBuffer.wrap(((ByteArrayOutputStream) outputStream).toByteArray());
+            pyramid.setTile(pyramid.getTile(level, column++, row), position, tile.remaining());
+            while (tile.hasRemaining()) {
+                position += channel.write(tile, position);
+            }
+        }
+        return position;
+    }
+}
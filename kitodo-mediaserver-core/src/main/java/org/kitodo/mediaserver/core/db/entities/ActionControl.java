@@ -0,0 +1,215 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.db.entities;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.MapKeyColumn;
+
+/**
+ * Entity for a requested action on a work, i.e. a job of the action queue.
+ */
+@Entity
+public class ActionControl {
+
+    /**
+     * The states of an action.
+     */
+    public enum State {
+        REQUESTED, RUNNING, FINISHED, FAILED
+    }
+
+    /**
+     * The priority classes of an action.
+     *
+     * <p>
+     * Stored by ordinal, which the queue is sorted by, so interactive actions are claimed first. The order of the
+     * constants is part of the database schema: don't reorder them, and append new ones only with a migration of
+     * the stored priorities.
+     */
+    public enum Priority {
+        INTERACTIVE, BATCH
+    }
+
+    private Long id;
+    private String workId;
+    private String action;
+    private Map<String, String> parameter;
+    private State state;
+    private Priority priority;
+    // identifies equal requests while the action is not done, null afterwards
+    private String requestKey;
+    private Instant requestTime;
+    private Instant startTime;
+    private Instant endTime;
+    // renewed by the worker while the action is running
+    private Instant heartbeatTime;
+    // the number of claims, only the worker of the last claim may finish the action
+    private int attempt;
+    private String worker;
+    private String error;
+
+    protected ActionControl() {}
+
+    /**
+     * Constructs an ActionControl object.
+     *
+     * @param workId the id of the work on which the action is performed
+     * @param action the action name
+     * @param parameter a map of parameter
+     */
+    public ActionControl(String workId, String action, Map<String, String> parameter) {
+        this.workId = workId;
+        this.action = action;
+        this.parameter = new HashMap<>(parameter);
+        this.state = State.REQUESTED;
+        this.priority = Priority.BATCH;
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    public Long getId() {
+        return id;
+    }
+
+    protected void setId(Long id) {
+        this.id = id;
+    }
+
+    @Column(nullable = false)
+    public String getWorkId() {
+        return workId;
+    }
+
+    protected void setWorkId(String workId) {
+        this.workId = workId;
+    }
+
+    @Column(nullable = false)
+    public String getAction() {
+        return action;
+    }
+
+    protected void setAction(String action) {
+        this.action = action;
+    }
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "action_parameter", joinColumns = @JoinColumn(name = "action_control_id"))
+    @MapKeyColumn(name = "parameter_name")
+    @Column(name = "parameter_value", length = 1000)
+    public Map<String, String> getParameter() {
+        return parameter;
+    }
+
+    public void setParameter(Map<String, String> parameter) {
+        this.parameter = parameter;
+    }
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    @Enumerated(EnumType.ORDINAL)
+    @Column(nullable = false)
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    @Column(unique = true, length = 32)
+    public String getRequestKey() {
+        return requestKey;
+    }
+
+    public void setRequestKey(String requestKey) {
+        this.requestKey = requestKey;
+    }
+
+    public Instant getRequestTime() {
+        return requestTime;
+    }
+
+    public void setRequestTime(Instant requestTime) {
+        this.requestTime = requestTime;
+    }
+
+    public Instant getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Instant startTime) {
+        this.startTime = startTime;
+    }
+
+    public Instant getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(Instant endTime) {
+        this.endTime = endTime;
+    }
+
+    public Instant getHeartbeatTime() {
+        return heartbeatTime;
+    }
+
+    public void setHeartbeatTime(Instant heartbeatTime) {
+        this.heartbeatTime = heartbeatTime;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+    public void setAttempt(int attempt) {
+        this.attempt = attempt;
+    }
+
+    public String getWorker() {
+        return worker;
+    }
+
+    public void setWorker(String worker) {
+        this.worker = worker;
+    }
+
+    @Column(length = 1000)
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
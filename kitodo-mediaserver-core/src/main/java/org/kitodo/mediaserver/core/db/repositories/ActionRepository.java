@@ -0,0 +1,153 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.db.repositories;
+
+import java.time.Instant;
+import java.util.List;
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Repository for requested actions.
+ */
+public interface ActionRepository extends CrudRepository<ActionControl, Long> {
+
+    /**
+     * Finds a not yet done action by its request key.
+     *
+     * @param requestKey the key identifying equal requests
+     * @return the action or null, if there is no such action
+     */
+    ActionControl findByRequestKey(String requestKey);
+
+    /**
+     * Finds the oldest actions with the highest priority in a state and locks them until the end of the transaction.
+     *
+     * <p>
+     * Rows locked by other transactions are skipped where the database supports it
+     * (lock timeout -2 is SKIP LOCKED in Hibernate), otherwise this waits for the other transaction.
+     *
+     * @param state the state
+     * @param pageable the maximum number of actions
+     * @return a list of actions
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "javax.persistence.lock.timeout", value = "-2"))
+    List<ActionControl> findByStateOrderByPriorityAscIdAsc(ActionControl.State state, Pageable pageable);
+
+    /**
+     * Finds the oldest actions with a priority in a state and locks them until the end of the transaction,
+     * like {@link #findByStateOrderByPriorityAscIdAsc(ActionControl.State, Pageable)}.
+     *
+     * @param state the state
+     * @param priority the priority
+     * @param pageable the maximum number of actions
+     * @return a list of actions
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "javax.persistence.lock.timeout", value = "-2"))
+    List<ActionControl> findByStateAndPriorityOrderByIdAsc(ActionControl.State state, ActionControl.Priority priority,
+                                                          Pageable pageable);
+
+    /**
+     * Counts the actions in a state.
+     *
+     * @param state the state
+     * @return the number of actions
+     */
+    long countByState(ActionControl.State state);
+
+    /**
+     * Finds all actions on a work.
+     *
+     * @param workId the id of the work
+     * @return a list of actions
+     */
+    List<ActionControl> findByWorkId(String workId);
+
+    /**
+     * Marks a requested action as running, unless another worker was faster.
+     *
+     * @param id the id of the action
+     * @param attempt the number of claims of the action when it was read
+     * @param worker the name of the worker
+     * @param startTime the current time
+     * @return 1, if the action was claimed, 0 otherwise
+     */
+    @Modifying
+    @Transactional
+    @Query("update ActionControl a set a.state = 'RUNNING', a.worker = ?3, a.startTime = ?4, a.heartbeatTime = ?4,"
+            + " a.attempt = a.attempt + 1 where a.id = ?1 and a.attempt = ?2 and a.state = 'REQUESTED'")
+    int claim(Long id, int attempt, String worker, Instant startTime);
+
+    /**
+     * Marks a running action as requested again, e.g. if the worker could not perform it.
+     *
+     * @param id the id of the action
+     * @param attempt the number of claims of the action when it was claimed by this worker
+     * @return 1, if the action was requested again, 0 otherwise
+     */
+    @Modifying
+    @Transactional
+    @Query("update ActionControl a set a.state = 'REQUESTED', a.worker = null, a.startTime = null,"
+            + " a.heartbeatTime = null where a.id = ?1 and a.attempt = ?2 and a.state = 'RUNNING'")
+    int unclaim(Long id, int attempt);
+
+    /**
+     * Renews the heartbeat of a running action, unless it was requested again in the meantime.
+     *
+     * @param id the id of the action
+     * @param attempt the number of claims of the action when it was claimed by this worker
+     * @param heartbeatTime the current time
+     * @return 1, if the action is still running in this claim, 0 otherwise
+     */
+    @Modifying
+    @Transactional
+    @Query("update ActionControl a set a.heartbeatTime = ?3 where a.id = ?1 and a.attempt = ?2 and a.state = 'RUNNING'")
+    int renew(Long id, int attempt, Instant heartbeatTime);
+
+    /**
+     * Marks a running action as done, unless it was requested again in the meantime.
+     *
+     * @param id the id of the action
+     * @param attempt the number of claims of the action when it was claimed by this worker
+     * @param state the final state
+     * @param endTime the current time
+     * @param error the error, if the action failed
+     * @return 1, if the action was marked as done, 0 otherwise
+     */
+    @Modifying
+    @Transactional
+    @Query("update ActionControl a set a.state = ?3, a.endTime = ?4, a.error = ?5, a.requestKey = null"
+            + " where a.id = ?1 and a.attempt = ?2 and a.state = 'RUNNING'")
+    int finish(Long id, int attempt, ActionControl.State state, Instant endTime, String error);
+
+    /**
+     * Requests running actions again, whose heartbeat was not renewed for too long, e.g. because their worker crashed.
+     *
+     * @param heartbeatTime actions with a heartbeat before this time are requested again
+     * @return the number of requested actions
+     */
+    @Modifying
+    @Transactional
+    @Query("update ActionControl a set a.state = 'REQUESTED', a.worker = null, a.startTime = null,"
+            + " a.heartbeatTime = null where a.state = 'RUNNING' and a.heartbeatTime < ?1")
+    int requestStale(Instant heartbeatTime);
+}
@@ -0,0 +1,40 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.db.repositories;
+
+import java.util.List;
+import org.kitodo.mediaserver.core.db.entities.Identifier;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * Repository for identifiers.
+ */
+public interface IdentifierRepository extends CrudRepository<Identifier, String> {
+
+    /**
+     * Finds all identifiers with the ids of their works, without loading the works.
+     *
+     * @return a list of pairs of identifier and work id
+     */
+    @Query("select i.identifier, i.work.id from Identifier i")
+    List<Object[]> findAllWorkIds();
+
+    /**
+     * Finds the identifiers of a work.
+     *
+     * @param workId the id of the work
+     * @return a list of identifiers
+     */
+    @Query("select i.identifier from Identifier i where i.work.id = ?1")
+    List<String> findIdentifiersByWorkId(String workId);
+}
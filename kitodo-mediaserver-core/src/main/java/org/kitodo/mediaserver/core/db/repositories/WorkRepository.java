@@ -12,8 +12,13 @@
 package org.kitodo.mediaserver.core.db.repositories;
 
 import java.util.List;
+import java.util.Optional;
 import org.kitodo.mediaserver.core.db.entities.Identifier;
 import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.models.WorkInfo;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 
 /**
@@ -37,5 +42,26 @@ public interface WorkRepository extends CrudRepository<Work, String> {
      */
     List<Work> findByTitleContaining(String keyword);
 
+    /**
+     * Finds the properties of a work needed to deliver its files.
+     *
+     * <p>
+     * Only the needed columns are selected and no entity is created or attached to the persistence context.
+     *
+     * @param id the id of the work
+     * @return the work properties, if there is a work with this id
+     */
+    @Query("select new org.kitodo.mediaserver.core.models.WorkInfo(w.id, w.path, w.enabled) from Work w where w.id = ?1")
+    Optional<WorkInfo> findWorkInfoById(String id);
+
+    /**
+     * Finds the paths of the works, without loading the works.
+     *
+     * @param pageable the page, the works should be sorted for stable pages
+     * @return a slice of the paths
+     */
+    @Query("select w.path from Work w where w.path is not null")
+    Slice<String> findPaths(Pageable pageable);
+
 }
 
@@ -0,0 +1,35 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Basic http exception for spring mvc modules.
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class HttpServiceUnavailableException extends RuntimeException {
+
+    public HttpServiceUnavailableException(Throwable t) {
+        super(t);
+    }
+
+    public HttpServiceUnavailableException(String message) {
+        super(message);
+    }
+
+    public HttpServiceUnavailableException(String message, Throwable t) {
+        super(message, t);
+    }
+
+}
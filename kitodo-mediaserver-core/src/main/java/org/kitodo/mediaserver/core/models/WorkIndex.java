@@ -0,0 +1,399 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.models;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The files of a work by file group, compiled from its METS file by the importer into a file in the work
+ * directory, which is memory-mapped for lookups without parsing the METS file.
+ *
+ * <p>
+ * The files of each file group are kept in the order of the METS file, i.e. page order, so the file at a
+ * position is found in constant time, and by name, i.e. the file name of the location without extension,
+ * by binary search.
+ *
+ * <p>
+ * The file starts with a header: magic number, version, modification time and size of the METS file, and the
+ * number of file groups. It is followed by a table of the file groups: the offsets of their USE, of their files
+ * and of their names, and the number of files. Each file is the offsets of its name, id and location, the names
+ * are the positions of the files sorted by name. Strings are stored with an unsigned short length and UTF-8
+ * encoded. All numbers are big endian.
+ */
+public class WorkIndex {
+
+    /**
+     * The name of the index file in the work directory.
+     */
+    public static final String FILE_NAME = ".mets.idx";
+
+    private static final int MAGIC = 0x4b4d4958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES + 2 * Long.BYTES;
+    private static final int GROUP_SIZE = 4 * Integer.BYTES;
+    private static final int FILE_SIZE = 3 * Integer.BYTES;
+    private static final int MAX_STRING_LENGTH = 0xffff;
+
+    private final ByteBuffer buffer;
+    private final long metsLastModified;
+    private final long metsSize;
+    private final Map<String, Integer> groups = new LinkedHashMap<>();
+
+    private WorkIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("No work index");
+        }
+        metsLastModified = buffer.getLong(2 * Integer.BYTES);
+        metsSize = buffer.getLong(2 * Integer.BYTES + Long.BYTES);
+        int count = buffer.getInt(2 * Integer.BYTES + 2 * Long.BYTES);
+        if (count < 0 || HEADER_SIZE + (long) count * GROUP_SIZE > buffer.limit()) {
+            throw new IOException("Invalid work index");
+        }
+        // the file groups are few, so their names are decoded once
+        for (int group = 0; group < count; group++) {
+            int offset = HEADER_SIZE + group * GROUP_SIZE;
+            groups.put(getString(buffer.getInt(offset)), offset);
+        }
+    }
+
+    /**
+     * Maps an index file into memory.
+     *
+     * <p>
+     * The file must not be changed while mapped, so new indexes replace it, see {@link Builder#write(Path)}.
+     *
+     * @param file the index file
+     * @return the index
+     * @throws IOException if the file could not be read or is no index
+     */
+    public static WorkIndex map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            try {
+                return new WorkIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException(file + " is no valid work index", e);
+            } catch (IOException e) {
+                throw new IOException(file + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Checks if an index file was compiled from the current METS file.
+     *
+     * @param file the index file
+     * @param metsFile the METS file
+     * @return true, if the index matches modification time and size of the METS file
+     */
+    public static boolean isCurrent(Path file, Path metsFile) {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return false;
+                }
+            }
+            header.flip();
+            return header.getInt() == MAGIC && header.getInt() == VERSION
+                    && header.getLong() == Files.getLastModifiedTime(metsFile).toMillis()
+                    && header.getLong() == Files.size(metsFile);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public long getMetsLastModified() {
+        return metsLastModified;
+    }
+
+    public long getMetsSize() {
+        return metsSize;
+    }
+
+    /**
+     * Gets the file groups.
+     *
+     * @return the USE of the file groups, in the order of the METS file
+     */
+    public List<String> getFileGroups() {
+        return Collections.unmodifiableList(new ArrayList<>(groups.keySet()));
+    }
+
+    /**
+     * Gets the number of files of a file group.
+     *
+     * @param fileGroup the USE of the file group
+     * @return the number of files, 0 if there is no such file group
+     */
+    public int getFileCount(String fileGroup) {
+        Integer group = groups.get(fileGroup);
+        return group != null ? buffer.getInt(group + 3 * Integer.BYTES) : 0;
+    }
+
+    /**
+     * Gets the location of a file.
+     *
+     * @param fileGroup the USE of the file group
+     * @param position the position of the file in page order, starting at 0
+     * @return the location, i.e. a path relative to the work directory or a URL
+     * @throws IndexOutOfBoundsException if there is no such file
+     */
+    public String getLocation(String fileGroup, int position) {
+        return getString(buffer.getInt(getFile(fileGroup, position) + 2 * Integer.BYTES));
+    }
+
+    /**
+     * Gets the id of a file.
+     *
+     * @param fileGroup the USE of the file group
+     * @param position the position of the file in page order, starting at 0
+     * @return the ID of the file in the METS file, may be empty
+     * @throws IndexOutOfBoundsException if there is no such file
+     */
+    public String getFileId(String fileGroup, int position) {
+        return getString(buffer.getInt(getFile(fileGroup, position) + Integer.BYTES));
+    }
+
+    /**
+     * Finds a file by name.
+     *
+     * @param fileGroup the USE of the file group
+     * @param name the file name of the location without extension
+     * @return the position of the file, the first one if several have the name, or -1 if there is none
+     */
+    public int findFile(String fileGroup, String name) {
+        Integer group = groups.get(fileGroup);
+        if (group == null) {
+            return -1;
+        }
+        int files = buffer.getInt(group + Integer.BYTES);
+        int names = buffer.getInt(group + 2 * Integer.BYTES);
+        int low = 0;
+        int high = buffer.getInt(group + 3 * Integer.BYTES);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int position = buffer.getInt(names + middle * Integer.BYTES);
+            if (getString(buffer.getInt(files + position * FILE_SIZE)).compareTo(name) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == buffer.getInt(group + 3 * Integer.BYTES)) {
+            return -1;
+        }
+        int position = buffer.getInt(names + low * Integer.BYTES);
+        return getString(buffer.getInt(files + position * FILE_SIZE)).equals(name) ? position : -1;
+    }
+
+    /**
+     * Finds the location of a file by name.
+     *
+     * @param fileGroup the USE of the file group
+     * @param name the file name of the location without extension
+     * @return the location, or null if there is no such file
+     */
+    public String findLocation(String fileGroup, String name) {
+        int position = findFile(fileGroup, name);
+        return position >= 0 ? getLocation(fileGroup, position) : null;
+    }
+
+    private int getFile(String fileGroup, int position) {
+        Integer group = groups.get(fileGroup);
+        if (group == null || position < 0 || position >= buffer.getInt(group + 3 * Integer.BYTES)) {
+            throw new IndexOutOfBoundsException("No file " + position + " in file group " + fileGroup);
+        }
+        return buffer.getInt(group + Integer.BYTES) + position * FILE_SIZE;
+    }
+
+    private String getString(int offset) {
+        int length = buffer.getShort(offset) & MAX_STRING_LENGTH;
+        byte[] bytes = new byte[length];
+        // a view, as the position of the shared buffer must not change
+        ByteBuffer string = buffer.duplicate();
+        string.position(offset + Short.BYTES);
+        string.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the name of a file, by which it is found.
+     *
+     * @param location the location of the file
+     * @return the last segment of the location without extension
+     */
+    public static String getName(String location) {
+        int start = location.lastIndexOf('/') + 1;
+        int end = location.lastIndexOf('.');
+        return location.substring(start, end > start ? end : location.length());
+    }
+
+    /**
+     * Collects the files of a work and writes them as index.
+     */
+    public static class Builder {
+
+        private final long metsLastModified;
+        private final long metsSize;
+        private final Map<String, List<String[]>> fileGroups = new LinkedHashMap<>();
+
+        /**
+         * Creates a builder for the index of a METS file.
+         *
+         * @param metsLastModified the modification time of the METS file in milliseconds
+         * @param metsSize the size of the METS file
+         */
+        public Builder(long metsLastModified, long metsSize) {
+            this.metsLastModified = metsLastModified;
+            this.metsSize = metsSize;
+        }
+
+        /**
+         * Adds a file, after the files added before.
+         *
+         * @param fileGroup the USE of the file group
+         * @param id the ID of the file, may be null
+         * @param location the location of the file
+         * @return this builder
+         */
+        public Builder addFile(String fileGroup, String id, String location) {
+            fileGroups.computeIfAbsent(fileGroup, key -> new ArrayList<>())
+                    .add(new String[] {getName(location), id != null ? id : "", location});
+            return this;
+        }
+
+        /**
+         * Writes the index to a temporary file, which then replaces the index file.
+         *
+         * @param file the index file
+         * @throws IOException if the file could not be written
+         * @throws IllegalArgumentException if a string is too long
+         */
+        public void write(Path file) throws IOException {
+            Strings strings = new Strings();
+            int size = HEADER_SIZE + fileGroups.size() * GROUP_SIZE;
+            int[] groupSizes = new int[fileGroups.size()];
+            int group = 0;
+            for (Map.Entry<String, List<String[]>> entry : fileGroups.entrySet()) {
+                groupSizes[group++] = entry.getValue().size() * (FILE_SIZE + Integer.BYTES);
+                size += groupSizes[group - 1];
+            }
+            int stringsOffset = size;
+
+            ByteBuffer buffer = ByteBuffer.allocate(stringsOffset + strings.addAll(fileGroups));
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(metsLastModified).putLong(metsSize)
+                    .putInt(fileGroups.size());
+            int offset = HEADER_SIZE + fileGroups.size() * GROUP_SIZE;
+            group = 0;
+            for (Map.Entry<String, List<String[]>> entry : fileGroups.entrySet()) {
+                List<String[]> files = entry.getValue();
+                buffer.putInt(stringsOffset + strings.offsetOf(entry.getKey()))
+                        .putInt(offset)
+                        .putInt(offset + files.size() * FILE_SIZE)
+                        .putInt(files.size());
+                int position = offset;
+                for (String[] values : files) {
+                    for (String value : values) {
+                        buffer.putInt(position, stringsOffset + strings.offsetOf(value));
+                        position += Integer.BYTES;
+                    }
+                }
+                Integer[] names = new Integer[files.size()];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = i;
+                }
+                // stable, so the first of equally named files comes first
+                Arrays.sort(names, Comparator.comparing(i -> files.get(i)[0]));
+                for (Integer name : names) {
+                    buffer.putInt(position, name);
+                    position += Integer.BYTES;
+                }
+                offset += groupSizes[group++];
+            }
+            buffer.position(stringsOffset);
+            strings.write(buffer);
+            buffer.flip();
+
+            Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * The pool of the strings of an index, each stored once.
+     */
+    private static class Strings {
+
+        private final Map<String, Integer> offsets = new LinkedHashMap<>();
+        private final List<byte[]> encoded = new ArrayList<>();
+        private int size;
+
+        int addAll(Map<String, List<String[]>> fileGroups) {
+            for (Map.Entry<String, List<String[]>> entry : fileGroups.entrySet()) {
+                add(entry.getKey());
+                for (String[] values : entry.getValue()) {
+                    for (String value : values) {
+                        add(value);
+                    }
+                }
+            }
+            return size;
+        }
+
+        int offsetOf(String string) {
+            return offsets.get(string);
+        }
+
+        void write(ByteBuffer buffer) {
+            for (byte[] bytes : encoded) {
+                buffer.putShort((short) bytes.length).put(bytes);
+            }
+        }
+
+        private void add(String string) {
+            if (offsets.containsKey(string)) {
+                return;
+            }
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_STRING_LENGTH) {
+                throw new IllegalArgumentException("String of " + bytes.length + " bytes too long for work index");
+            }
+            offsets.put(string, size);
+            encoded.add(bytes);
+            size += Short.BYTES + bytes.length;
+        }
+    }
+}
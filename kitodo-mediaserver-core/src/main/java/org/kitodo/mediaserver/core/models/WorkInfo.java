@@ -0,0 +1,62 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.models;
+
+import org.kitodo.mediaserver.core.db.entities.Work;
+
+/**
+ * The properties of a work needed to deliver its files.
+ *
+ * <p>
+ * Unlike the Work entity, objects of this class are immutable and not attached to a persistence context,
+ * so they can be cached and shared between threads.
+ */
+public class WorkInfo {
+
+    private final String id;
+    private final String path;
+    private final boolean enabled;
+
+    /**
+     * Constructs a WorkInfo object.
+     *
+     * @param id the id of the work
+     * @param path the directory of the work
+     * @param enabled true, if the files of the work may be delivered
+     */
+    public WorkInfo(String id, String path, boolean enabled) {
+        this.id = id;
+        this.path = path;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Constructs a WorkInfo object from a work entity.
+     *
+     * @param work the work entity
+     */
+    public WorkInfo(Work work) {
+        this(work.getId(), work.getPath(), work.isEnabled());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
@@ -31,3 +31,31 @@ CREATE TABLE `user` (
   `enabled` tinyint(1) NOT NULL DEFAULT 1,
   PRIMARY KEY(`username`)
 );
+
+CREATE TABLE action_control (
+  id bigint NOT NULL AUTO_INCREMENT,
+  work_id varchar(100) NOT NULL,
+  action varchar(255) NOT NULL,
+  state varchar(20) NOT NULL,
+  priority int NOT NULL DEFAULT 1,
+  request_key varchar(32),
+  request_time datetime,
+  start_time datetime,
+  end_time datetime,
+  heartbeat_time datetime,
+  attempt int NOT NULL DEFAULT 0,
+  worker varchar(255),
+  error varchar(1000),
+  PRIMARY KEY(id),
+  UNIQUE(request_key)
+);
+
+CREATE INDEX action_control_state ON action_control(state, priority, id);
+
+CREATE TABLE action_parameter (
+  action_control_id bigint NOT NULL,
+  parameter_name varchar(255) NOT NULL,
+  parameter_value varchar(1000),
+  PRIMARY KEY(action_control_id, parameter_name),
+  FOREIGN KEY (action_control_id) REFERENCES action_control(id)
+);
@@ -0,0 +1,219 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.actions;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.api.IAction;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.kitodo.mediaserver.core.db.repositories.ActionRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Test for the action queue.
+ */
+@SpringBootTest(classes = {ActionService.class, ActionServiceTest.Config.class})
+@EnableAutoConfiguration
+@EntityScan("org.kitodo.mediaserver.core.db.entities")
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ActionServiceTest {
+
+    @Autowired
+    private ActionService actionService;
+
+    @Autowired
+    private ActionRepository actionRepository;
+
+    @Autowired
+    private CountingAction countingAction;
+
+    @After
+    public void cleanUp() {
+        actionRepository.deleteAll();
+    }
+
+    @Test
+    public void testEqualRequestsAreCollapsed() {
+        ActionControl first = actionService.request("123", "counting", Collections.singletonMap("size", "100"));
+        ActionControl second = actionService.request("123", "counting", Collections.singletonMap("size", "100"));
+        ActionControl other = actionService.request("123", "counting", Collections.singletonMap("size", "200"));
+
+        assertThat(second.getId()).isEqualTo(first.getId());
+        assertThat(other.getId()).isNotEqualTo(first.getId());
+        assertThat(actionRepository.count()).isEqualTo(2);
+    }
+
+    @Test
+    public void testUnknownActionIsRejected() {
+        assertThatThrownBy(() -> actionService.request("123", "unknown", Collections.emptyMap()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testActionsAreClaimedByPriority() {
+        actionService.request("123", "counting", Collections.emptyMap(), ActionControl.Priority.BATCH);
+        actionService.request("456", "counting", Collections.emptyMap(), ActionControl.Priority.INTERACTIVE);
+
+        List<ActionControl> claimed = actionService.claim(10, ActionControl.Priority.BATCH);
+        assertThat(claimed).extracting(ActionControl::getWorkId).containsExactly("123");
+        claimed = actionService.claim(10, ActionControl.Priority.BATCH);
+        assertThat(claimed).isEmpty();
+        claimed = actionService.claim(10, ActionControl.Priority.INTERACTIVE);
+        assertThat(claimed).extracting(ActionControl::getWorkId).containsExactly("456");
+    }
+
+    @Test
+    public void testDoneActionCanBeRequestedAgain() throws Exception {
+        ActionControl first = actionService.request("123", "counting", Collections.emptyMap());
+        List<ActionControl> claimed = actionService.claim(10);
+        assertThat(claimed).hasSize(1);
+        actionService.perform(claimed.get(0));
+
+        ActionControl done = actionRepository.findById(first.getId()).get();
+        assertThat(done.getState()).isEqualTo(ActionControl.State.FINISHED);
+        assertThat(done.getRequestKey()).isNull();
+
+        ActionControl second = actionService.request("123", "counting", Collections.emptyMap());
+        assertThat(second.getId()).isNotEqualTo(first.getId());
+    }
+
+    @Test
+    public void testActionsWithRenewedHeartbeatAreNotRequestedAgain() {
+        actionService.request("123", "counting", Collections.emptyMap());
+        List<ActionControl> claimed = actionService.claim(10);
+        Instant heartbeatTime = Instant.now();
+
+        assertThat(actionService.renew(claimed)).isEqualTo(1);
+        assertThat(actionService.requestStale(heartbeatTime)).isEqualTo(0);
+        assertThat(actionService.requestStale(Instant.now().plusSeconds(1))).isEqualTo(1);
+        assertThat(actionService.renew(claimed)).isEqualTo(0);
+    }
+
+    @Test
+    public void testActionRequestedAgainWhileRunningIsOnlyDoneByLastClaim() throws Exception {
+        ActionControl action = actionService.request("123", "counting", Collections.emptyMap());
+        ActionControl first = actionService.claim(10).get(0);
+        // the heartbeat of the first worker is considered as expired, while it is still running
+        assertThat(actionService.requestStale(Instant.now().plusSeconds(1))).isEqualTo(1);
+        ActionControl second = actionService.claim(10).get(0);
+
+        actionService.perform(first);
+        ActionControl running = actionRepository.findById(action.getId()).get();
+        assertThat(running.getState()).isEqualTo(ActionControl.State.RUNNING);
+        assertThat(running.getAttempt()).isEqualTo(2);
+        assertThat(running.getRequestKey()).isNotNull();
+        assertThat(actionService.request("123", "counting", Collections.emptyMap()).getId()).isEqualTo(action.getId());
+
+        actionService.perform(second);
+        assertThat(actionRepository.findById(action.getId()).get().getState()).isEqualTo(ActionControl.State.FINISHED);
+    }
+
+    @Test
+    public void testQueueAndActionsAreMeasured() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            actionService.request("123", "counting", Collections.emptyMap());
+            actionService.request("124", "counting", Collections.emptyMap());
+            assertThat(registry.get("mediaserver.actions.queued").gauge().value()).isEqualTo(2);
+
+            for (ActionControl actionControl : actionService.claim(10)) {
+                actionService.perform(actionControl);
+            }
+
+            assertThat(registry.get("mediaserver.actions.queued").gauge().value()).isEqualTo(0);
+            assertThat(registry.get("mediaserver.actions").tags("action", "counting", "outcome", "finished")
+                    .timer().count()).isEqualTo(2);
+            assertThat(registry.get("mediaserver.actions.wait").timer().count()).isEqualTo(2);
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    @Test
+    public void testConcurrentWorkersClaimEachActionOnce() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            actionService.request("work" + i, "counting", Collections.singletonMap("page", String.valueOf(i)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int worker = 0; worker < 4; worker++) {
+            futures.add(executor.submit(() -> {
+                List<ActionControl> claimed;
+                while (!(claimed = actionService.claim(5)).isEmpty()) {
+                    for (ActionControl actionControl : claimed) {
+                        actionService.perform(actionControl);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(countingAction.performed).hasSize(100);
+        assertThat(countingAction.performed.values()).allMatch(count -> count.get() == 1);
+        assertThat(actionRepository.findAll()).allMatch(a -> a.getState() == ActionControl.State.FINISHED);
+    }
+
+    static class CountingAction implements IAction {
+
+        final Map<String, AtomicInteger> performed = new ConcurrentHashMap<>();
+
+        @Override
+        public Object perform(ActionControl actionControl) {
+            performed.computeIfAbsent(actionControl.getWorkId(), id -> new AtomicInteger()).incrementAndGet();
+            return null;
+        }
+    }
+
+    @Configuration
+    @EnableJpaRepositories("org.kitodo.mediaserver.core.db.repositories")
+    static class Config {
+
+        @Bean
+        CountingAction countingAction() {
+            return new CountingAction();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.actions;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.api.IAction;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.kitodo.mediaserver.core.db.repositories.ActionRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Test for the worker of the action queue.
+ */
+@SpringBootTest(classes = {ActionWorker.class, ActionService.class, ActionWorkerTest.Config.class},
+    properties = "actionQueue.enabled=false")
+@EnableAutoConfiguration
+@EntityScan("org.kitodo.mediaserver.core.db.entities")
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ActionWorkerTest {
+
+    @Autowired
+    private ActionWorker actionWorker;
+
+    @Autowired
+    private ActionService actionService;
+
+    @Autowired
+    private ActionRepository actionRepository;
+
+    @MockBean
+    private PriorityScheduler priorityScheduler;
+
+    @After
+    public void cleanUp() {
+        actionRepository.deleteAll();
+    }
+
+    @Test
+    public void testActionsRejectedByFullInteractiveQueueAreRequestedAgain() {
+        ActionControl interactive = actionService.request("123", "noop", Collections.emptyMap(),
+                ActionControl.Priority.INTERACTIVE);
+        ActionControl batch = actionService.request("456", "noop", Collections.emptyMap(),
+                ActionControl.Priority.BATCH);
+        when(priorityScheduler.getFreeThreads()).thenReturn(2);
+        when(priorityScheduler.getFreeBatchThreads()).thenReturn(1);
+        // interactive conversions filled the queue after the free threads were counted
+        doThrow(new RejectedExecutionException("Too many interactive tasks are waiting"))
+                .when(priorityScheduler).execute(any(), eq(ActionControl.Priority.INTERACTIVE));
+
+        actionWorker.poll();
+
+        verify(priorityScheduler).execute(any(), eq(ActionControl.Priority.BATCH));
+        ActionControl rejected = actionRepository.findById(interactive.getId()).get();
+        assertThat(rejected.getState()).isEqualTo(ActionControl.State.REQUESTED);
+        assertThat(rejected.getWorker()).isNull();
+        assertThat(actionRepository.findById(batch.getId()).get().getState())
+                .isEqualTo(ActionControl.State.RUNNING);
+        assertThat(actionService.claim(10)).extracting(ActionControl::getId).containsExactly(interactive.getId());
+    }
+
+    @Configuration
+    @EnableJpaRepositories("org.kitodo.mediaserver.core.db.repositories")
+    static class Config {
+
+        @Bean
+        IAction noopAction() {
+            return actionControl -> null;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.actions;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.db.entities.ActionControl.Priority;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the priority scheduler.
+ */
+@SpringBootTest(classes = PriorityScheduler.class, properties = {
+    "scheduler.threads=4",
+    "scheduler.batchShare=0.5",
+    "scheduler.aging=1"
+    })
+@RunWith(SpringRunner.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class PrioritySchedulerTest {
+
+    @Autowired
+    private PriorityScheduler priorityScheduler;
+
+    @Test
+    public void testBatchTasksUseAtMostTheirShare() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            priorityScheduler.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(20);
+                running.decrementAndGet();
+                done.countDown();
+            }, Priority.BATCH);
+        }
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFreeBatchThreadsAreLimitedByTheirShare() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        assertThat(priorityScheduler.getFreeThreads()).isEqualTo(4);
+        assertThat(priorityScheduler.getFreeBatchThreads()).isEqualTo(2);
+
+        priorityScheduler.execute(() -> await(blocked), Priority.BATCH);
+        assertThat(priorityScheduler.getFreeBatchThreads()).isEqualTo(1);
+        priorityScheduler.execute(() -> await(blocked), Priority.INTERACTIVE);
+        priorityScheduler.execute(() -> await(blocked), Priority.INTERACTIVE);
+        assertThat(priorityScheduler.getFreeThreads()).isEqualTo(1);
+        assertThat(priorityScheduler.getFreeBatchThreads()).isEqualTo(1);
+        priorityScheduler.execute(() -> await(blocked), Priority.BATCH);
+        assertThat(priorityScheduler.getFreeBatchThreads()).isEqualTo(0);
+
+        blocked.countDown();
+    }
+
+    @Test
+    public void testInteractiveTasksRunBeforeWaitingBatchTasks() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(8);
+        AtomicInteger interactiveStarted = new AtomicInteger();
+        List<Integer> interactiveStartedBeforeBatch = new CopyOnWriteArrayList<>();
+
+        // occupy all threads, so the following tasks have to wait
+        for (int i = 0; i < 4; i++) {
+            priorityScheduler.execute(() -> await(blocked), Priority.INTERACTIVE);
+        }
+        for (int i = 0; i < 4; i++) {
+            priorityScheduler.execute(() -> {
+                interactiveStartedBeforeBatch.add(interactiveStarted.get());
+                done.countDown();
+            }, Priority.BATCH);
+        }
+        for (int i = 0; i < 4; i++) {
+            priorityScheduler.execute(() -> {
+                interactiveStarted.incrementAndGet();
+                sleep(50);
+                done.countDown();
+            }, Priority.INTERACTIVE);
+        }
+        blocked.countDown();
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(interactiveStartedBeforeBatch).containsOnly(4);
+    }
+
+    @Test
+    public void testWaitingBatchTasksAge() throws Exception {
+        CountDownLatch batchDone = new CountDownLatch(1);
+        AtomicInteger stop = new AtomicInteger();
+
+        priorityScheduler.execute(batchDone::countDown, Priority.BATCH);
+        // keep all threads busy with a steady stream of interactive tasks
+        Runnable interactive = new Runnable() {
+            @Override
+            public void run() {
+                sleep(10);
+                if (stop.get() == 0) {
+                    priorityScheduler.execute(this, Priority.INTERACTIVE);
+                }
+            }
+        };
+        for (int i = 0; i < 8; i++) {
+            priorityScheduler.execute(interactive, Priority.INTERACTIVE);
+        }
+
+        try {
+            assertThat(batchDone.await(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            stop.set(1);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the derivative cache.
+ */
+@SpringBootTest(classes = DerivativeCache.class, properties = {
+    "derivativeCache.enabled=true",
+    "derivativeCache.quota=1",
+    "derivativeCache.interval=0"
+    })
+@RunWith(SpringRunner.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class DerivativeCacheTest {
+
+    private static final long SIZE = 400 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @MockBean
+    private WorkRepository workRepository;
+
+    @Autowired
+    private DerivativeCache derivativeCache;
+
+    private File master;
+    private File[] derivatives;
+
+    @Before
+    public void init() throws Exception {
+        when(workRepository.findPaths(any(Pageable.class))).thenReturn(
+                new SliceImpl<>(Collections.singletonList(temporaryFolder.getRoot().getAbsolutePath())));
+
+        long now = System.currentTimeMillis();
+        master = createFile("master/00000001.tif", now - 100000);
+        derivatives = new File[5];
+        for (int i = 0; i < derivatives.length; i++) {
+            // the first derivative was accessed longest ago
+            derivatives[i] = createFile("derivatives/0000000" + i + ".jpg", now - 50000 + i * 1000);
+        }
+    }
+
+    @Test
+    public void testScanIndexesOnlyDerivatives() {
+        derivativeCache.scan();
+
+        assertThat(derivativeCache.size()).isEqualTo(2);
+        assertThat(derivativeCache.getUsage()).isEqualTo(2 * SIZE);
+        assertThat(master).exists();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAreEvicted() {
+        derivativeCache.scan();
+
+        // 5 * 400 KB exceed the quota of 1 MB, 2 are left below the low watermark of 0.9 MB
+        assertThat(derivatives[0]).doesNotExist();
+        assertThat(derivatives[1]).doesNotExist();
+        assertThat(derivatives[2]).doesNotExist();
+        assertThat(derivatives[3]).exists();
+        assertThat(derivatives[4]).exists();
+    }
+
+    @Test
+    public void testFrequentlyUsedSurvive() throws Exception {
+        derivativeCache.scan();
+        File produced = createFile("derivatives/00000005.jpg", System.currentTimeMillis());
+        derivativeCache.add("/derivatives/00000005.jpg", produced);
+        derivativeCache.touch(derivatives[3]);
+        derivativeCache.touch(derivatives[3]);
+        derivativeCache.touch(derivatives[3]);
+
+        derivativeCache.evict();
+
+        assertThat(derivatives[3]).exists();
+        assertThat(derivatives[4]).doesNotExist();
+        assertThat(produced).exists();
+    }
+
+    @Test
+    public void testBaseDirectoryIsTheLiteralPartOfThePattern() {
+        assertThat(DerivativeCache.getBaseDirectory("glob:derivatives/**")).isEqualTo("derivatives");
+        assertThat(DerivativeCache.getBaseDirectory("glob:derivatives/jpeg/*.jpg")).isEqualTo("derivatives/jpeg");
+        assertThat(DerivativeCache.getBaseDirectory("glob:{derivatives,cache}/**")).isEqualTo("");
+        assertThat(DerivativeCache.getBaseDirectory("glob:**/*.jpg")).isEqualTo("");
+        assertThat(DerivativeCache.getBaseDirectory("regex:derivatives/.*")).isEqualTo("");
+    }
+
+    private File createFile(String path, long lastAccess) throws Exception {
+        File file = new File(temporaryFolder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(SIZE);
+        }
+        FileTime time = FileTime.fromMillis(lastAccess);
+        Files.getFileAttributeView(file.toPath(), BasicFileAttributeView.class).setTimes(time, time, null);
+        return file;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.db.repositories.IdentifierRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the identifier cache.
+ */
+@SpringBootTest(classes = IdentifierCache.class, properties = "identifierCache.interval=0")
+@RunWith(SpringRunner.class)
+public class IdentifierCacheTest {
+
+    @MockBean
+    private IdentifierRepository identifierRepository;
+
+    @Autowired
+    private IdentifierCache identifierCache;
+
+    @Test
+    public void testResolveAfterReload() {
+        when(identifierRepository.findAllWorkIds()).thenReturn(Arrays.asList(
+                new Object[] {"urn:nbn:de:123", "123"},
+                new Object[] {"10.1234/abc", "123"},
+                new Object[] {"urn:nbn:de:124", "124"}));
+        identifierCache.reloadAll();
+
+        assertThat(identifierCache.size()).isEqualTo(3);
+        assertThat(identifierCache.resolve("urn:nbn:de:123")).isEqualTo("123");
+        assertThat(identifierCache.resolve("10.1234/abc")).isEqualTo("123");
+        assertThat(identifierCache.resolve("urn:nbn:de:999")).isNull();
+
+        // the work 123 was reimported with another identifier
+        when(identifierRepository.findIdentifiersByWorkId("123"))
+                .thenReturn(Collections.singletonList("urn:nbn:de:123-2"));
+        identifierCache.reload("123");
+
+        assertThat(identifierCache.resolve("urn:nbn:de:123")).isNull();
+        assertThat(identifierCache.resolve("10.1234/abc")).isNull();
+        assertThat(identifierCache.resolve("urn:nbn:de:123-2")).isEqualTo("123");
+        assertThat(identifierCache.resolve("urn:nbn:de:124")).isEqualTo("124");
+    }
+}
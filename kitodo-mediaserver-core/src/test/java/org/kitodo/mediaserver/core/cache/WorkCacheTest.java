@@ -0,0 +1,89 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.kitodo.mediaserver.core.models.WorkInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the work cache.
+ */
+@SpringBootTest(classes = WorkCache.class)
+@RunWith(SpringRunner.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class WorkCacheTest {
+
+    @MockBean
+    private WorkRepository workRepository;
+
+    @Autowired
+    private WorkCache workCache;
+
+    private Work work;
+
+    @Before
+    public void init() {
+        work = new Work("123", "Test work");
+        work.setPath("/works/123");
+        work.setEnabled(true);
+        when(workRepository.findWorkInfoById("123")).thenAnswer(invocation -> Optional.of(new WorkInfo(work)));
+        when(workRepository.findWorkInfoById("456")).thenReturn(Optional.empty());
+    }
+
+    @Test
+    public void testRepeatedLookupHitsCache() {
+        for (int i = 0; i < 3; i++) {
+            WorkInfo workInfo = workCache.get("123");
+            assertThat(workInfo.getPath()).isEqualTo("/works/123");
+            assertThat(workInfo.isEnabled()).isTrue();
+        }
+
+        verify(workRepository, times(1)).findWorkInfoById("123");
+        assertThat(workCache.getStats().hitCount()).isEqualTo(2);
+        assertThat(workCache.getStats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testUnknownWorkIsNotCached() {
+        assertThat(workCache.get("456")).isNull();
+        assertThat(workCache.get("456")).isNull();
+
+        verify(workRepository, times(2)).findWorkInfoById("456");
+        assertThat(workCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testInvalidationShowsChanges() {
+        assertThat(workCache.get("123").isEnabled()).isTrue();
+
+        work.setEnabled(false);
+        assertThat(workCache.get("123").isEnabled()).isTrue();
+
+        workCache.invalidate("123");
+        assertThat(workCache.get("123").isEnabled()).isFalse();
+    }
+}
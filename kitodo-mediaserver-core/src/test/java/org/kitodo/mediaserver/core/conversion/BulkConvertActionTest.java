@@ -0,0 +1,118 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.api.IConverter;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the bulk convert action.
+ */
+@SpringBootTest(classes = {BulkConvertAction.class, BulkConvertActionTest.Config.class}, properties = {
+    "bulkConversion.derivatives[0].path=derivatives/small/{name}.jpg",
+    "bulkConversion.derivatives[0].parameter.size=100",
+    "bulkConversion.derivatives[1].path=derivatives/large/{name}.jpg",
+    "bulkConversion.derivatives[1].parameter.size=1000"
+    })
+@RunWith(SpringRunner.class)
+public class BulkConvertActionTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @MockBean
+    private WorkRepository workRepository;
+
+    @Autowired
+    private BulkConvertAction bulkConvertAction;
+
+    private final List<URI> convertedMasters = new ArrayList<>();
+
+    @Before
+    public void init() throws Exception {
+        Work work = new Work("123", "Test work");
+        work.setPath(temporaryFolder.getRoot().getAbsolutePath());
+        when(workRepository.findById("123")).thenReturn(Optional.of(work));
+
+        temporaryFolder.newFolder("master");
+        temporaryFolder.newFile("master/00000001.tif");
+        temporaryFolder.newFile("master/00000002.tif");
+
+        bulkConvertAction.setConverter(new IConverter() {
+            @Override
+            public void convert(URI master, Map<String, String> parameter, OutputStream outputStream) {
+                throw new UnsupportedOperationException("Each master must be converted only once");
+            }
+
+            @Override
+            public void convertAll(URI master, Map<Map<String, String>, OutputStream> outputs) throws Exception {
+                convertedMasters.add(master);
+                for (Map.Entry<Map<String, String>, OutputStream> output : outputs.entrySet()) {
+                    output.getValue().write(output.getKey().get("size").getBytes(StandardCharsets.US_ASCII));
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testAllDerivativesOfEachMasterInOnePass() throws Exception {
+        ActionControl actionControl = new ActionControl("123", "bulkConvert", Collections.emptyMap());
+
+        assertThat(bulkConvertAction.perform(actionControl)).isEqualTo(4);
+        assertThat(convertedMasters).hasSize(2);
+        assertThat(content("derivatives/small/00000001.jpg")).isEqualTo("100");
+        assertThat(content("derivatives/large/00000001.jpg")).isEqualTo("1000");
+        assertThat(content("derivatives/small/00000002.jpg")).isEqualTo("100");
+        assertThat(content("derivatives/large/00000002.jpg")).isEqualTo("1000");
+        assertThat(new File(temporaryFolder.getRoot(), "derivatives/small").list()).hasSize(2);
+
+        // present derivatives are not produced again
+        assertThat(bulkConvertAction.perform(actionControl)).isEqualTo(0);
+        assertThat(convertedMasters).hasSize(2);
+    }
+
+    private String content(String path) throws Exception {
+        return new String(Files.readAllBytes(new File(temporaryFolder.getRoot(), path).toPath()),
+                StandardCharsets.US_ASCII);
+    }
+
+    @Configuration
+    @EnableConfigurationProperties
+    static class Config {
+    }
+}
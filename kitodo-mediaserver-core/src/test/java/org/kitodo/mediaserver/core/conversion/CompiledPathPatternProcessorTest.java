@@ -0,0 +1,100 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Test for the compiled path pattern processor.
+ */
+public class CompiledPathPatternProcessorTest {
+
+    private final CompiledPathPatternProcessor processor =
+            new CompiledPathPatternProcessor("/derivatives/{width}/{name}.{format}");
+
+    @Test
+    public void testResolve() {
+        assertThat(processor.resolve("/derivatives/1000/00000001.jpg"))
+                .containsEntry("width", "1000")
+                .containsEntry("name", "00000001")
+                .containsEntry("format", "jpg")
+                .hasSize(3);
+
+        // the variable before the last one ends at the rightmost separator, like the names of work files
+        assertThat(new CompiledPathPatternProcessor("/derivatives/{size}/{name}.{format}")
+                .resolve("/derivatives/800/page.001.jpg"))
+                .containsEntry("size", "800")
+                .containsEntry("name", "page.001")
+                .containsEntry("format", "jpg");
+        assertThat(new CompiledPathPatternProcessor("{a}.{b}.{c}").resolve("x.y.z.jpg"))
+                .containsEntry("a", "x")
+                .containsEntry("b", "y.z")
+                .containsEntry("c", "jpg");
+        assertThat(new CompiledPathPatternProcessor("{name}.tar.gz").resolve("a.tar.tar.gz"))
+                .containsEntry("name", "a.tar");
+
+        int[] bounds = new int[6];
+        assertThat(processor.match("/derivatives/1000/00000001.jpg", bounds)).isTrue();
+        assertThat(bounds).containsExactly(13, 17, 18, 26, 27, 30);
+    }
+
+    @Test
+    public void testMismatches() {
+        assertThat(processor.matches("/derivatives/1000/00000001")).isFalse();
+        assertThat(processor.matches("/derivatives//00000001.jpg")).isFalse();
+        assertThat(processor.matches("/derivatives/1000/sub/00000001.jpg")).isFalse();
+        assertThat(processor.matches("/derivatives/1000/00000001.")).isFalse();
+        assertThat(processor.matches("/derivatives/1000/.jpg")).isFalse();
+        assertThat(processor.matches("/derivatives/1000/a.b/jpg")).isFalse();
+        assertThat(processor.matches("derivatives/1000/00000001.jpg")).isFalse();
+        assertThat(new CompiledPathPatternProcessor("/mets.xml").matches("/mets.xml")).isTrue();
+
+        assertThatThrownBy(() -> processor.resolve("/master/00000001.tif"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testCompose() {
+        Map<String, String> parameter = new HashMap<>();
+        parameter.put("width", "500");
+        parameter.put("name", "00000002");
+        parameter.put("format", "png");
+        parameter.put("quality", "gray");
+
+        String path = processor.compose(parameter);
+
+        assertThat(path).isEqualTo("/derivatives/500/00000002.png");
+        assertThat(processor.compose(processor.resolve(path))).isEqualTo(path);
+
+        parameter.put("name", "../00000002");
+        assertThatThrownBy(() -> processor.compose(parameter)).isInstanceOf(IllegalArgumentException.class);
+        parameter.remove("name");
+        assertThatThrownBy(() -> processor.compose(parameter)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testInvalidPatterns() {
+        assertThatThrownBy(() -> new CompiledPathPatternProcessor("/{width}{name}.jpg"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CompiledPathPatternProcessor("/{name}/{name}.jpg"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CompiledPathPatternProcessor("/{name.jpg"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CompiledPathPatternProcessor("/{}.jpg"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.api.IConverter;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the convert action, as performed from the action queue.
+ */
+@SpringBootTest(classes = ConvertAction.class)
+@RunWith(SpringRunner.class)
+public class ConvertActionTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @MockBean
+    private WorkRepository workRepository;
+
+    @Autowired
+    private ConvertAction convertAction;
+
+    private final AtomicInteger conversions = new AtomicInteger();
+
+    @Before
+    public void init() throws Exception {
+        Work work = new Work("123", "Test work");
+        work.setPath(temporaryFolder.getRoot().getAbsolutePath());
+        when(workRepository.findById("123")).thenReturn(Optional.of(work));
+
+        convertAction.setConverter(new IConverter() {
+            @Override
+            public void convert(URI master, Map<String, String> parameter, OutputStream outputStream)
+                    throws Exception {
+                conversions.incrementAndGet();
+                outputStream.write(parameter.get("size").getBytes(StandardCharsets.US_ASCII));
+            }
+        });
+    }
+
+    @Test
+    public void testDerivativeIsStoredInWorkDirectory() throws Exception {
+        ActionControl actionControl = new ActionControl("123", "convert", parameter("/derivatives/100/00000001.jpg"));
+
+        File derivative = convertAction.perform(actionControl);
+
+        assertThat(derivative).isEqualTo(new File(temporaryFolder.getRoot(), "derivatives/100/00000001.jpg"));
+        assertThat(new String(Files.readAllBytes(derivative.toPath()), StandardCharsets.US_ASCII)).isEqualTo("100");
+        // only the derivative is left, not the temporary file
+        assertThat(derivative.getParentFile().list()).containsExactly("00000001.jpg");
+
+        // a present derivative is not produced again
+        assertThat(convertAction.perform(actionControl)).isEqualTo(derivative);
+        assertThat(conversions.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDerivativeOutsideOfWorkIsRejected() {
+        assertThatThrownBy(() -> convertAction.perform(new ActionControl("123", "convert",
+                parameter("/../00000001.jpg")))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> convertAction.perform(new ActionControl("123", "convert",
+                new HashMap<>()))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(conversions.get()).isEqualTo(0);
+    }
+
+    private static Map<String, String> parameter(String derivativePath) {
+        Map<String, String> parameter = new HashMap<>();
+        parameter.put(ConvertAction.DERIVATIVE_PATH_PARAMETER, derivativePath);
+        parameter.put(ConvertAction.MASTER_PARAMETER, "file:///master/00000001.tif");
+        parameter.put("size", "100");
+        return parameter;
+    }
+}
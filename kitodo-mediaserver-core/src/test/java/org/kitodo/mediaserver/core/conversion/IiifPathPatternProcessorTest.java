@@ -0,0 +1,84 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the IIIF path pattern processor.
+ */
+@SpringBootTest(classes = IiifPathPatternProcessor.class)
+@RunWith(SpringRunner.class)
+public class IiifPathPatternProcessorTest {
+
+    @Autowired
+    private IiifPathPatternProcessor processor;
+
+    @Test
+    public void testResolve() {
+        Map<String, String> parameter = processor.resolve("0,512,512,512/256,/!90/gray.png");
+
+        assertThat(parameter)
+                .containsEntry("region", "0,512,512,512")
+                .containsEntry("width", "256")
+                .containsEntry("rotation", "90")
+                .containsEntry("mirror", "true")
+                .containsEntry("quality", "gray")
+                .containsEntry("format", "png")
+                .hasSize(6);
+
+        assertThat(processor.resolve("/pct:10.50,0,50,100/!200,100/0/default.jpg"))
+                .containsEntry("region", "pct:10.5,0,50,100")
+                .containsEntry("size", "200,100")
+                .hasSize(2);
+
+        assertThat(processor.resolve("full/max/0/default.jpg")).isEmpty();
+    }
+
+    @Test
+    public void testEquivalentRequestsComposeToOnePath() {
+        String canonical = processor.compose(processor.resolve("full/full/0/default.jpg"));
+
+        assertThat(canonical).isEqualTo("full/full/0/default.jpg");
+        assertThat(processor.compose(processor.resolve("full/^max/360/color.jpg"))).isEqualTo(canonical);
+        assertThat(processor.compose(processor.resolve("square/pct:50.0/!0/bitonal.gif")))
+                .isEqualTo("square/pct:50/!0/bitonal.gif");
+        assertThat(processor.compose(processor.resolve("00,0,512,512/,0512/270/default.tif")))
+                .isEqualTo("0,0,512,512/,512/270/default.tif");
+    }
+
+    @Test
+    public void testInvalidRequests() {
+        assertThatThrownBy(() -> processor.resolve("full/max/0/default"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> processor.resolve("../max/0/default.jpg"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> processor.resolve("0,0,0,10/max/0/default.jpg"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> processor.resolve("full/,/0/default.jpg"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> processor.resolve("full/pct:1e999999/0/default.jpg"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> processor.resolve("full/max/45/default.jpg"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> processor.resolve("full/max/0/default.webp"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the ImageIO converter.
+ */
+@SpringBootTest(classes = ImageIOConverter.class)
+@RunWith(SpringRunner.class)
+public class ImageIOConverterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Autowired
+    private ImageIOConverter converter;
+
+    private File master;
+
+    @Before
+    public void init() throws Exception {
+        // left half red, right half blue
+        BufferedImage image = new BufferedImage(2000, 1500, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, 1000, 1500);
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(1000, 0, 1000, 1500);
+        graphics.dispose();
+
+        master = temporaryFolder.newFile("00000001.tif");
+        assertThat(ImageIO.write(image, "tif", master)).isTrue();
+    }
+
+    @Test
+    public void testScaleToSize() throws Exception {
+        BufferedImage result = convert(parameter("size", "400"));
+
+        assertThat(result.getWidth()).isEqualTo(400);
+        assertThat(result.getHeight()).isEqualTo(300);
+        assertThat(new Color(result.getRGB(50, 150)).getRed()).isGreaterThan(200);
+        assertThat(new Color(result.getRGB(350, 150)).getBlue()).isGreaterThan(200);
+    }
+
+    @Test
+    public void testRegionWithWidth() throws Exception {
+        Map<String, String> parameter = parameter("region", "1000,0,1000,1500");
+        parameter.put("width", "100");
+        parameter.put("format", "png");
+
+        BufferedImage result = convert(parameter);
+
+        assertThat(result.getWidth()).isEqualTo(100);
+        assertThat(result.getHeight()).isEqualTo(150);
+        assertThat(new Color(result.getRGB(5, 5)).getBlue()).isEqualTo(255);
+        assertThat(new Color(result.getRGB(95, 145)).getBlue()).isEqualTo(255);
+    }
+
+    @Test
+    public void testRelativeRegionsAndSizes() throws Exception {
+        Map<String, String> parameter = parameter("region", "pct:50,0,50,100");
+        parameter.put("size", "300,100");
+        parameter.put("format", "png");
+        BufferedImage result = convert(parameter);
+        assertThat(result.getWidth()).isEqualTo(67);
+        assertThat(result.getHeight()).isEqualTo(100);
+        assertThat(new Color(result.getRGB(5, 5)).getBlue()).isEqualTo(255);
+
+        parameter = parameter("region", "square");
+        parameter.put("scale", "10");
+        result = convert(parameter);
+        assertThat(result.getWidth()).isEqualTo(150);
+        assertThat(result.getHeight()).isEqualTo(150);
+
+        assertThat(ImageIOConverter.readSize(master.toURI())).isEqualTo(new Dimension(2000, 1500));
+    }
+
+    @Test
+    public void testRotationAndMirror() throws Exception {
+        Map<String, String> parameter = parameter("size", "200");
+        parameter.put("rotation", "90");
+        parameter.put("format", "png");
+
+        BufferedImage rotated = convert(parameter);
+        assertThat(rotated.getWidth()).isEqualTo(150);
+        assertThat(rotated.getHeight()).isEqualTo(200);
+        // the left side is on top after rotating clockwise
+        assertThat(new Color(rotated.getRGB(75, 10)).getRed()).isEqualTo(255);
+
+        parameter = parameter("size", "200");
+        parameter.put("mirror", "true");
+        parameter.put("format", "png");
+        BufferedImage mirrored = convert(parameter);
+        assertThat(new Color(mirrored.getRGB(10, 75)).getBlue()).isEqualTo(255);
+    }
+
+    @Test
+    public void testAllDerivativesFromOneDecoding() throws Exception {
+        Map<Map<String, String>, OutputStream> outputs = new LinkedHashMap<>();
+        ByteArrayOutputStream small = new ByteArrayOutputStream();
+        ByteArrayOutputStream gray = new ByteArrayOutputStream();
+        outputs.put(parameter("size", "100"), small);
+        Map<String, String> grayParameter = parameter("size", "1000");
+        grayParameter.put("quality", "gray");
+        outputs.put(grayParameter, gray);
+
+        converter.convertAll(master.toURI(), outputs);
+
+        BufferedImage smallImage = ImageIO.read(new ByteArrayInputStream(small.toByteArray()));
+        assertThat(smallImage.getWidth()).isEqualTo(100);
+        BufferedImage grayImage = ImageIO.read(new ByteArrayInputStream(gray.toByteArray()));
+        assertThat(grayImage.getWidth()).isEqualTo(1000);
+        assertThat(grayImage.getColorModel().getNumComponents()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSubsamplingKeepsResolution() {
+        assertThat(ImageIOConverter.getSubsampling(new Dimension(12000, 9000), 400, 300)).isEqualTo(30);
+        assertThat(ImageIOConverter.getSubsampling(new Dimension(12000, 9000), 7000, 5250)).isEqualTo(1);
+        assertThat(ImageIOConverter.getSubsampling(new Dimension(1000, 1000), 2000, 2000)).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidParameter() {
+        assertThatThrownBy(() -> convert(parameter("rotation", "45")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> convert(parameter("region", "3000,0,100,100")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> convert(parameter("size", "50000")))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("maximum area");
+    }
+
+    @Test
+    public void testSizeIsComputedWithoutReading() {
+        Map<String, String> parameter = parameter("scale", "50");
+        parameter.put("rotation", "90");
+
+        assertThat(ImageIOConverter.getSize(parameter, new Dimension(2000, 1500))).isEqualTo(new Dimension(750, 1000));
+    }
+
+    private Map<String, String> parameter(String name, String value) {
+        Map<String, String> parameter = new HashMap<>();
+        parameter.put(name, value);
+        return parameter;
+    }
+
+    private BufferedImage convert(Map<String, String> parameter) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        converter.convert(master.toURI(), parameter, outputStream);
+        return ImageIO.read(new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+}
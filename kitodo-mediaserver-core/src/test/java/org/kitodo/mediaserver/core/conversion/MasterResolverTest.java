@@ -0,0 +1,106 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.cache.WorkIndexCache;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.kitodo.mediaserver.core.models.WorkIndex;
+import org.kitodo.mediaserver.core.models.WorkInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the master resolver.
+ */
+@SpringBootTest(classes = {MasterResolver.class, WorkIndexCache.class})
+@RunWith(SpringRunner.class)
+public class MasterResolverTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @MockBean
+    private WorkRepository workRepository;
+
+    @Autowired
+    private MasterResolver masterResolver;
+
+    private WorkInfo work;
+
+    @Before
+    public void init() throws Exception {
+        work = new WorkInfo("123", temporaryFolder.getRoot().getAbsolutePath(), true);
+        temporaryFolder.newFolder("master");
+        temporaryFolder.newFile("master/00000001.tif");
+        temporaryFolder.newFile("master/00000002.tif");
+    }
+
+    @Test
+    public void testMasterIsFoundInCachedListing() throws Exception {
+        assertThat(masterResolver.resolve(work, name("00000002")))
+                .isEqualTo(new File(work.getPath(), "master/00000002.tif").toURI());
+        assertThat(masterResolver.resolve(work, name("00000003"))).isNull();
+        assertThat(masterResolver.resolve(work, Collections.singletonMap("width", "1000"))).isNull();
+
+        // the directory is listed once, until the work is invalidated
+        temporaryFolder.newFile("master/00000003.tif");
+        assertThat(masterResolver.resolve(work, name("00000003"))).isNull();
+        masterResolver.invalidate("123");
+        assertThat(masterResolver.resolve(work, name("00000003")))
+                .isEqualTo(new File(work.getPath(), "master/00000003.tif").toURI());
+    }
+
+    @Test
+    public void testMasterIsFoundInIndex() throws Exception {
+        new WorkIndex.Builder(0, 0)
+                .addFile("MASTER", "FILE_0001_MASTER", "images/scan_0001.tif")
+                .addFile("MASTER", "FILE_0002_MASTER", "https://example.org/files/123/scan_0002.tif")
+                .write(temporaryFolder.getRoot().toPath().resolve(WorkIndex.FILE_NAME));
+
+        assertThat(masterResolver.resolve(work, "scan_0001"))
+                .isEqualTo(new File(work.getPath(), "images/scan_0001.tif").toURI());
+        assertThat(masterResolver.resolve(work, "scan_0002"))
+                .isEqualTo(URI.create("https://example.org/files/123/scan_0002.tif"));
+        // masters missing in the index are still found in the master directory
+        assertThat(masterResolver.resolve(work, "00000001"))
+                .isEqualTo(new File(work.getPath(), "master/00000001.tif").toURI());
+    }
+
+    @Test
+    public void testWorkIsLookedUpById() {
+        when(workRepository.findWorkInfoById("123")).thenReturn(Optional.of(work));
+        when(workRepository.findWorkInfoById("456")).thenReturn(Optional.empty());
+
+        assertThat(masterResolver.resolve("123", name("00000001")))
+                .isEqualTo(new File(work.getPath(), "master/00000001.tif").toURI());
+        assertThat(masterResolver.resolve("456", name("00000001"))).isNull();
+    }
+
+    private static Map<String, String> name(String name) {
+        return Collections.singletonMap(MasterResolver.NAME_PARAMETER, name);
+    }
+}
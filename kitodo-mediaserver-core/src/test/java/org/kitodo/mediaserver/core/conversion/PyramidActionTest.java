@@ -0,0 +1,115 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.conversion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Optional;
+import javax.imageio.ImageIO;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the pyramid action.
+ */
+@SpringBootTest(classes = {PyramidAction.class, ImageIOConverter.class}, properties = "pyramid.tileSize=256")
+@RunWith(SpringRunner.class)
+public class PyramidActionTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @MockBean
+    private WorkRepository workRepository;
+
+    @Autowired
+    private PyramidAction pyramidAction;
+
+    private final IiifPathPatternProcessor processor = new IiifPathPatternProcessor();
+
+    @Before
+    public void init() throws Exception {
+        Work work = new Work("123", "Test work");
+        work.setPath(temporaryFolder.getRoot().getAbsolutePath());
+        when(workRepository.findById("123")).thenReturn(Optional.of(work));
+
+        temporaryFolder.newFolder("master");
+        BufferedImage image = new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB);
+        assertThat(ImageIO.write(image, "tif", temporaryFolder.newFile("master/00000001.tif"))).isTrue();
+    }
+
+    @Test
+    public void testPyramidOfTiles() throws Exception {
+        ActionControl actionControl = new ActionControl("123", "pyramid", Collections.emptyMap());
+
+        assertThat(pyramidAction.perform(actionControl)).isEqualTo(1);
+
+        File pyramidFile = new File(temporaryFolder.getRoot(), "pyramids/00000001.pyr");
+        Pyramid pyramid = Pyramid.read(pyramidFile.toPath());
+        assertThat(pyramid.getWidth()).isEqualTo(1200);
+        assertThat(pyramid.getHeight()).isEqualTo(800);
+        assertThat(pyramid.getScaleFactors()).containsExactly(1, 2, 4, 8);
+        assertThat(pyramid.getColumns(0)).isEqualTo(5);
+        assertThat(pyramid.getRows(0)).isEqualTo(4);
+
+        // a tile request of the IIIF Image API at full resolution, at the right edge
+        int tile = pyramid.findTile(processor.resolve("1024,256,176,256/176,/0/default.jpg"));
+        assertThat(tile).isEqualTo(pyramid.getTile(0, 4, 1));
+        assertThat(pyramid.findTile(pyramid.getParameter(0, 4, 1))).isEqualTo(tile);
+        assertThat(pyramid.getParameter(0, 4, 1)).containsEntry(ImageIOConverter.FORMAT_PARAMETER, "jpg");
+        BufferedImage image = readTile(pyramidFile, pyramid, tile);
+        assertThat(image.getWidth()).isEqualTo(176);
+        assertThat(image.getHeight()).isEqualTo(256);
+
+        // the whole image in one tile
+        tile = pyramid.findTile(processor.resolve("full/150,/0/default.jpg"));
+        assertThat(tile).isEqualTo(pyramid.getTile(3, 0, 0));
+        image = readTile(pyramidFile, pyramid, tile);
+        assertThat(image.getWidth()).isEqualTo(150);
+        assertThat(image.getHeight()).isEqualTo(100);
+
+        // requests not aligned to tiles or not for jpeg tiles are converted
+        assertThat(pyramid.findTile(processor.resolve("100,0,256,256/256,/0/default.jpg"))).isEqualTo(-1);
+        assertThat(pyramid.findTile(processor.resolve("0,0,256,256/256,/0/gray.jpg"))).isEqualTo(-1);
+        assertThat(pyramid.findTile(processor.resolve("0,0,256,256/128,/0/default.jpg"))).isEqualTo(-1);
+
+        // an unchanged master is not built again
+        assertThat(pyramidAction.perform(actionControl)).isEqualTo(0);
+    }
+
+    private BufferedImage readTile(File pyramidFile, Pyramid pyramid, int tile) throws Exception {
+        byte[] bytes = new byte[pyramid.getLength(tile)];
+        try (RandomAccessFile file = new RandomAccessFile(pyramidFile, "r")) {
+            file.seek(pyramid.getOffset(tile));
+            file.readFully(bytes);
+        }
+        // served as image/jpeg
+        assertThat(bytes).startsWith((byte) 0xff, (byte) 0xd8);
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.db.repositories;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.db.entities.Identifier;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test for the identifier repository.
+ */
+@SpringBootTest(classes = IdentifierRepository.class)
+@EnableAutoConfiguration
+@EntityScan("org.kitodo.mediaserver.core.db.entities")
+@RunWith(SpringRunner.class)
+@DataJpaTest
+public class IdentifierRepositoryTest {
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private IdentifierRepository identifierRepository;
+
+    @Before
+    public void init() {
+        Work work1 = new Work("123", "This is my test title");
+        Work work2 = new Work("124", "This is my second test title");
+
+        entityManager.persist(work1);
+        entityManager.persist(work2);
+        entityManager.persist(new Identifier("doi", null, work1));
+        entityManager.persist(new Identifier("urn", "urn", work1));
+        entityManager.persist(new Identifier("doi2", "doi", work2));
+        entityManager.flush();
+    }
+
+    @Test
+    public void testFindAllWorkIds() {
+        List<Object[]> found = identifierRepository.findAllWorkIds();
+        assertThat(found).hasSize(3);
+        assertThat(found).anySatisfy(row -> assertThat(row).containsExactly("urn", "123"));
+        assertThat(found).anySatisfy(row -> assertThat(row).containsExactly("doi2", "124"));
+    }
+
+    @Test
+    public void testFindIdentifiersByWorkId() {
+        assertThat(identifierRepository.findIdentifiersByWorkId("123")).containsExactlyInAnyOrder("doi", "urn");
+        assertThat(identifierRepository.findIdentifiersByWorkId("999")).isEmpty();
+    }
+}
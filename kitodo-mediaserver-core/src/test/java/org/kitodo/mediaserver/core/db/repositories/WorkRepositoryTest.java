@@ -6,12 +6,16 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.kitodo.mediaserver.core.db.entities.Identifier;
 import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.models.WorkInfo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.util.List;
@@ -83,6 +87,37 @@ public class WorkRepositoryTest {
         assertThat(!foundNonExisting.isPresent());
     }
 
+    @Test
+    public void testFindWorkInfoById() {
+        work1.setPath("/works/123");
+        work1.setEnabled(true);
+        entityManager.flush();
+        entityManager.clear();
+
+        Optional<WorkInfo> found123 = workRepository.findWorkInfoById("123");
+        assertThat(found123.isPresent()).isTrue();
+        assertThat(found123.get().getId()).isEqualTo("123");
+        assertThat(found123.get().getPath()).isEqualTo("/works/123");
+        assertThat(found123.get().isEnabled()).isTrue();
+
+        assertThat(workRepository.findWorkInfoById("999").isPresent()).isFalse();
+    }
+
+    @Test
+    public void testFindPaths() {
+        work1.setPath("/works/123");
+        work2.setPath("/works/124");
+        entityManager.flush();
+
+        Slice<String> first = workRepository.findPaths(PageRequest.of(0, 1, Sort.by("id")));
+        assertThat(first.getContent()).containsExactly("/works/123");
+        assertThat(first.hasNext()).isTrue();
+
+        Slice<String> second = workRepository.findPaths(first.nextPageable());
+        assertThat(second.getContent()).containsExactly("/works/124");
+        assertThat(second.hasNext()).isFalse();
+    }
+
     @Test
     public void testFindByIdentifiers() {
         Work foundDoi = workRepository.findByIdentifiers(new Identifier("doi", null));
@@ -0,0 +1,101 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.core.models;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test for the index of the files of a work.
+ */
+public class WorkIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testFilesAreFoundByPositionAndName() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve(WorkIndex.FILE_NAME);
+        WorkIndex.Builder builder = new WorkIndex.Builder(1234, 56);
+        for (int page = 100; page > 0; page--) {
+            builder.addFile("MASTER", String.format("FILE_%04d_MASTER", page),
+                    String.format("master/%08d.tif", page));
+        }
+        builder.addFile("MASTER", null, "master/00000050.jp2")
+                .addFile("DEFAULT", "FILE_0001_DEFAULT", "https://example.org/files/123/00000001.jpg")
+                .write(file);
+
+        WorkIndex index = WorkIndex.map(file);
+
+        assertThat(index.getMetsLastModified()).isEqualTo(1234);
+        assertThat(index.getMetsSize()).isEqualTo(56);
+        assertThat(index.getFileGroups()).containsExactly("MASTER", "DEFAULT");
+        assertThat(index.getFileCount("MASTER")).isEqualTo(101);
+        assertThat(index.getFileCount("THUMBS")).isEqualTo(0);
+
+        // in the order added, i.e. page order
+        assertThat(index.getLocation("MASTER", 0)).isEqualTo("master/00000100.tif");
+        assertThat(index.getFileId("MASTER", 99)).isEqualTo("FILE_0001_MASTER");
+        assertThat(index.getFileId("MASTER", 100)).isEmpty();
+        assertThatThrownBy(() -> index.getLocation("MASTER", 101)).isInstanceOf(IndexOutOfBoundsException.class);
+
+        // by name, the first of equally named files
+        assertThat(index.findFile("MASTER", "00000001")).isEqualTo(99);
+        assertThat(index.findLocation("MASTER", "00000050")).isEqualTo("master/00000050.tif");
+        assertThat(index.findLocation("MASTER", "00000100")).isEqualTo("master/00000100.tif");
+        assertThat(index.findLocation("DEFAULT", "00000001")).isEqualTo("https://example.org/files/123/00000001.jpg");
+        assertThat(index.findFile("MASTER", "00000000")).isEqualTo(-1);
+        assertThat(index.findFile("MASTER", "00000101")).isEqualTo(-1);
+        assertThat(index.findFile("THUMBS", "00000001")).isEqualTo(-1);
+    }
+
+    @Test
+    public void testIndexIsCurrentForItsMetsFile() throws Exception {
+        Path metsFile = temporaryFolder.newFile("123.xml").toPath();
+        Files.write(metsFile, new byte[] {1, 2, 3});
+        Files.setLastModifiedTime(metsFile, FileTime.fromMillis(1000000));
+        Path file = temporaryFolder.getRoot().toPath().resolve(WorkIndex.FILE_NAME);
+
+        assertThat(WorkIndex.isCurrent(file, metsFile)).isFalse();
+
+        new WorkIndex.Builder(1000000, 3).write(file);
+        assertThat(WorkIndex.isCurrent(file, metsFile)).isTrue();
+        assertThat(WorkIndex.map(file).getFileGroups()).isEmpty();
+
+        Files.setLastModifiedTime(metsFile, FileTime.fromMillis(2000000));
+        assertThat(WorkIndex.isCurrent(file, metsFile)).isFalse();
+    }
+
+    @Test
+    public void testInvalidFile() throws Exception {
+        Path file = temporaryFolder.newFile("invalid.idx").toPath();
+        Files.write(file, "<mets/>".getBytes("UTF-8"));
+
+        assertThatThrownBy(() -> WorkIndex.map(file)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void testGetName() {
+        assertThat(WorkIndex.getName("master/00000001.tif")).isEqualTo("00000001");
+        assertThat(WorkIndex.getName("https://example.org/files/123/00000001.jpg")).isEqualTo("00000001");
+        assertThat(WorkIndex.getName("master/.hidden")).isEqualTo(".hidden");
+        assertThat(WorkIndex.getName("00000001")).isEqualTo("00000001");
+    }
+}
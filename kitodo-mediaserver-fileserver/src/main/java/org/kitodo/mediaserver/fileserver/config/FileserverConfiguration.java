@@ -11,8 +11,27 @@
 
 package org.kitodo.mediaserver.fileserver.config;
 
+import org.kitodo.mediaserver.core.actions.ActionService;
+import org.kitodo.mediaserver.core.actions.ActionWorker;
+import org.kitodo.mediaserver.core.actions.PriorityScheduler;
+import org.kitodo.mediaserver.core.api.IConverter;
+import org.kitodo.mediaserver.core.cache.DerivativeCache;
+import org.kitodo.mediaserver.core.cache.IdentifierCache;
+import org.kitodo.mediaserver.core.cache.WorkCache;
+import org.kitodo.mediaserver.core.cache.WorkIndexCache;
+import org.kitodo.mediaserver.core.config.ConversionServiceConfiguration;
+import org.kitodo.mediaserver.core.conversion.BulkConvertAction;
+import org.kitodo.mediaserver.core.conversion.CompiledPathPatternProcessor;
+import org.kitodo.mediaserver.core.conversion.ConvertAction;
+import org.kitodo.mediaserver.core.conversion.IiifPathPatternProcessor;
+import org.kitodo.mediaserver.core.conversion.ImageIOConverter;
+import org.kitodo.mediaserver.core.conversion.MasterResolver;
+import org.kitodo.mediaserver.core.conversion.PyramidAction;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 
 /**
@@ -21,6 +40,134 @@ import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 @Configuration
 @EnableJpaRepositories("org.kitodo.mediaserver.core.db.repositories")
 @EntityScan("org.kitodo.mediaserver.core.db.entities")
+@Import(ConversionServiceConfiguration.class)
 public class FileserverConfiguration {
 
+    /**
+     * Gets the action used to produce missing derivatives.
+     * @return the convert action
+     */
+    @Bean
+    public ConvertAction convertAction() {
+        return new ConvertAction();
+    }
+
+    /**
+     * Gets the converter used by the convert actions.
+     * @return the image converter
+     */
+    @Bean
+    public IConverter imageConverter() {
+        return new ImageIOConverter();
+    }
+
+    /**
+     * Gets the processor of IIIF image request parameters.
+     * @return the IIIF path pattern processor
+     */
+    @Bean
+    public IiifPathPatternProcessor iiifPathPatternProcessor() {
+        return new IiifPathPatternProcessor();
+    }
+
+    /**
+     * Gets the processor resolving the paths of requested derivatives to parameter for the converter.
+     * @param pattern the pattern of the derivative paths
+     * @return the compiled path pattern processor
+     */
+    @Bean
+    public CompiledPathPatternProcessor derivativePathPatternProcessor(
+            @Value("${fileserver.conversion.pathPattern:}") String pattern) {
+        return new CompiledPathPatternProcessor(pattern);
+    }
+
+    /**
+     * Gets the action producing all derivatives of a work.
+     * @return the bulk convert action
+     */
+    @Bean
+    public BulkConvertAction bulkConvertAction() {
+        return new BulkConvertAction();
+    }
+
+    /**
+     * Gets the action building pyramids of tiles of the masters of a work.
+     * @return the pyramid action
+     */
+    @Bean
+    public PyramidAction pyramidAction() {
+        return new PyramidAction();
+    }
+
+    /**
+     * Gets the cache keeping produced derivatives within the disk quota.
+     * @return the derivative cache
+     */
+    @Bean
+    public DerivativeCache derivativeCache() {
+        return new DerivativeCache();
+    }
+
+    /**
+     * Gets the cache of works looked up for delivery.
+     * @return the work cache
+     */
+    @Bean
+    public WorkCache workCache() {
+        return new WorkCache();
+    }
+
+    /**
+     * Gets the cache of the memory-mapped file indexes of works.
+     * @return the work index cache
+     */
+    @Bean
+    public WorkIndexCache workIndexCache() {
+        return new WorkIndexCache();
+    }
+
+    /**
+     * Gets the resolver of the masters of requested derivatives.
+     * @return the master resolver
+     */
+    @Bean
+    public MasterResolver masterResolver() {
+        return new MasterResolver();
+    }
+
+    /**
+     * Gets the map resolving identifiers to works.
+     * @return the identifier cache
+     */
+    @Bean
+    public IdentifierCache identifierCache() {
+        return new IdentifierCache();
+    }
+
+    /**
+     * Gets the persistent queue of requested actions.
+     * @return the action service
+     */
+    @Bean
+    public ActionService actionService() {
+        return new ActionService();
+    }
+
+    /**
+     * Gets the worker performing requested actions.
+     * @return the action worker
+     */
+    @Bean
+    public ActionWorker actionWorker() {
+        return new ActionWorker();
+    }
+
+    /**
+     * Gets the scheduler running interactive and batch conversions.
+     * @return the priority scheduler
+     */
+    @Bean
+    public PriorityScheduler priorityScheduler() {
+        return new PriorityScheduler();
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.controller;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import org.kitodo.mediaserver.core.cache.IdentifierCache;
+import org.kitodo.mediaserver.core.cache.WorkCache;
+import org.kitodo.mediaserver.core.cache.WorkCacheNotifier;
+import org.kitodo.mediaserver.core.conversion.MasterResolver;
+import org.kitodo.mediaserver.core.exceptions.HttpForbiddenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * A controller to invalidate cached works and identifiers, called by the modules changing works.
+ *
+ * <p>
+ * Only clients with a configured remote address, which send the configured shared secret in the header
+ * {@link WorkCacheNotifier#SECRET_HEADER}, are allowed, others get a 403 forbidden response. The address alone
+ * is not enough, behind a local reverse proxy all clients have a loopback address. Without a configured secret,
+ * all clients are rejected.
+ */
+@RestController
+public class CacheController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheController.class);
+
+    @Autowired
+    private WorkCache workCache;
+
+    @Autowired
+    private IdentifierCache identifierCache;
+
+    @Autowired
+    private MasterResolver masterResolver;
+
+    @Value("${workCache.allowedAddresses:127.0.0.1,0:0:0:0:0:0:0:1}")
+    private List<String> allowedAddresses;
+
+    @Value("${workCache.secret:}")
+    private String secret;
+
+    /**
+     * Removes a changed work and its masters from the caches and reloads its identifiers.
+     *
+     * @param workId the id of the work
+     * @param request the http request
+     * @throws HttpForbiddenException if the client is not allowed
+     */
+    @PostMapping("/cache/works/{workId}/invalidate")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void invalidate(@PathVariable("workId") String workId, HttpServletRequest request)
+            throws HttpForbiddenException {
+        checkAllowed(request);
+        workCache.invalidate(workId);
+        masterResolver.invalidate(workId);
+        identifierCache.reload(workId);
+        LOGGER.info("Invalidated cached work " + workId);
+    }
+
+    /**
+     * Removes all works and masters from the caches and reloads all identifiers.
+     *
+     * @param request the http request
+     * @throws HttpForbiddenException if the client is not allowed
+     */
+    @PostMapping("/cache/works/invalidate")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void invalidateAll(HttpServletRequest request) throws HttpForbiddenException {
+        checkAllowed(request);
+        workCache.invalidateAll();
+        masterResolver.invalidateAll();
+        identifierCache.reloadAll();
+        LOGGER.info("Invalidated all cached works");
+    }
+
+    /**
+     * Gets the statistics of the work cache.
+     *
+     * @param request the http request
+     * @return the size, hits and misses of the cache
+     * @throws HttpForbiddenException if the client is not allowed
+     */
+    @GetMapping("/cache/works")
+    public Map<String, Object> stats(HttpServletRequest request) throws HttpForbiddenException {
+        checkAllowed(request);
+        CacheStats stats = workCache.getStats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", workCache.size());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictions", stats.evictionCount());
+        result.put("identifiers", identifierCache.size());
+        return result;
+    }
+
+    private void checkAllowed(HttpServletRequest request) throws HttpForbiddenException {
+        if (!allowedAddresses.contains(request.getRemoteAddr()) || !hasSecret(request)) {
+            String message = "Cache access from " + request.getRemoteAddr() + " is not allowed";
+            LOGGER.info(message);
+            throw new HttpForbiddenException(message);
+        }
+    }
+
+    private boolean hasSecret(HttpServletRequest request) {
+        String header = request.getHeader(WorkCacheNotifier.SECRET_HEADER);
+        // compared in constant time, so the secret can't be guessed from the response times
+        return !secret.isEmpty() && header != null && MessageDigest.isEqual(
+                secret.getBytes(StandardCharsets.UTF_8), header.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -11,23 +11,41 @@
 
 package org.kitodo.mediaserver.fileserver.controller;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Optional;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
-import org.kitodo.mediaserver.core.db.entities.Work;
-import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.kitodo.mediaserver.core.cache.DerivativeCache;
+import org.kitodo.mediaserver.core.cache.IdentifierCache;
+import org.kitodo.mediaserver.core.cache.WorkCache;
+import org.kitodo.mediaserver.core.conversion.CompiledPathPatternProcessor;
+import org.kitodo.mediaserver.core.conversion.ConvertAction;
+import org.kitodo.mediaserver.core.conversion.MasterResolver;
 import org.kitodo.mediaserver.core.exceptions.HttpForbiddenException;
 import org.kitodo.mediaserver.core.exceptions.HttpNotFoundException;
+import org.kitodo.mediaserver.core.exceptions.HttpServiceUnavailableException;
+import org.kitodo.mediaserver.core.models.WorkInfo;
+import org.kitodo.mediaserver.fileserver.conversion.DerivativeInProgress;
+import org.kitodo.mediaserver.fileserver.conversion.DerivativeProducer;
+import org.kitodo.mediaserver.fileserver.util.AccessLog;
+import org.kitodo.mediaserver.fileserver.util.FileResponder;
+import org.kitodo.mediaserver.fileserver.util.FileSender;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -40,82 +58,395 @@ import org.springframework.web.servlet.HandlerMapping;
  * The controller checks if a work is enabled before delivering files. If the work is disabled,
  * a 403 forbidden response is returned.
  * If a file is not present and cannot be produced, a 404 not found response is returned.
+ * If a file is not present and its production takes too long, a 503 service unavailable response is returned.
+ * Present files are delivered with support for conditional and range requests.
+ *
+ * <p>
+ * The deliveries are timed as "mediaserver.requests", with result "hit" for present files, "miss" for
+ * produced files and "error" for failed requests, and written to the {@link AccessLog}. Both are recorded when
+ * the response is complete, after asynchronous writes have finished; files handed over to the container for
+ * sendfile are recorded with their length when handed over.
  */
 @Controller
 public class FileController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileController.class);
 
+    static final String REQUESTS_METER = "mediaserver.requests";
+    static final String RESULT_TAG = "result";
+    static final String RESULT_HIT = "hit";
+    static final String RESULT_MISS = "miss";
+    static final String RESULT_ERROR = "error";
+
+    @Autowired
+    private WorkCache workCache;
+
+    @Autowired
+    private IdentifierCache identifierCache;
+
+    @Autowired
+    private FileResponder fileResponder;
+
+    @Autowired
+    private FileSender fileSender;
+
+    @Autowired
+    private DerivativeProducer derivativeProducer;
+
+    @Autowired
+    private DerivativeCache derivativeCache;
+
+    @Autowired
+    private AccessLog accessLog;
+
     @Autowired
-    private WorkRepository workRepository;
+    private MasterResolver masterResolver;
 
+    @Autowired(required = false)
+    private CompiledPathPatternProcessor derivativePathPatternProcessor;
+
+    @Value("${fileserver.identifierPath:/identifiers}")
+    private String identifierPrefix;
+
+    @Value("${fileserver.conversion.retryAfter:10}")
+    private int retryAfter;
 
     /**
      * Controller method mapped to a path with a workId.
      *
      * <p>
-     * Delivers a file if present. If not present, the file is produced from a master file using the
-     * information in the METS-file of the work.
+     * Delivers a file if present. If not present, the file is produced from a master file, found by the
+     * {@link MasterResolver} in the index compiled from the METS-file of the work.
      *
      * @param workId the id of the work read from the path
      * @param request the http request
      * @param response the http response
      * @throws HttpForbiddenException if disabling is configured and the work is disabled
      * @throws HttpNotFoundException if the file is not found and couldn't be produced
+     * @throws HttpServiceUnavailableException if the file is not found and couldn't be produced in time
      */
     @GetMapping(value = "${fileserver.filePathPattern}")
     public void getFile(
             @PathVariable("workId") String workId,
             HttpServletRequest request,
             HttpServletResponse response)
-            throws HttpForbiddenException, HttpNotFoundException {
+            throws HttpForbiddenException, HttpNotFoundException, HttpServiceUnavailableException {
+
+        String completePath = (String) request.getAttribute(
+                HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
+
+        String derivativePath = StringUtils.substringAfter(completePath, workId);
+
+        getFile(workId, completePath, derivativePath, request, response);
+    }
+
+    /**
+     * Delivers a file of a work, producing it if necessary.
+     *
+     * @param workId the id of the work
+     * @param completePath the requested path, for logging
+     * @param derivativePath the path of the file relative to the work directory
+     * @param request the http request
+     * @param response the http response
+     * @throws HttpForbiddenException if disabling is configured and the work is disabled
+     * @throws HttpNotFoundException if the file is not found and couldn't be produced
+     * @throws HttpServiceUnavailableException if the file is not found and couldn't be produced in time
+     */
+    private void getFile(String workId, String completePath, String derivativePath,
+                         HttpServletRequest request, HttpServletResponse response)
+            throws HttpForbiddenException, HttpNotFoundException, HttpServiceUnavailableException {
+
+        getFile(getWork(workId), completePath, derivativePath, () -> resolveParameter(derivativePath),
+                request, response);
+    }
+
+    /**
+     * Delivers a file of a work, producing it with additional parameter for the converter if necessary.
+     *
+     * @param work the work
+     * @param completePath the requested path, for logging
+     * @param derivativePath the path of the file relative to the work directory
+     * @param parameter supplies the parameter for the converter, only called if the file has to be produced
+     * @param request the http request
+     * @param response the http response
+     * @throws HttpNotFoundException if the file is not found and couldn't be produced
+     * @throws HttpServiceUnavailableException if the file is not found and couldn't be produced in time
+     */
+    public void getFile(WorkInfo work, String completePath, String derivativePath,
+                        Supplier<Map<String, String>> parameter,
+                        HttpServletRequest request, HttpServletResponse response)
+            throws HttpNotFoundException, HttpServiceUnavailableException {
+
+        timed(work.getId(), completePath, () -> deliverOrProduce(work, completePath, derivativePath, parameter, request,
+                response), request, response);
+    }
+
+    /**
+     * Delivers a file of a work which is produced for this request only, without storing it.
+     *
+     * @param work the work
+     * @param completePath the requested path, for logging
+     * @param derivativePath the path the file would have relative to the work directory, for its media type
+     * @param parameter the parameter for the converter, including the master
+     * @param request the http request
+     * @param response the http response
+     * @throws HttpNotFoundException if the file couldn't be produced
+     * @throws HttpServiceUnavailableException if the file couldn't be produced in time
+     */
+    public void getTransientFile(WorkInfo work, String completePath, String derivativePath,
+                                 Map<String, String> parameter,
+                                 HttpServletRequest request, HttpServletResponse response)
+            throws HttpNotFoundException, HttpServiceUnavailableException {
+
+        timed(work.getId(), completePath, () -> produceTransient(work, completePath, derivativePath, parameter, request,
+                response), request, response);
+    }
+
+    /**
+     * Controller method mapped to a path with a persistent identifier of a work, i.e. a URN or DOI.
+     *
+     * <p>
+     * As DOIs may contain slashes, the longest leading part of the path which is a known identifier is used.
+     * Otherwise the file is delivered like by {@link #getFile(String, HttpServletRequest, HttpServletResponse)}.
+     *
+     * @param request the http request
+     * @param response the http response
+     * @throws HttpForbiddenException if disabling is configured and the work is disabled
+     * @throws HttpNotFoundException if the identifier is unknown or the file is not found and couldn't be produced
+     * @throws HttpServiceUnavailableException if the file is not found and couldn't be produced in time
+     */
+    @GetMapping(value = "${fileserver.identifierPath:/identifiers}/**")
+    public void getFileByIdentifier(HttpServletRequest request, HttpServletResponse response)
+            throws HttpForbiddenException, HttpNotFoundException, HttpServiceUnavailableException {
+
+        String completePath = (String) request.getAttribute(
+                HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
+
+        String identifierPath = StringUtils.substringAfter(completePath, identifierPrefix + "/");
+
+        int end = identifierPath.length();
+        while (end > 0) {
+            String workId = identifierCache.resolve(identifierPath.substring(0, end));
+            if (workId != null) {
+                getFile(workId, completePath, identifierPath.substring(end), request, response);
+                return;
+            }
+            end = identifierPath.lastIndexOf('/', end - 1);
+        }
 
-        Work work;
-        Optional<Work> optionalWork = workRepository.findById(workId);
+        String message = "No work with an identifier in " + completePath + " found";
+        LOGGER.info(message);
+        throw new HttpNotFoundException(message);
+    }
 
-        if (!optionalWork.isPresent()) {
+    /**
+     * Resolves the path of a derivative to parameter for the converter, by the configured pattern.
+     *
+     * @param derivativePath the path of the file relative to the work directory
+     * @return the values of the variables in the pattern, or an empty map if the path doesn't match
+     */
+    private Map<String, String> resolveParameter(String derivativePath) {
+        if (derivativePathPatternProcessor == null || !derivativePathPatternProcessor.matches(derivativePath)) {
+            return Collections.emptyMap();
+        }
+        return derivativePathPatternProcessor.resolve(derivativePath);
+    }
+
+    /**
+     * Gets a work for delivering its files.
+     *
+     * @param workId the id of the work
+     * @return the work
+     * @throws HttpForbiddenException if disabling is configured and the work is disabled
+     * @throws HttpNotFoundException if the work is not found
+     */
+    public WorkInfo getWork(String workId) throws HttpForbiddenException, HttpNotFoundException {
+
+        WorkInfo work = workCache.get(workId);
+
+        if (work == null) {
             String message = "Work with id " + workId + " not found";
             LOGGER.info(message);
             throw new HttpNotFoundException(message);
 
         } else {
-            work = optionalWork.get();
             if (!work.isEnabled()) {
                 String message = "Work with id " + workId + " is disabled";
                 LOGGER.info(message);
                 throw new HttpForbiddenException(message);
             }
         }
-        String completePath = (String) request.getAttribute(
-                HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
+        return work;
+    }
 
-        String derivativePath = StringUtils.substringAfter(completePath, workId);
+    /**
+     * Times a delivery and writes it to the access log, when the response is complete.
+     *
+     * <p>
+     * Asynchronous writes are finished then, files sent with sendfile are only handed over to the container.
+     *
+     * @param workId the id of the work
+     * @param completePath the requested path, for logging
+     * @param delivery delivers the file and returns the result for the metrics
+     * @param request the http request
+     * @param response the http response
+     */
+    void timed(String workId, String completePath, Supplier<String> delivery,
+               HttpServletRequest request, HttpServletResponse response) {
+
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        String result = RESULT_ERROR;
+        int status = 0;
+        try {
+            result = delivery.get();
+        } catch (RuntimeException e) {
+            status = AccessLog.getStatus(e);
+            throw e;
+        } finally {
+            String timedResult = result;
+            int timedStatus = status;
+            fileSender.whenComplete(request, () -> {
+                long duration = sample.stop(Metrics.timer(REQUESTS_METER, RESULT_TAG, timedResult));
+                accessLog.log(workId, completePath, timedResult, timedStatus != 0 ? timedStatus : response.getStatus(),
+                        FileSender.getDeliveredBytes(request), duration);
+            });
+        }
+    }
+
+    /**
+     * Delivers a file of a work, producing it if necessary.
+     *
+     * @return the result for the metrics, "hit" or "miss"
+     */
+    private String deliverOrProduce(WorkInfo work, String completePath, String derivativePath,
+                                    Supplier<Map<String, String>> parameter,
+                                    HttpServletRequest request, HttpServletResponse response)
+            throws HttpNotFoundException, HttpServiceUnavailableException {
 
         File derivative = new File(work.getPath(), derivativePath);
         if (derivative.exists() && derivative.isFile()) {
-            try {
-                InputStream inputStream = new FileInputStream(derivative);
-                //response.setContentType(); TODO
-                IOUtils.copy(inputStream, response.getOutputStream());
-                inputStream.close();
-                response.getOutputStream().close();
-
-                String message = "Delivered already present file " + completePath + " from location "
-                        + derivative.getAbsolutePath();
-                LOGGER.info(message);
+            deliver(derivative, request, response);
+            derivativeCache.touch(derivative);
+            return RESULT_HIT;
+
+        } else if (derivativeProducer.isAvailable()) {
 
-            } catch (IOException e) {
-                LOGGER.error(e.toString(), e);
-                throw new HttpNotFoundException(e.toString());
+            Map<String, String> conversionParameter = new HashMap<>(parameter.get());
+            conversionParameter.put(ConvertAction.DERIVATIVE_PATH_PARAMETER, derivativePath);
+            if (!conversionParameter.containsKey(ConvertAction.MASTER_PARAMETER)) {
+                // resolved here, as the work is known, so no conversion is queued without a master
+                URI master = masterResolver.resolve(work, conversionParameter);
+                if (master == null) {
+                    String message = "No master of the requested file " + completePath + " found";
+                    LOGGER.info(message);
+                    throw new HttpNotFoundException(message);
+                }
+                conversionParameter.put(ConvertAction.MASTER_PARAMETER, master.toString());
             }
+            DerivativeInProgress production = produce(work, completePath, conversionParameter, derivative, true,
+                    response);
+
+            if (production.isDone()) {
+                deliver(derivative, request, response);
+            } else {
+                respond(production, request, response);
+            }
+            return RESULT_MISS;
+
         } else {
 
-            // TODO call conversion handler to produce the file
+            LOGGER.debug("The requested file " + completePath + " allegedly located at "
+                    + derivative.getAbsolutePath() + " does not exist.");
+            throw new HttpNotFoundException("");
+        }
+    }
 
-            String message = "The requested file " + completePath + " allegedly located at "
-                    + derivative.getAbsolutePath() + " does not exist.";
-            LOGGER.info(message);
+    /**
+     * Delivers a file of a work which is produced without storing it.
+     *
+     * @return the result for the metrics, "miss"
+     */
+    private String produceTransient(WorkInfo work, String completePath, String derivativePath,
+                                    Map<String, String> parameter,
+                                    HttpServletRequest request, HttpServletResponse response)
+            throws HttpNotFoundException, HttpServiceUnavailableException {
+
+        if (!derivativeProducer.isAvailable()) {
+            LOGGER.debug("The requested file " + completePath + " can't be produced without converter.");
             throw new HttpNotFoundException("");
         }
+        Map<String, String> conversionParameter = new HashMap<>(parameter);
+        conversionParameter.put(ConvertAction.DERIVATIVE_PATH_PARAMETER, derivativePath);
+        DerivativeInProgress production = produce(work, completePath, conversionParameter,
+                new File(work.getPath(), derivativePath), false, response);
+        try {
+            respond(production, request, response);
+        } finally {
+            production.release();
+        }
+        return RESULT_MISS;
+    }
+
+    /**
+     * Produces a derivative or joins its production, and waits until the first data is written.
+     *
+     * @param stored if the derivative is stored, otherwise it is produced for this request only
+     * @return the derivative in progress
+     */
+    private DerivativeInProgress produce(WorkInfo work, String completePath, Map<String, String> parameter,
+                                         File derivative, boolean stored, HttpServletResponse response)
+            throws HttpNotFoundException, HttpServiceUnavailableException {
+        try {
+            return stored
+                    ? derivativeProducer.produce(work.getId(), parameter, derivative)
+                    : derivativeProducer.produceTransient(work.getId(), parameter, derivative);
+        } catch (TimeoutException e) {
+            String message = "The requested file " + completePath + " could not be produced in time";
+            LOGGER.info(message);
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+            throw new HttpServiceUnavailableException(message);
+        } catch (ExecutionException e) {
+            String message = "The requested file " + completePath + " could not be produced";
+            LOGGER.info(message);
+            throw new HttpNotFoundException(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpServiceUnavailableException(e);
+        }
+    }
+
+    /**
+     * Delivers a derivative while it is produced.
+     */
+    private void respond(DerivativeInProgress production, HttpServletRequest request, HttpServletResponse response)
+            throws HttpNotFoundException, HttpServiceUnavailableException {
+        try {
+            fileResponder.respond(production, request, response);
+        } catch (IOException e) {
+            // the response is already committed, the client sees an aborted transfer
+            LOGGER.error(e.toString(), e);
+            throw new HttpNotFoundException(e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpServiceUnavailableException(e);
+        }
+    }
+
+    /**
+     * Delivers a present file.
+     *
+     * @param file the file
+     * @param request the http request
+     * @param response the http response
+     * @throws HttpNotFoundException if the file couldn't be read
+     */
+    private void deliver(File file, HttpServletRequest request, HttpServletResponse response)
+            throws HttpNotFoundException {
+        try {
+            fileResponder.respond(file, request, response);
+        } catch (IOException e) {
+            LOGGER.error(e.toString(), e);
+            throw new HttpNotFoundException(e.toString());
+        }
     }
 }
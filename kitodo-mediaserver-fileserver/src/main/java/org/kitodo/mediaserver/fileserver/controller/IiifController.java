@@ -0,0 +1,410 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.controller;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.kitodo.mediaserver.core.conversion.ConvertAction;
+import org.kitodo.mediaserver.core.conversion.IiifPathPatternProcessor;
+import org.kitodo.mediaserver.core.conversion.ImageIOConverter;
+import org.kitodo.mediaserver.core.conversion.MasterResolver;
+import org.kitodo.mediaserver.core.conversion.Pyramid;
+import org.kitodo.mediaserver.core.exceptions.HttpBadRequestException;
+import org.kitodo.mediaserver.core.exceptions.HttpForbiddenException;
+import org.kitodo.mediaserver.core.exceptions.HttpNotFoundException;
+import org.kitodo.mediaserver.core.exceptions.HttpServiceUnavailableException;
+import org.kitodo.mediaserver.core.models.WorkInfo;
+import org.kitodo.mediaserver.fileserver.util.FileResponder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+/**
+ * A controller implementing the IIIF Image API 2.1 for the masters of works.
+ *
+ * <p>
+ * The identifier of an image is "{workId}/{name}", where name is the file name of a master without extension.
+ * The image request parameters are resolved by the {@link IiifPathPatternProcessor}.
+ * The tiles announced in info.json are aligned to a fixed grid, so viewers request the same tiles again.
+ * If a {@link Pyramid} of the master was built, these tiles are read from it by position, without decoding.
+ * Otherwise they are stored as derivatives at the canonical path composed by the processor, so repeated and
+ * equivalent requests are delivered like present files by the {@link FileController}.
+ * Any other image is produced for its request only, as storing every region and size would fill the disk.
+ * The size of the images is limited by the announced maxWidth, maxHeight and maxArea.
+ * They are timed like files delivered by the {@link FileController}, with result "tile".
+ */
+@RestController
+public class IiifController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IiifController.class);
+
+    private static final String CONTEXT = "http://iiif.io/api/image/2/context.json";
+    private static final String PROTOCOL = "http://iiif.io/api/image";
+    private static final String PROFILE = "http://iiif.io/api/image/2/level2.json";
+
+    private static final Pattern IMAGE_NAME = Pattern.compile("[\\w-]+");
+
+    private static final String RESULT_TILE = "tile";
+
+    @Autowired
+    private FileController fileController;
+
+    @Autowired
+    private IiifPathPatternProcessor iiifPathPatternProcessor;
+
+    @Autowired
+    private FileResponder fileResponder;
+
+    @Autowired
+    private MasterResolver masterResolver;
+
+    @Value("${fileserver.iiif.path:/iiif}")
+    private String iiifPath;
+
+    @Value("${fileserver.iiif.derivativePath:derivatives/iiif}")
+    private String derivativePath;
+
+    @Value("${fileserver.iiif.tileSize:512}")
+    private int tileSize;
+
+    @Value("${fileserver.iiif.maxWidth:10000}")
+    private int maxWidth;
+
+    @Value("${fileserver.iiif.maxHeight:10000}")
+    private int maxHeight;
+
+    @Value("${fileserver.iiif.maxArea:40000000}")
+    private long maxArea;
+
+    @Value("${pyramid.path:pyramids}")
+    private String pyramidPath;
+
+    // keyed by path and modification time, so rebuilt pyramids are read again
+    private final Cache<String, Pyramid> pyramids = CaffeineCacheMetrics.monitor(Metrics.globalRegistry,
+            Caffeine.newBuilder().maximumSize(1000).recordStats().<String, Pyramid>build(), "pyramids");
+
+    /**
+     * Redirects the base URI of an image to its information.
+     *
+     * @param workId the id of the work
+     * @param name the name of the master
+     * @return a 303 see other response
+     */
+    @GetMapping("${fileserver.iiif.path:/iiif}/{workId}/{name}")
+    public ResponseEntity<Void> redirect(@PathVariable("workId") String workId, @PathVariable("name") String name) {
+        return ResponseEntity.status(HttpStatus.SEE_OTHER)
+                .location(ServletUriComponentsBuilder.fromCurrentRequest().path("/info.json").build().toUri())
+                .build();
+    }
+
+    /**
+     * Gets the image information with size and tiles of a master.
+     *
+     * @param workId the id of the work
+     * @param name the name of the master
+     * @param request the http request
+     * @param response the http response
+     * @return the image information, i.e. info.json
+     * @throws HttpForbiddenException if disabling is configured and the work is disabled
+     * @throws HttpNotFoundException if the work or the master is not found
+     */
+    @GetMapping(value = "${fileserver.iiif.path:/iiif}/{workId}/{name}/info.json",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> getInfo(@PathVariable("workId") String workId, @PathVariable("name") String name,
+                                       HttpServletRequest request, HttpServletResponse response)
+            throws HttpForbiddenException, HttpNotFoundException {
+
+        WorkInfo work = fileController.getWork(workId);
+        Pyramid pyramid = getPyramid(work, name);
+        Dimension size;
+        if (pyramid != null) {
+            size = new Dimension(pyramid.getWidth(), pyramid.getHeight());
+        } else {
+            size = readSize(findMaster(work, name));
+        }
+
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("@context", CONTEXT);
+        info.put("@id", ServletUriComponentsBuilder.fromContextPath(request)
+                .path(iiifPath).pathSegment(workId, name).build().toUriString());
+        info.put("protocol", PROTOCOL);
+        info.put("width", size.width);
+        info.put("height", size.height);
+
+        Map<String, Object> features = new LinkedHashMap<>();
+        features.put("formats", Arrays.asList("png", "tif", "gif"));
+        features.put("qualities", Arrays.asList("color", "gray", "bitonal"));
+        features.put("maxWidth", maxWidth);
+        features.put("maxHeight", maxHeight);
+        features.put("maxArea", maxArea);
+        features.put("supports", Arrays.asList("mirroring", "regionSquare", "sizeAboveFull"));
+        info.put("profile", Arrays.asList(PROFILE, features));
+
+        // the tiles of a pyramid are delivered without conversion
+        Map<String, Object> tiles = new LinkedHashMap<>();
+        tiles.put("width", pyramid != null ? pyramid.getTileSize() : tileSize);
+        tiles.put("scaleFactors", pyramid != null ? pyramid.getScaleFactors() : Pyramid.getScaleFactors(size, tileSize));
+        info.put("tiles", Collections.singletonList(tiles));
+
+        response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+        return info;
+    }
+
+    /**
+     * Delivers an image, producing it from the master if necessary.
+     *
+     * @param workId the id of the work
+     * @param name the name of the master
+     * @param region the region of the master
+     * @param size the size of the image
+     * @param rotation the rotation and mirroring
+     * @param quality the color quality
+     * @param format the image format
+     * @param request the http request
+     * @param response the http response
+     * @throws HttpBadRequestException if the parameters are invalid or not supported, or the image is too large
+     * @throws HttpForbiddenException if disabling is configured and the work is disabled
+     * @throws HttpNotFoundException if the work or the master is not found, or the image couldn't be produced
+     * @throws HttpServiceUnavailableException if the image couldn't be produced in time
+     */
+    @GetMapping("${fileserver.iiif.path:/iiif}/{workId}/{name}/{region}/{size}/{rotation}/{quality}.{format}")
+    public void getImage(@PathVariable("workId") String workId, @PathVariable("name") String name,
+                         @PathVariable("region") String region, @PathVariable("size") String size,
+                         @PathVariable("rotation") String rotation, @PathVariable("quality") String quality,
+                         @PathVariable("format") String format,
+                         HttpServletRequest request, HttpServletResponse response)
+            throws HttpBadRequestException, HttpForbiddenException, HttpNotFoundException,
+            HttpServiceUnavailableException {
+
+        String imageRequest = region + "/" + size + "/" + rotation + "/" + quality + "." + format;
+        Map<String, String> parameter;
+        try {
+            parameter = iiifPathPatternProcessor.resolve(imageRequest);
+        } catch (IllegalArgumentException e) {
+            LOGGER.info("Invalid image request " + imageRequest + ": " + e.getMessage());
+            throw new HttpBadRequestException(e.getMessage());
+        }
+        checkName(name);
+
+        WorkInfo work = fileController.getWork(workId);
+        response.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+
+        Pyramid pyramid = getPyramid(work, name);
+        int tile = pyramid != null ? pyramid.findTile(parameter) : -1;
+        String completePath = workId + "/" + name + "/" + imageRequest;
+        if (tile >= 0) {
+            File pyramidFile = getPyramidFile(work, name);
+            long start = pyramid.getOffset(tile);
+            fileController.timed(workId, completePath, () -> {
+                try {
+                    fileResponder.respond(pyramidFile, start, start + pyramid.getLength(tile), MediaType.IMAGE_JPEG,
+                            request, response);
+                } catch (IOException e) {
+                    LOGGER.error(e.toString(), e);
+                    throw new HttpNotFoundException(e.toString());
+                }
+                return RESULT_TILE;
+            }, request, response);
+            return;
+        }
+
+        String path = derivativePath + "/" + name + "/" + iiifPathPatternProcessor.compose(parameter);
+        if (new File(work.getPath(), path).isFile()) {
+            // a stored tile, the master is only read if it is deleted meanwhile
+            fileController.getFile(work, completePath, path, () -> {
+                URI master = findMaster(work, name);
+                return getConversionParameter(master, getSize(master, pyramid), size, parameter);
+            }, request, response);
+            return;
+        }
+
+        URI master = findMaster(work, name);
+        Dimension masterSize = getSize(master, pyramid);
+        Map<String, String> conversionParameter = getConversionParameter(master, masterSize, size, parameter);
+        if (isTile(parameter, masterSize)) {
+            fileController.getFile(work, completePath, path, () -> conversionParameter, request, response);
+        } else {
+            fileController.getTransientFile(work, completePath, path, conversionParameter, request, response);
+        }
+    }
+
+    /**
+     * Gets the parameter for the converter producing an image, with its master and within the size limits.
+     *
+     * @param master the master
+     * @param masterSize the width and height of the master
+     * @param size the size of the image request, "max" is reduced to the limits
+     * @param parameter the resolved image request
+     * @return the parameter for the converter
+     * @throws HttpBadRequestException if the parameters are invalid or the image exceeds the limits
+     */
+    private Map<String, String> getConversionParameter(URI master, Dimension masterSize, String size,
+                                                       Map<String, String> parameter) throws HttpBadRequestException {
+        Dimension imageSize;
+        try {
+            imageSize = ImageIOConverter.getSize(parameter, masterSize);
+        } catch (IllegalArgumentException e) {
+            LOGGER.info("Invalid image request for " + master + ": " + e.getMessage());
+            throw new HttpBadRequestException(e.getMessage());
+        }
+
+        Map<String, String> conversionParameter = new HashMap<>(parameter);
+        if (!isWithinLimits(imageSize)) {
+            if (!size.endsWith("max")) {
+                String message = "The size " + imageSize.width + "x" + imageSize.height + " exceeds the maximum of "
+                        + maxWidth + "x" + maxHeight + " and " + maxArea + " pixels";
+                LOGGER.info(message);
+                throw new HttpBadRequestException(message);
+            }
+            // "max" is the largest size within the limits, the width applies before the rotation
+            double scale = Math.min(Math.min((double) maxWidth / imageSize.width,
+                    (double) maxHeight / imageSize.height),
+                    Math.sqrt((double) maxArea / ((long) imageSize.width * imageSize.height)));
+            boolean rotated = Integer.parseInt(parameter.getOrDefault(ImageIOConverter.ROTATION_PARAMETER, "0"))
+                    % 180 != 0;
+            int width = Math.max(1, (int) Math.round((rotated ? imageSize.height : imageSize.width) * scale));
+            conversionParameter.put(ImageIOConverter.WIDTH_PARAMETER, String.valueOf(width));
+            // the rounded height may exceed the limits by a pixel
+            while (width > 1 && !isWithinLimits(ImageIOConverter.getSize(conversionParameter, masterSize))) {
+                width--;
+                conversionParameter.put(ImageIOConverter.WIDTH_PARAMETER, String.valueOf(width));
+            }
+        }
+        conversionParameter.put(ConvertAction.MASTER_PARAMETER, master.toString());
+        return conversionParameter;
+    }
+
+    private boolean isWithinLimits(Dimension size) {
+        return size.width <= maxWidth && size.height <= maxHeight && (long) size.width * size.height <= maxArea;
+    }
+
+    /**
+     * Checks if an image request is for a tile announced in info.json, in any format and quality.
+     *
+     * @param parameter the resolved image request
+     * @param masterSize the width and height of the master
+     * @return true, if the image is worth storing
+     */
+    private boolean isTile(Map<String, String> parameter, Dimension masterSize) {
+        if (parameter.containsKey(ImageIOConverter.HEIGHT_PARAMETER)
+                || parameter.containsKey(ImageIOConverter.SIZE_PARAMETER)
+                || parameter.containsKey(ImageIOConverter.SCALE_PARAMETER)) {
+            return false;
+        }
+        return new Pyramid(tileSize, masterSize.width, masterSize.height).findTile(
+                parameter.get(ImageIOConverter.REGION_PARAMETER), parameter.get(ImageIOConverter.WIDTH_PARAMETER)) >= 0;
+    }
+
+    /**
+     * Gets the size of a master, from its pyramid if it was built.
+     */
+    private Dimension getSize(URI master, Pyramid pyramid) throws HttpNotFoundException {
+        return pyramid != null ? new Dimension(pyramid.getWidth(), pyramid.getHeight()) : readSize(master);
+    }
+
+    /**
+     * Reads the size of a master from its header.
+     */
+    private Dimension readSize(URI master) throws HttpNotFoundException {
+        try {
+            return ImageIOConverter.readSize(master);
+        } catch (IOException e) {
+            LOGGER.error("Could not read size of master " + master + ": " + e, e);
+            throw new HttpNotFoundException(e.toString());
+        }
+    }
+
+    /**
+     * Gets the pyramid of a master, if it was built.
+     *
+     * @param work the work
+     * @param name the name of the master
+     * @return the pyramid, or null if there is none or it is unreadable
+     */
+    private Pyramid getPyramid(WorkInfo work, String name) throws HttpNotFoundException {
+        File pyramidFile = getPyramidFile(work, name);
+        long lastModified = pyramidFile.lastModified();
+        if (lastModified == 0) {
+            return null;
+        }
+        String key = pyramidFile.getAbsolutePath() + ":" + lastModified;
+        try {
+            return pyramids.get(key, ignored -> {
+                try {
+                    return Pyramid.read(pyramidFile.toPath());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            LOGGER.warn("Could not read pyramid " + pyramidFile.getAbsolutePath() + ": " + e.getCause());
+            return null;
+        }
+    }
+
+    private File getPyramidFile(WorkInfo work, String name) throws HttpNotFoundException {
+        checkName(name);
+        return new File(work.getPath(), pyramidPath + "/" + name + Pyramid.EXTENSION);
+    }
+
+    /**
+     * Finds the master of an image.
+     *
+     * @param work the work
+     * @param name the file name of the master without extension
+     * @return the master
+     * @throws HttpNotFoundException if there is no such master
+     */
+    private URI findMaster(WorkInfo work, String name) throws HttpNotFoundException {
+        checkName(name);
+        URI master = masterResolver.resolve(work, name);
+        if (master == null) {
+            String message = "Master " + name + " of work " + work.getId() + " not found";
+            LOGGER.info(message);
+            throw new HttpNotFoundException(message);
+        }
+        return master;
+    }
+
+    private void checkName(String name) throws HttpNotFoundException {
+        // names are used in file paths and patterns
+        if (!IMAGE_NAME.matcher(name).matches()) {
+            String message = "Invalid image name " + name;
+            LOGGER.info(message);
+            throw new HttpNotFoundException(message);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.conversion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A derivative which is being written by a conversion.
+ *
+ * <p>
+ * The conversion writes into a temporary file next to the derivative, which is moved to the derivative
+ * location when the conversion is finished. Any number of requests can read the file while it is written:
+ * they follow the written data like "tail -f" and stop when the conversion is finished.
+ * So the data is written to disk once and sent to all clients from the page cache.
+ * The temporary file and missing directories are only created when the conversion writes its first data,
+ * and the directories are removed again if the conversion fails, so failing requests leave no traces.
+ *
+ * <p>
+ * A derivative which is not stored is written to a temporary file in the temporary directory, which is
+ * deleted when it is released by its only request.
+ */
+public class DerivativeInProgress {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DerivativeInProgress.class);
+
+    private final File derivative;
+    private final long timeoutMillis;
+    private final boolean stored;
+
+    private Path temp;
+    private List<Path> createdDirectories = new ArrayList<>();
+    private long written;
+    private boolean moved;
+    private boolean done;
+    private boolean released;
+    private Throwable failure;
+
+    /**
+     * Constructs a DerivativeInProgress object.
+     *
+     * @param derivative the final location of the derivative
+     * @param timeout the time in seconds readers wait for new data before giving up
+     */
+    DerivativeInProgress(File derivative, long timeout) {
+        this(derivative, timeout, true);
+    }
+
+    /**
+     * Constructs a DerivativeInProgress object, which may not be stored.
+     *
+     * @param derivative the final location of the derivative, only used for its name if it is not stored
+     * @param timeout the time in seconds readers wait for new data before giving up
+     * @param stored if the derivative is moved to its final location when it is complete
+     */
+    DerivativeInProgress(File derivative, long timeout, boolean stored) {
+        this.derivative = derivative;
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeout);
+        this.stored = stored;
+    }
+
+    /**
+     * Gets the final location of the derivative.
+     *
+     * @return the derivative file
+     */
+    public File getFile() {
+        return derivative;
+    }
+
+    /**
+     * Checks if the derivative is moved to its final location when it is complete.
+     *
+     * @return true, if the derivative is stored
+     */
+    public boolean isStored() {
+        return stored;
+    }
+
+    /**
+     * Checks if the derivative is completely written and, if it is stored, moved to its final location.
+     *
+     * @return true, if the derivative is complete
+     */
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waits until the first data is written or the conversion is finished.
+     *
+     * @param timeout the maximum time to wait in seconds
+     * @throws TimeoutException if no data was written in time
+     * @throws ExecutionException if the conversion failed
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public synchronized void awaitData(long timeout) throws TimeoutException, ExecutionException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        while (written == 0 && !done && failure == null) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException("No data of " + derivative.getAbsolutePath() + " was written in time");
+            }
+            wait(remaining);
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+    }
+
+    /**
+     * Writes the derivative to a stream, following the data while it is written.
+     *
+     * @param outputStream the stream to write to
+     * @return the number of written bytes
+     * @throws IOException if the conversion failed or stalled, or the stream could not be written
+     * @throws InterruptedException if the writing thread was interrupted
+     */
+    public long transferTo(OutputStream outputStream) throws IOException, InterruptedException {
+        try (FileChannel channel = openChannel()) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = 0;
+            while (true) {
+                long available;
+                boolean finished;
+                synchronized (this) {
+                    long idleSince = System.currentTimeMillis();
+                    while (written == position && !done && failure == null) {
+                        long remaining = idleSince + timeoutMillis - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new IOException("Conversion of " + derivative.getAbsolutePath() + " stalled");
+                        }
+                        wait(remaining);
+                    }
+                    if (failure != null) {
+                        throw new IOException("Conversion of " + derivative.getAbsolutePath() + " failed", failure);
+                    }
+                    available = written;
+                    finished = done;
+                }
+                while (position < available) {
+                    position += channel.transferTo(position, available - position, target);
+                }
+                outputStream.flush();
+                if (finished) {
+                    return position;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the file for reading, the temporary one as long as it is not moved.
+     */
+    private synchronized FileChannel openChannel() throws IOException {
+        Path path = moved ? derivative.toPath() : temp;
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * Gets a stream to write the derivative to, which creates the temporary file when it is first written to.
+     *
+     * @return a stream which makes written data available to readers, it is not buffered
+     */
+    OutputStream start() {
+        return new OutputStream() {
+
+            private OutputStream out;
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                open().write(bytes, offset, length);
+                published(length);
+            }
+
+            @Override
+            public void write(int oneByte) throws IOException {
+                open().write(oneByte);
+                published(1);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (out != null) {
+                    out.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                // an empty derivative is a file as well
+                open().close();
+            }
+
+            private OutputStream open() throws IOException {
+                if (out == null) {
+                    out = Files.newOutputStream(createTemp());
+                }
+                return out;
+            }
+        };
+    }
+
+    /**
+     * Creates the temporary file, and the missing directories of the derivative if it is stored.
+     */
+    private Path createTemp() throws IOException {
+        Path path;
+        if (stored) {
+            Path directory = derivative.toPath().getParent();
+            List<Path> missing = new ArrayList<>();
+            for (Path parent = directory; parent != null && !Files.isDirectory(parent); parent = parent.getParent()) {
+                missing.add(parent);
+            }
+            synchronized (this) {
+                createdDirectories = missing;
+            }
+            Files.createDirectories(directory);
+            path = Files.createTempFile(directory, "." + derivative.getName(), ".tmp");
+        } else {
+            path = Files.createTempFile("mediaserver-", "-" + derivative.getName());
+        }
+        synchronized (this) {
+            if (released) {
+                Files.delete(path);
+                throw new IOException("The derivative " + derivative.getName() + " is no longer requested");
+            }
+            temp = path;
+        }
+        return path;
+    }
+
+    private synchronized void published(long length) throws IOException {
+        if (released) {
+            // aborts the conversion
+            throw new IOException("The derivative " + derivative.getName() + " is no longer requested");
+        }
+        written += length;
+        notifyAll();
+    }
+
+    /**
+     * Moves the completely written temporary file to the derivative location and notifies all readers.
+     *
+     * @throws IOException if the file could not be moved
+     */
+    synchronized void complete() throws IOException {
+        if (!stored) {
+            // readers keep reading the temporary file until it is released
+            done = true;
+            notifyAll();
+            return;
+        }
+        if (temp != null) {
+            // readers which already opened the temporary file keep reading it
+            Files.move(temp, derivative.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            // the derivative was already present
+            written = derivative.length();
+        }
+        moved = true;
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * Removes the temporary file and the directories created for it, and notifies all readers about the failure.
+     *
+     * @param failure the cause of the failure
+     */
+    synchronized void fail(Throwable failure) {
+        this.failure = failure;
+        notifyAll();
+        if (temp != null) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        // the deepest first, a directory filled by another conversion meanwhile is kept with its parents
+        for (Path directory : createdDirectories) {
+            try {
+                Files.deleteIfExists(directory);
+            } catch (IOException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Releases a derivative which is not stored, when it is delivered or its request gave up.
+     *
+     * <p>
+     * The temporary file is deleted, and a conversion still running is aborted with its next write.
+     * Stored derivatives are not affected.
+     */
+    public synchronized void release() {
+        if (stored || released) {
+            return;
+        }
+        released = true;
+        if (temp != null) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete " + temp + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.conversion;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import org.kitodo.mediaserver.core.actions.PriorityScheduler;
+import org.kitodo.mediaserver.core.cache.DerivativeCache;
+import org.kitodo.mediaserver.core.conversion.ConvertAction;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Produces missing derivatives on request.
+ *
+ * <p>
+ * Conversions run as interactive tasks in the {@link PriorityScheduler}, before queued batch conversions.
+ * Concurrent requests for the same derivative are coalesced:
+ * only the first request starts a conversion, all requests read the derivative while it is written
+ * (see {@link DerivativeInProgress}).
+ * A request gives up if no data is produced in a configurable time, while the conversion goes on
+ * in the background, so a repeated request will find the produced file.
+ * Derivatives which are not worth storing are produced for a single request and deleted after delivery.
+ */
+@Component
+public class DerivativeProducer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DerivativeProducer.class);
+
+    public static final String ACTION_NAME = "convert";
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private ConvertAction convertAction;
+
+    @Autowired
+    private DerivativeCache derivativeCache;
+
+    @Autowired
+    private PriorityScheduler priorityScheduler;
+
+    @Value("${fileserver.conversion.timeout:30}")
+    private long timeout;
+
+    private final Map<String, DerivativeInProgress> inProgress = new ConcurrentHashMap<>();
+
+    /**
+     * Checks if derivatives can be produced at all.
+     *
+     * @return true, if a converter is configured
+     */
+    public boolean isAvailable() {
+        return convertAction.getConverter() != null;
+    }
+
+    /**
+     * Produces a derivative or joins its production, and waits until the first data is written.
+     *
+     * @param workId the id of the work
+     * @param derivativePath the path of the derivative relative to the work directory
+     * @param derivative the location of the derivative
+     * @return the derivative, either completely written or in progress
+     * @throws TimeoutException if the conversion produced no data in time or too many conversions are waiting
+     * @throws ExecutionException if the conversion failed
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public DerivativeInProgress produce(String workId, String derivativePath, File derivative)
+            throws TimeoutException, ExecutionException, InterruptedException {
+
+        return produce(workId, Collections.singletonMap(ConvertAction.DERIVATIVE_PATH_PARAMETER, derivativePath),
+                derivative);
+    }
+
+    /**
+     * Produces a derivative with explicit parameters for the converter or joins its production,
+     * and waits until the first data is written.
+     *
+     * @param workId the id of the work
+     * @param parameter the parameter of the convert action, including the path of the derivative
+     * @param derivative the location of the derivative
+     * @return the derivative, either completely written or in progress
+     * @throws TimeoutException if the conversion produced no data in time or too many conversions are waiting
+     * @throws ExecutionException if the conversion failed
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public DerivativeInProgress produce(String workId, Map<String, String> parameter, File derivative)
+            throws TimeoutException, ExecutionException, InterruptedException {
+
+        String key = derivative.getAbsolutePath();
+        DerivativeInProgress production = new DerivativeInProgress(derivative, timeout);
+        DerivativeInProgress existing = inProgress.putIfAbsent(key, production);
+
+        if (existing != null) {
+            LOGGER.debug("Joining conversion in progress of " + key);
+            production = existing;
+        } else {
+            try {
+                priorityScheduler.execute(new ConversionTask(workId, parameter, production),
+                        ActionControl.Priority.INTERACTIVE);
+            } catch (RejectedExecutionException e) {
+                inProgress.remove(key, production);
+                production.fail(e);
+                throw new TimeoutException("The conversion queue is full");
+            }
+        }
+
+        production.awaitData(timeout);
+        return production;
+    }
+
+    /**
+     * Produces a derivative for one request without storing it, and waits until the first data is written.
+     *
+     * <p>
+     * The production is not shared with other requests. The caller has to release it when it is delivered.
+     *
+     * @param workId the id of the work
+     * @param parameter the parameter of the convert action, including the path of the derivative
+     * @param derivative the location the derivative would have, for its name
+     * @return the derivative in progress
+     * @throws TimeoutException if the conversion produced no data in time or too many conversions are waiting
+     * @throws ExecutionException if the conversion failed
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    public DerivativeInProgress produceTransient(String workId, Map<String, String> parameter, File derivative)
+            throws TimeoutException, ExecutionException, InterruptedException {
+
+        DerivativeInProgress production = new DerivativeInProgress(derivative, timeout, false);
+        try {
+            priorityScheduler.execute(new ConversionTask(workId, parameter, production),
+                    ActionControl.Priority.INTERACTIVE);
+        } catch (RejectedExecutionException e) {
+            production.fail(e);
+            throw new TimeoutException("The conversion queue is full");
+        }
+
+        try {
+            production.awaitData(timeout);
+        } catch (TimeoutException | ExecutionException | InterruptedException e) {
+            production.release();
+            throw e;
+        }
+        return production;
+    }
+
+    /**
+     * Runs a conversion and publishes the result to all requests.
+     */
+    private class ConversionTask implements Runnable {
+
+        private final String workId;
+        private final Map<String, String> parameter;
+        private final DerivativeInProgress production;
+
+        ConversionTask(String workId, Map<String, String> parameter, DerivativeInProgress production) {
+            this.workId = workId;
+            this.parameter = parameter;
+            this.production = production;
+        }
+
+        @Override
+        public void run() {
+            File derivative = production.getFile();
+            try {
+                // another node or a request just before us may have produced the file meanwhile
+                if (!production.isStored() || !derivative.isFile()) {
+                    ActionControl actionControl = new ActionControl(workId, ACTION_NAME, parameter);
+
+                    try (OutputStream outputStream = new BufferedOutputStream(production.start(), WRITE_BUFFER_SIZE)) {
+                        convertAction.perform(actionControl, outputStream);
+                    }
+                    production.complete();
+                    if (production.isStored()) {
+                        derivativeCache.add(parameter.get(ConvertAction.DERIVATIVE_PATH_PARAMETER), derivative);
+                    }
+                } else {
+                    production.complete();
+                }
+            } catch (Exception e) {
+                LOGGER.error("Conversion of " + derivative.getAbsolutePath() + " failed: " + e, e);
+                production.fail(e);
+            } finally {
+                inProgress.remove(derivative.getAbsolutePath(), production);
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Asynchronous access log of the delivered files.
+ *
+ * <p>
+ * Request threads only fill a preallocated entry of a ring buffer. A background thread formats the entries
+ * as JSON lines and appends them in batches to the configured file, or passes them to the logger
+ * "org.kitodo.mediaserver.fileserver.access" if no file is configured. If the buffer is full, entries are
+ * dropped rather than delaying requests, and counted as "mediaserver.accesslog.dropped".
+ *
+ * <p>
+ * With a sample rate n, about every nth successful request is logged. Failed requests are always logged.
+ */
+@Component
+public class AccessLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessLog.class);
+
+    private static final Logger ACCESS_LOGGER = LoggerFactory.getLogger("org.kitodo.mediaserver.fileserver.access");
+
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    @Value("${fileserver.accessLog.enabled:true}")
+    private boolean enabled;
+
+    @Value("${fileserver.accessLog.file:}")
+    private String file;
+
+    @Value("${fileserver.accessLog.bufferSize:8192}")
+    private int bufferSize;
+
+    @Value("${fileserver.accessLog.sampleRate:1}")
+    private int sampleRate;
+
+    @Value("${fileserver.accessLog.flushInterval:200}")
+    private long flushInterval;
+
+    private final Counter dropped = Metrics.counter("mediaserver.accesslog.dropped");
+
+    private Entry[] entries;
+    private int mask;
+
+    // sequence of the next entry to fill, claimed by the request threads
+    private final AtomicLong claimed = new AtomicLong();
+
+    // sequence of the next entry to write, entries before it may be filled again
+    private volatile long written;
+
+    private volatile boolean running;
+    private Thread writer;
+    private FileChannel channel;
+    private final StringBuilder batch = new StringBuilder();
+
+    /**
+     * Opens the log file and starts the writer thread, if enabled.
+     *
+     * @throws IOException if the log file could not be opened
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        int capacity = Integer.highestOneBit(Math.max(bufferSize, 2) - 1) << 1;
+        entries = new Entry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new Entry();
+        }
+        mask = capacity - 1;
+
+        if (StringUtils.isNotBlank(file)) {
+            channel = FileChannel.open(Paths.get(file),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        running = true;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("access-log-");
+        threadFactory.setDaemon(true);
+        writer = threadFactory.newThread(this::write);
+        writer.start();
+    }
+
+    /**
+     * Stops the writer thread after writing the remaining entries and closes the log file.
+     *
+     * @throws InterruptedException if interrupted while waiting for the writer thread
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join();
+        writer = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close access log " + file + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Logs a request, without blocking.
+     *
+     * @param workId the id of the work
+     * @param path the requested path
+     * @param result the result, e.g. "hit" or "miss"
+     * @param status the http status of the response
+     * @param bytes the bytes of the response body written, or handed over to the container for sendfile
+     * @param duration the nanoseconds until the response was complete
+     */
+    public void log(String workId, String path, String result, int status, long bytes, long duration) {
+        if (!running || status < 400 && sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - written >= entries.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Entry entry = entries[(int) sequence & mask];
+        entry.time = System.currentTimeMillis();
+        entry.workId = workId;
+        entry.path = path;
+        entry.result = result;
+        entry.status = status;
+        entry.bytes = bytes;
+        entry.duration = duration;
+        // publishes the entry to the writer thread
+        entry.sequence = sequence;
+    }
+
+    /**
+     * Gets the http status of a failed request.
+     *
+     * @param exception the exception thrown by the request
+     * @return the status of its {@link ResponseStatus} annotation, or 500
+     */
+    public static int getStatus(Exception exception) {
+        ResponseStatus responseStatus = AnnotatedElementUtils.findMergedAnnotation(exception.getClass(),
+                ResponseStatus.class);
+        return responseStatus != null ? responseStatus.code().value() : 500;
+    }
+
+    private void write() {
+        while (running) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushInterval));
+            }
+        }
+        while (drain() > 0) {
+            // writes the entries logged before stopping
+        }
+    }
+
+    /**
+     * Writes a batch of published entries.
+     *
+     * @return the number of written entries
+     */
+    private int drain() {
+        batch.setLength(0);
+        long sequence = written;
+        int count = 0;
+        while (count < MAX_BATCH_SIZE) {
+            Entry entry = entries[(int) sequence & mask];
+            if (entry.sequence != sequence) {
+                break;
+            }
+            int start = batch.length();
+            format(entry, batch);
+            if (channel == null) {
+                ACCESS_LOGGER.info(batch.substring(start, batch.length() - 1));
+                batch.setLength(start);
+            }
+            entry.workId = null;
+            entry.path = null;
+            sequence++;
+            count++;
+        }
+        written = sequence;
+
+        if (channel != null && batch.length() > 0) {
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(batch.toString());
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                LOGGER.error("Could not write access log " + file + ": " + e);
+            }
+        }
+        return count;
+    }
+
+    private static void format(Entry entry, StringBuilder line) {
+        line.append("{\"time\":\"");
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(entry.time), line);
+        line.append("\",\"work\":");
+        appendString(entry.workId, line);
+        line.append(",\"path\":");
+        appendString(entry.path, line);
+        line.append(",\"result\":");
+        appendString(entry.result, line);
+        line.append(",\"status\":").append(entry.status)
+                .append(",\"bytes\":").append(entry.bytes)
+                .append(",\"ms\":").append(TimeUnit.NANOSECONDS.toMicros(entry.duration) / 1000.0)
+                .append("}\n");
+    }
+
+    private static void appendString(String value, StringBuilder line) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * A slot of the ring buffer, filled again after it was written.
+     */
+    private static class Entry {
+
+        // the sequence of the entry currently in this slot, set after the other fields
+        private volatile long sequence = -1;
+
+        private long time;
+        private String workId;
+        private String path;
+        private String result;
+        private int status;
+        private long bytes;
+        private long duration;
+    }
+}
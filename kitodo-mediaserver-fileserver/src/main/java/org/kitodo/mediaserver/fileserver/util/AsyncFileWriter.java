@@ -0,0 +1,148 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a part of a file to an asynchronous response with non-blocking I/O.
+ *
+ * <p>
+ * The container calls {@link #onWritePossible()} whenever the client can take more data, so no thread
+ * is held while a slow client is reading.
+ * The written bytes are reported when the file is closed, before the listeners registered later are told
+ * about the completion.
+ */
+class AsyncFileWriter implements WriteListener, AsyncListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncFileWriter.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private final ByteBuffer buffer;
+    private final LongConsumer written;
+
+    private AsyncContext asyncContext;
+    private ServletOutputStream outputStream;
+    private long position;
+    private boolean closed;
+
+    /**
+     * Opens the file to write.
+     *
+     * @param file the file to write
+     * @param start the position of the first byte to write
+     * @param end the position after the last byte to write
+     * @param written takes the number of written bytes when the file is closed
+     * @throws IOException if the file could not be opened
+     */
+    AsyncFileWriter(File file, long start, long end, LongConsumer written) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.start = start;
+        this.position = start;
+        this.end = end;
+        this.written = written;
+        this.buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(end - start, 1)));
+    }
+
+    /**
+     * Starts writing to the response of an asynchronous request.
+     *
+     * @param asyncContext the context of the asynchronous request
+     * @throws IOException if the response could not be written
+     */
+    void start(AsyncContext asyncContext) throws IOException {
+        this.asyncContext = asyncContext;
+        this.outputStream = asyncContext.getResponse().getOutputStream();
+        asyncContext.addListener(this);
+        outputStream.setWriteListener(this);
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while (outputStream.isReady()) {
+            if (position >= end) {
+                close();
+                asyncContext.complete();
+                return;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                throw new IOException("File " + file.getAbsolutePath() + " was truncated while sending");
+            }
+            outputStream.write(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        // mostly the client went away
+        LOGGER.debug("Sending " + file.getAbsolutePath() + " aborted: " + throwable);
+        close();
+        asyncContext.complete();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        close();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        LOGGER.info("Sending " + file.getAbsolutePath() + " timed out at position " + position);
+        close();
+        asyncContext.complete();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        close();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        // nothing to do
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        written.accept(position - start);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close " + file.getAbsolutePath() + ": " + e);
+        }
+    }
+}
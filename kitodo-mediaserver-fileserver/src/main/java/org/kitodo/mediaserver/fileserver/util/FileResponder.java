@@ -0,0 +1,265 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.kitodo.mediaserver.fileserver.conversion.DerivativeInProgress;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/**
+ * Answers a GET or HEAD request for a file.
+ *
+ * <p>
+ * Validators (ETag and Last-Modified) are computed from the file metadata only, so a conditional
+ * request for an unchanged file costs a stat call and is answered with 304 not modified.
+ * Byte range requests (RFC 7233) are answered with 206 partial content, multiple ranges as
+ * multipart/byteranges. Unsatisfiable ranges are answered with 416.
+ * Derivatives which are still being produced are sent completely and without validators, as their
+ * length and modification time are not known yet.
+ */
+@Component
+public class FileResponder {
+
+    private static final String BYTES_UNIT = "bytes";
+    private static final String CRLF = "\r\n";
+
+    @Autowired
+    private FileSender fileSender;
+
+    /**
+     * Writes status, headers and, if required, the body for the requested file.
+     *
+     * @param file the file to deliver, must exist
+     * @param request the http request
+     * @param response the http response
+     * @throws IOException if the file could not be read or the client is gone
+     */
+    public void respond(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String etag = getETag(length, lastModified);
+
+        // sets 304 or 412 if a precondition applies, adds ETag and Last-Modified otherwise
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+
+        MediaType mediaType = getMediaType(file);
+        response.setContentType(mediaType.toString());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !isIfRangeFulfilled(request, etag, lastModified)) {
+            fileSender.send(file, request, response);
+            return;
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            // a syntactically invalid range header is ignored
+            fileSender.send(file, request, response);
+            return;
+        }
+
+        List<long[]> satisfiableRanges = getSatisfiableRanges(ranges, length);
+        if (satisfiableRanges.isEmpty()) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + length);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (satisfiableRanges.size() == 1) {
+            long[] range = satisfiableRanges.get(0);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, getContentRange(range, length));
+            fileSender.send(file, range[0], range[1], request, response);
+        } else {
+            sendMultipleRanges(file, mediaType, satisfiableRanges, request, response);
+        }
+    }
+
+    /**
+     * Writes status, headers and, if required, the body for a part of a file, e.g. a tile of a pyramid.
+     *
+     * <p>
+     * The part is a complete representation of its own. Its validators are computed from the file metadata
+     * and the position of the part.
+     *
+     * @param file the file containing the part, must exist
+     * @param start the position of the first byte of the part
+     * @param end the position after the last byte of the part
+     * @param mediaType the media type of the part
+     * @param request the http request
+     * @param response the http response
+     * @throws IOException if the file could not be read or the client is gone
+     */
+    public void respond(File file, long start, long end, MediaType mediaType,
+                        HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        long lastModified = file.lastModified();
+        String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(start) + "-"
+                + Long.toHexString(end - start) + "\"";
+
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+
+        response.setContentType(mediaType.toString());
+        fileSender.send(file, start, end, request, response);
+    }
+
+    /**
+     * Writes status, headers and, if required, the body for a derivative which is still being produced.
+     *
+     * @param derivative the derivative in progress
+     * @param request the http request
+     * @param response the http response
+     * @throws IOException if the production failed or the client is gone
+     * @throws InterruptedException if the thread was interrupted while waiting for data
+     */
+    public void respond(DerivativeInProgress derivative, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, InterruptedException {
+
+        response.setContentType(getMediaType(derivative.getFile()).toString());
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+        fileSender.countDelivered(derivative.transferTo(response.getOutputStream()), request);
+    }
+
+    /**
+     * Computes an entity tag from the file metadata.
+     *
+     * @param length the length of the file
+     * @param lastModified the modification time of the file
+     * @return a quoted entity tag
+     */
+    public static String getETag(long length, long lastModified) {
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+    }
+
+    /**
+     * Determines the media type of a file by its name.
+     *
+     * @param file the file
+     * @return the media type, application/octet-stream if unknown
+     */
+    public static MediaType getMediaType(File file) {
+        return MediaTypeFactory.getMediaType(file.getName()).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+
+    /**
+     * Checks the If-Range precondition. Ranges are only served if the representation is unchanged.
+     */
+    private boolean isIfRangeFulfilled(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) == lastModified / 1000 * 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Converts the requested ranges to satisfiable [start, end) pairs, merging overlapping and adjacent ranges.
+     */
+    private List<long[]> getSatisfiableRanges(List<HttpRange> ranges, long length) {
+        List<long[]> satisfiable = new ArrayList<>(ranges.size());
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length) + 1;
+            if (start < length && start < end) {
+                satisfiable.add(new long[] {start, end});
+            }
+        }
+        satisfiable.sort(Comparator.comparingLong(range -> range[0]));
+
+        List<long[]> merged = new ArrayList<>(satisfiable.size());
+        for (long[] range : satisfiable) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range[0] <= last[1]) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    private String getContentRange(long[] range, long length) {
+        return BYTES_UNIT + " " + range[0] + "-" + (range[1] - 1) + "/" + length;
+    }
+
+    /**
+     * Sends several ranges as multipart/byteranges body.
+     */
+    private void sendMultipleRanges(File file, MediaType mediaType, List<long[]> ranges,
+                                    HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        String boundary = UUID.randomUUID().toString();
+        long length = file.length();
+
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            String partHeader = CRLF + "--" + boundary + CRLF
+                    + HttpHeaders.CONTENT_TYPE + ": " + mediaType + CRLF
+                    + HttpHeaders.CONTENT_RANGE + ": " + getContentRange(range, length) + CRLF
+                    + CRLF;
+            byte[] partHeaderBytes = partHeader.getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeaderBytes);
+            contentLength += partHeaderBytes.length + range[1] - range[0];
+        }
+        byte[] closingBoundary = (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII);
+        contentLength += closingBoundary.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        ServletOutputStream outputStream = response.getOutputStream();
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            outputStream.write(partHeaders.get(i));
+            fileSender.transfer(file, range[0], range[1], outputStream);
+            fileSender.countDelivered(range[1] - range[0], request);
+        }
+        outputStream.write(closingBoundary);
+        outputStream.flush();
+    }
+}
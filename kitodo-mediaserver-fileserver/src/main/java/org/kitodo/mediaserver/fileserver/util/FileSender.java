@@ -0,0 +1,225 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes files to http responses without copying them through the java heap where possible.
+ *
+ * <p>
+ * If the servlet container supports sendfile (Tomcat with the NIO connector announces this with
+ * a request attribute), the file is handed over to the container which sends it from the page
+ * cache to the socket after the controller method has returned.
+ * Otherwise, if the request supports it, the file is written with non-blocking I/O of an asynchronous
+ * request, so slow clients don't hold a container thread for the duration of the download.
+ * Otherwise the file is written with {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ *
+ * <p>
+ * The sent bytes are counted as "mediaserver.delivered.bytes" and per request, for the access log.
+ * Asynchronous writes count the bytes actually written, also of aborted downloads, when they are complete,
+ * see {@link #whenComplete(HttpServletRequest, Runnable)}. Blocking writes count the bytes when they are
+ * written completely. Files sent with sendfile are counted when they are handed over to the container,
+ * whose transfer can't be observed.
+ */
+@Component
+public class FileSender {
+
+    static final String DELIVERED_BYTES_METER = "mediaserver.delivered.bytes";
+
+    static final String DELIVERED_BYTES_ATTRIBUTE = "org.kitodo.mediaserver.delivered.bytes";
+
+    static final String SENDFILE_SUPPORTED_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    @Value("${fileserver.sendfile:true}")
+    private boolean sendfileEnabled;
+
+    @Value("${fileserver.async.enabled:true}")
+    private boolean asyncEnabled;
+
+    @Value("${fileserver.async.timeout:0}")
+    private long asyncTimeout;
+
+    private final Counter deliveredBytes = Counter.builder(DELIVERED_BYTES_METER)
+            .baseUnit("bytes")
+            .register(Metrics.globalRegistry);
+
+    /**
+     * Sends a complete file as response body.
+     *
+     * @param file the file to send
+     * @param request the http request
+     * @param response the http response
+     * @throws IOException if the file could not be read or the client is gone
+     */
+    public void send(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        send(file, 0, file.length(), request, response);
+    }
+
+    /**
+     * Sends a part of a file as response body.
+     *
+     * <p>
+     * Sets the content length of the response, so this must be called before the response is committed.
+     *
+     * @param file the file to send
+     * @param start the position of the first byte to send
+     * @param end the position after the last byte to send
+     * @param request the http request
+     * @param response the http response
+     * @throws IOException if the file could not be read or the client is gone
+     */
+    public void send(File file, long start, long end, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+
+        response.setContentLengthLong(end - start);
+
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        if (isSendfileSupported(request)) {
+            // the container sends the file after the controller returned
+            countDelivered(end - start, request);
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, end);
+            return;
+        }
+
+        if (asyncEnabled && request.isAsyncSupported()) {
+            // the container writes the file whenever the client is ready, after the controller returned
+            AsyncFileWriter writer = new AsyncFileWriter(file, start, end, bytes -> countDelivered(bytes, request));
+            AsyncContext asyncContext = request.startAsync(request, response);
+            asyncContext.setTimeout(TimeUnit.SECONDS.toMillis(asyncTimeout));
+            writer.start(asyncContext);
+            return;
+        }
+
+        OutputStream outputStream = response.getOutputStream();
+        transfer(file, start, end, outputStream);
+        outputStream.flush();
+        countDelivered(end - start, request);
+    }
+
+    /**
+     * Runs a callback when the response of a request is complete.
+     *
+     * <p>
+     * If a file is written asynchronously, the callback runs when the writing is finished or aborted,
+     * after its bytes are counted. Otherwise it runs immediately.
+     *
+     * @param request the http request
+     * @param callback the callback, e.g. logging the request
+     */
+    public void whenComplete(HttpServletRequest request, Runnable callback) {
+        if (!request.isAsyncStarted()) {
+            callback.run();
+            return;
+        }
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                callback.run();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                // completed by the writer
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                // completed by the writer
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                // nothing to do
+            }
+        });
+    }
+
+    /**
+     * Writes a part of a file to an output stream using a file channel.
+     *
+     * @param file the file to write
+     * @param start the position of the first byte to write
+     * @param end the position after the last byte to write
+     * @param outputStream the stream to write to
+     * @throws IOException if the file could not be read or the stream could not be written
+     */
+    public void transfer(File file, long start, long end, OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = start;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("File " + file.getAbsolutePath() + " was truncated while sending");
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * Counts bytes written to the response body of a request.
+     *
+     * @param bytes the number of bytes
+     * @param request the http request
+     */
+    void countDelivered(long bytes, HttpServletRequest request) {
+        deliveredBytes.increment(bytes);
+        request.setAttribute(DELIVERED_BYTES_ATTRIBUTE, getDeliveredBytes(request) + bytes);
+    }
+
+    /**
+     * Gets the bytes written or handed over to the container for the response body of a request.
+     *
+     * @param request the http request
+     * @return the number of bytes
+     */
+    public static long getDeliveredBytes(HttpServletRequest request) {
+        Object bytes = request.getAttribute(DELIVERED_BYTES_ATTRIBUTE);
+        return bytes instanceof Long ? (Long) bytes : 0;
+    }
+
+    /**
+     * Checks if the file can be handed over to the servlet container.
+     *
+     * @param request the http request
+     * @return true, if sendfile is enabled and supported by the container
+     */
+    public boolean isSendfileSupported(HttpServletRequest request) {
+        return sendfileEnabled && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTRIBUTE));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+
+package org.kitodo.mediaserver.fileserver.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.cache.IdentifierCache;
+import org.kitodo.mediaserver.core.cache.WorkCache;
+import org.kitodo.mediaserver.core.cache.WorkCacheNotifier;
+import org.kitodo.mediaserver.core.config.ConversionServiceConfiguration;
+import org.kitodo.mediaserver.core.conversion.MasterResolver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.http.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.client.RestTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.embedded.EmbeddedWebServerFactoryCustomizerAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.ServletWebServerFactoryAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the cache controller with the default addresses allowed, i.e. the loopback addresses, and a secret.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, classes = CacheControllerTest.Config.class,
+    properties = "workCache.secret=s3cret")
+@RunWith(SpringRunner.class)
+public class CacheControllerTest {
+
+    @MockBean
+    private WorkCache workCache;
+
+    @MockBean
+    private IdentifierCache identifierCache;
+
+    @MockBean
+    private MasterResolver masterResolver;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    public void testLoopbackWithSecretIsAllowed() {
+        ResponseEntity<Void> response = restTemplate.exchange("/cache/works/123/invalidate", HttpMethod.POST,
+                withSecret("s3cret"), Void.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        verify(workCache).invalidate("123");
+        verify(masterResolver).invalidate("123");
+        verify(identifierCache).reload("123");
+    }
+
+    @Test
+    public void testLoopbackWithoutSecretIsForbidden() {
+        // behind a local reverse proxy, every client has the loopback address
+        ResponseEntity<Void> response = restTemplate.postForEntity("/cache/works/invalidate", null, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+
+        response = restTemplate.exchange("/cache/works/invalidate", HttpMethod.POST, withSecret("secret"),
+                Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+
+        assertThat(restTemplate.getForEntity("/cache/works", String.class).getStatusCode())
+                .isEqualTo(HttpStatus.FORBIDDEN);
+        verify(workCache, never()).invalidateAll();
+        verify(workCache, never()).invalidate(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStats() {
+        when(workCache.getStats()).thenReturn(new CacheStats(3, 1, 1, 0, 0, 0, 0));
+        when(workCache.size()).thenReturn(1L);
+
+        ResponseEntity<Map> response = restTemplate.exchange("/cache/works", HttpMethod.GET, withSecret("s3cret"),
+                Map.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).containsEntry("hits", 3).containsEntry("misses", 1);
+    }
+
+    private static HttpEntity<Void> withSecret(String secret) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(WorkCacheNotifier.SECRET_HEADER, secret);
+        return new HttpEntity<>(headers);
+    }
+
+    @Configuration
+    @ImportAutoConfiguration({ServletWebServerFactoryAutoConfiguration.class,
+        EmbeddedWebServerFactoryCustomizerAutoConfiguration.class, DispatcherServletAutoConfiguration.class,
+        WebMvcAutoConfiguration.class, HttpMessageConvertersAutoConfiguration.class,
+        JacksonAutoConfiguration.class, RestTemplateAutoConfiguration.class})
+    @Import({CacheController.class, ConversionServiceConfiguration.class})
+    static class Config {
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.imageio.ImageIO;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.actions.PriorityScheduler;
+import org.kitodo.mediaserver.core.cache.DerivativeCache;
+import org.kitodo.mediaserver.core.cache.IdentifierCache;
+import org.kitodo.mediaserver.core.cache.WorkCache;
+import org.kitodo.mediaserver.core.cache.WorkIndexCache;
+import org.kitodo.mediaserver.core.conversion.ConvertAction;
+import org.kitodo.mediaserver.core.conversion.IiifPathPatternProcessor;
+import org.kitodo.mediaserver.core.conversion.ImageIOConverter;
+import org.kitodo.mediaserver.core.conversion.MasterResolver;
+import org.kitodo.mediaserver.core.conversion.PyramidAction;
+import org.kitodo.mediaserver.core.db.entities.ActionControl;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.kitodo.mediaserver.core.models.WorkIndex;
+import org.kitodo.mediaserver.core.models.WorkInfo;
+import org.kitodo.mediaserver.fileserver.conversion.DerivativeProducer;
+import org.kitodo.mediaserver.fileserver.util.AccessLog;
+import org.kitodo.mediaserver.fileserver.util.FileResponder;
+import org.kitodo.mediaserver.fileserver.util.FileSender;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.http.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.client.RestTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.embedded.EmbeddedWebServerFactoryCustomizerAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.ServletWebServerFactoryAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the IIIF Image API, producing images from a master.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = IiifControllerTest.Config.class, properties = {
+    "fileserver.iiif.tileSize=256",
+    "fileserver.iiif.maxWidth=1000",
+    "fileserver.iiif.maxHeight=1000",
+    "pyramid.tileSize=256"
+    })
+@RunWith(SpringRunner.class)
+public class IiifControllerTest {
+
+    @ClassRule
+    public static TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @MockBean
+    private WorkCache workCache;
+
+    @MockBean
+    private IdentifierCache identifierCache;
+
+    @MockBean
+    private WorkRepository workRepository;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private PyramidAction pyramidAction;
+
+    private File workDirectory;
+
+    @Before
+    public void init() throws Exception {
+        workDirectory = temporaryFolder.getRoot();
+        File master = new File(workDirectory, "master/00000001.tif");
+        if (!master.isFile()) {
+            assertThat(master.getParentFile().mkdirs()).isTrue();
+            assertThat(ImageIO.write(new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB), "tif", master))
+                    .isTrue();
+        }
+        when(workCache.get("123")).thenReturn(new WorkInfo("123", workDirectory.getAbsolutePath(), true));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testInfo() {
+        ResponseEntity<Map> response = restTemplate.getForEntity("/iiif/123/00000001/info.json", Map.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody().get("@id").toString()).endsWith("/iiif/123/00000001");
+        assertThat(response.getBody()).containsEntry("width", 1200).containsEntry("height", 800);
+        List<Map<String, Object>> tiles = (List<Map<String, Object>>) response.getBody().get("tiles");
+        assertThat(tiles.get(0)).containsEntry("width", 256);
+        assertThat((List<Integer>) tiles.get(0).get("scaleFactors")).containsExactly(1, 2, 4, 8);
+        Map<String, Object> features = (Map<String, Object>) ((List<Object>) response.getBody().get("profile")).get(1);
+        assertThat(features).containsEntry("maxWidth", 1000).containsEntry("maxHeight", 1000);
+        assertThat((List<String>) features.get("formats")).contains("png");
+
+        assertThat(restTemplate.getForEntity("/iiif/123/00000002/info.json", String.class).getStatusCode())
+                .isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    public void testImageIsProducedOnceAtItsCanonicalPath() throws Exception {
+        ResponseEntity<byte[]> response = restTemplate.getForEntity(
+                "/iiif/123/00000001/0,0,512,512/256,/0/color.png", byte[].class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(response.getBody()));
+        assertThat(image.getWidth()).isEqualTo(256);
+        assertThat(image.getHeight()).isEqualTo(256);
+
+        File derivative = new File(workDirectory, "derivatives/iiif/00000001/0,0,512,512/256,/0/default.png");
+        assertThat(derivative.isFile()).isTrue();
+        long produced = derivative.lastModified();
+
+        response = restTemplate.getForEntity("/iiif/123/00000001/0,0,512,512/256,/360/default.png", byte[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isEqualTo(Files.readAllBytes(derivative.toPath()));
+        assertThat(derivative.lastModified()).isEqualTo(produced);
+    }
+
+    @Test
+    public void testSizeIsLimited() throws Exception {
+        assertThat(restTemplate.getForEntity("/iiif/123/00000001/full/full/0/default.jpg", String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(restTemplate.getForEntity("/iiif/123/00000001/full/50000,50000/0/default.jpg", String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(restTemplate.getForEntity("/iiif/123/00000001/full/pct:100000/0/default.jpg", String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+
+        ResponseEntity<byte[]> response = restTemplate.getForEntity("/iiif/123/00000001/full/max/90/default.jpg",
+                byte[].class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(response.getBody()));
+        assertThat(image.getWidth()).isEqualTo(667);
+        assertThat(image.getHeight()).isEqualTo(1000);
+    }
+
+    @Test
+    public void testImageOtherThanTileIsNotStored() throws Exception {
+        ResponseEntity<byte[]> response = restTemplate.getForEntity("/iiif/123/00000001/10,20,300,200/150,/0/default.jpg",
+                byte[].class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(response.getBody()));
+        assertThat(image.getWidth()).isEqualTo(150);
+        assertThat(image.getHeight()).isEqualTo(100);
+        assertThat(new File(workDirectory, "derivatives/iiif/00000001/10,20,300,200")).doesNotExist();
+    }
+
+    @Test
+    public void testTileIsReadFromPyramid() throws Exception {
+        File pyramidWork = temporaryFolder.newFolder("pyramid");
+        File master = new File(pyramidWork, "master/00000001.tif");
+        assertThat(master.getParentFile().mkdirs()).isTrue();
+        assertThat(ImageIO.write(new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB), "tif", master)).isTrue();
+        Work work = new Work("789", "Work with pyramids");
+        work.setPath(pyramidWork.getAbsolutePath());
+        work.setEnabled(true);
+        when(workRepository.findById("789")).thenReturn(Optional.of(work));
+        when(workCache.get("789")).thenReturn(new WorkInfo(work));
+        assertThat(pyramidAction.perform(new ActionControl("789", "pyramid", Collections.emptyMap()))).isEqualTo(1);
+
+        ResponseEntity<byte[]> response = restTemplate.getForEntity(
+                "/iiif/789/00000001/1024,512,176,256/176,/0/default.jpg", byte[].class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).isEqualTo(MediaType.IMAGE_JPEG);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(response.getBody()));
+        assertThat(image.getWidth()).isEqualTo(176);
+        assertThat(image.getHeight()).isEqualTo(256);
+        assertThat(new File(pyramidWork, "derivatives")).doesNotExist();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(response.getHeaders().getETag());
+        assertThat(restTemplate.exchange("/iiif/789/00000001/1024,512,176,256/176,/0/default.jpg", HttpMethod.GET,
+                new HttpEntity<>(headers), byte[].class).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMasterIsFoundByIndex() throws Exception {
+        File indexedWork = temporaryFolder.newFolder("indexed");
+        File master = new File(indexedWork, "images/scan_0001.tif");
+        assertThat(master.getParentFile().mkdirs()).isTrue();
+        assertThat(ImageIO.write(new BufferedImage(600, 400, BufferedImage.TYPE_INT_RGB), "tif", master)).isTrue();
+        new WorkIndex.Builder(0, 0)
+                .addFile("MASTER", "FILE_0001_MASTER", "images/scan_0001.tif")
+                .write(indexedWork.toPath().resolve(WorkIndex.FILE_NAME));
+        when(workCache.get("456")).thenReturn(new WorkInfo("456", indexedWork.getAbsolutePath(), true));
+
+        ResponseEntity<Map> response = restTemplate.getForEntity("/iiif/456/scan_0001/info.json", Map.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).containsEntry("width", 600).containsEntry("height", 400);
+    }
+
+    @Test
+    public void testInvalidRequest() {
+        assertThat(restTemplate.getForEntity("/iiif/123/00000001/full/max/45/default.jpg", String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(restTemplate.getForEntity("/iiif/456/00000001/full/max/0/default.jpg", String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    public void testFileWithoutMasterIsNotProduced() {
+        assertThat(restTemplate.getForEntity("/files/123/derivatives/missing/00000009.jpg", String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(new File(workDirectory, "derivatives/missing")).doesNotExist();
+    }
+
+    @Configuration
+    @ImportAutoConfiguration({ServletWebServerFactoryAutoConfiguration.class,
+        EmbeddedWebServerFactoryCustomizerAutoConfiguration.class, DispatcherServletAutoConfiguration.class,
+        WebMvcAutoConfiguration.class, HttpMessageConvertersAutoConfiguration.class,
+        JacksonAutoConfiguration.class, RestTemplateAutoConfiguration.class})
+    @Import({IiifController.class, FileController.class, FileResponder.class, FileSender.class,
+        DerivativeProducer.class, AccessLog.class})
+    static class Config {
+
+        @Bean
+        public ImageIOConverter imageConverter() {
+            return new ImageIOConverter();
+        }
+
+        @Bean
+        public ConvertAction convertAction() {
+            return new ConvertAction();
+        }
+
+        @Bean
+        public IiifPathPatternProcessor iiifPathPatternProcessor() {
+            return new IiifPathPatternProcessor();
+        }
+
+        @Bean
+        public PyramidAction pyramidAction() {
+            return new PyramidAction();
+        }
+
+        @Bean
+        public PriorityScheduler priorityScheduler() {
+            return new PriorityScheduler();
+        }
+
+        @Bean
+        public DerivativeCache derivativeCache() {
+            return new DerivativeCache();
+        }
+
+        @Bean
+        public WorkIndexCache workIndexCache() {
+            return new WorkIndexCache();
+        }
+
+        @Bean
+        public MasterResolver masterResolver() {
+            return new MasterResolver();
+        }
+    }
+}
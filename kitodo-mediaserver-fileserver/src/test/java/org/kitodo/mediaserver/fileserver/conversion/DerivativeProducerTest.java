@@ -0,0 +1,148 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.conversion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.actions.PriorityScheduler;
+import org.kitodo.mediaserver.core.api.IConverter;
+import org.kitodo.mediaserver.core.cache.DerivativeCache;
+import org.kitodo.mediaserver.core.conversion.ConvertAction;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the derivative producer.
+ */
+@SpringBootTest(classes = {DerivativeProducer.class, DerivativeProducerTest.Config.class})
+@RunWith(SpringRunner.class)
+public class DerivativeProducerTest {
+
+    private static final AtomicInteger CONVERSIONS = new AtomicInteger();
+
+    private static final int CHUNK_SIZE = 100 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @MockBean
+    private WorkRepository workRepository;
+
+    @Autowired
+    private DerivativeProducer derivativeProducer;
+
+    @Test
+    public void testConcurrentRequestsAreCoalesced() throws Exception {
+        File derivative = new File(temporaryFolder.getRoot(), "jpeg/default/00000001.jpg");
+        int conversionsBefore = CONVERSIONS.get();
+
+        ExecutorService requests = Executors.newFixedThreadPool(50);
+        List<Future<byte[]>> results = new ArrayList<>();
+        Callable<byte[]> request = () -> {
+            DerivativeInProgress production = derivativeProducer.produce("123", "/jpeg/default/00000001.jpg", derivative);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            production.transferTo(outputStream);
+            return outputStream.toByteArray();
+        };
+        for (int i = 0; i < 200; i++) {
+            results.add(requests.submit(request));
+        }
+        byte[] expectedContent = expectedContent();
+        for (Future<byte[]> result : results) {
+            assertThat(Arrays.equals(result.get(), expectedContent)).isTrue();
+        }
+        requests.shutdown();
+
+        assertThat(CONVERSIONS.get() - conversionsBefore).isEqualTo(1);
+        assertThat(Arrays.equals(Files.readAllBytes(derivative.toPath()), expectedContent)).isTrue();
+        assertThat(derivative.getParentFile().list()).containsExactly(derivative.getName());
+    }
+
+    @Test
+    public void testFailedConversionLeavesNoDirectories() {
+        File derivative = new File(temporaryFolder.getRoot(), "failed/default/00000001.jpg");
+        Map<String, String> parameter = new HashMap<>();
+        parameter.put(ConvertAction.DERIVATIVE_PATH_PARAMETER, "/failed/default/00000001.jpg");
+        parameter.put("fail", "true");
+
+        assertThatThrownBy(() -> derivativeProducer.produce("123", parameter, derivative))
+                .isInstanceOf(ExecutionException.class);
+
+        assertThat(new File(temporaryFolder.getRoot(), "failed")).doesNotExist();
+    }
+
+    private static byte[] expectedContent() {
+        byte[] content = new byte[CHUNK_SIZE * 2];
+        Arrays.fill(content, 0, CHUNK_SIZE, (byte) 'a');
+        Arrays.fill(content, CHUNK_SIZE, content.length, (byte) 'b');
+        return content;
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public ConvertAction convertAction() {
+            return new ConvertAction();
+        }
+
+        @Bean
+        public PriorityScheduler priorityScheduler() {
+            return new PriorityScheduler();
+        }
+
+        @Bean
+        public DerivativeCache derivativeCache() {
+            return new DerivativeCache();
+        }
+
+        @Bean
+        public IConverter converter() {
+            return (master, parameter, outputStream) -> {
+                if (parameter.containsKey("fail")) {
+                    throw new IOException("Unreadable master");
+                }
+                CONVERSIONS.incrementAndGet();
+                byte[] content = expectedContent();
+                // readers start with the first chunk while the second one is not yet converted
+                outputStream.write(content, 0, CHUNK_SIZE);
+                Thread.sleep(200);
+                outputStream.write(content, CHUNK_SIZE, CHUNK_SIZE);
+            };
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.exceptions.HttpNotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Test for the access log.
+ */
+@SpringBootTest(classes = AccessLog.class, properties = {
+    "fileserver.accessLog.file=target/access-log-test.log",
+    "fileserver.accessLog.bufferSize=100000",
+    "fileserver.accessLog.flushInterval=10"
+    })
+@RunWith(SpringRunner.class)
+public class AccessLogTest {
+
+    private static final Path FILE = Paths.get("target/access-log-test.log");
+
+    @Autowired
+    private AccessLog accessLog;
+
+    @AfterClass
+    public static void deleteFile() throws Exception {
+        Files.deleteIfExists(FILE);
+    }
+
+    @Test
+    public void testRequestsAreWrittenAsJsonLines() throws Exception {
+        long before = Files.exists(FILE) ? Files.readAllLines(FILE).size() : 0;
+
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 10000; i++) {
+            String workId = String.valueOf(i);
+            requests.submit(() -> accessLog.log(workId, "/files/" + workId + "/1.jpg", "hit", 200, 1024, 1500000));
+        }
+        requests.shutdown();
+        assertThat(requests.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        accessLog.log("123", "/files/123/\"quoted\"\n.jpg", "error", AccessLog.getStatus(new HttpNotFoundException("")),
+                0, 2000000);
+        accessLog.stop();
+
+        List<String> lines = Files.readAllLines(FILE, StandardCharsets.UTF_8);
+        assertThat(lines.size() - before).isEqualTo(10001);
+        assertThat(lines.get(lines.size() - 2))
+                .matches("\\{\"time\":\"[-0-9T:.]+Z\",\"work\":\"\\d+\",\"path\":\"/files/\\d+/1.jpg\","
+                        + "\"result\":\"hit\",\"status\":200,\"bytes\":1024,\"ms\":1.5}");
+        assertThat(lines.get(lines.size() - 1))
+                .endsWith("\"work\":\"123\",\"path\":\"/files/123/\\\"quoted\\\"\\u000a.jpg\","
+                        + "\"result\":\"error\",\"status\":404,\"bytes\":0,\"ms\":2.0}");
+    }
+}
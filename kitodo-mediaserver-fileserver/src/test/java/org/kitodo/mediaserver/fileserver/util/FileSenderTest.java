@@ -0,0 +1,250 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.fileserver.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.http.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.embedded.EmbeddedWebServerFactoryCustomizerAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.ServletWebServerFactoryAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.stereotype.Controller;
+import org.springframework.test.context.junit4.rules.SpringClassRule;
+import org.springframework.test.context.junit4.rules.SpringMethodRule;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+
+/**
+ * Test for the file sender in a servlet container with few threads.
+ *
+ * <p>
+ * Many clients not reading their downloads must not prevent other requests from being served.
+ * With blocking writes, i.e. fileserver.async.enabled=false, each of them holds one of the two container
+ * threads, so other requests are blocked until the downloads are read.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "server.tomcat.max-threads=2",
+    "fileserver.sendfile=false"
+    })
+@RunWith(Parameterized.class)
+public class FileSenderTest {
+
+    @ClassRule
+    public static final SpringClassRule SPRING_CLASS_RULE = new SpringClassRule();
+
+    private static final int STALLED_CLIENTS = 20;
+    private static final long SIZE = 16 * 1024 * 1024;
+
+    @ClassRule
+    public static TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static File file;
+
+    private static CompletableFuture<Long> completed;
+
+    @Rule
+    public final SpringMethodRule springMethodRule = new SpringMethodRule();
+
+    @Parameterized.Parameter
+    public boolean asyncEnabled;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private FileSender fileSender;
+
+    @Parameterized.Parameters(name = "async={0}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][] {{true}, {false}});
+    }
+
+    @BeforeClass
+    public static void createFile() throws IOException {
+        file = temporaryFolder.newFile("large.tif");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(SIZE);
+        }
+    }
+
+    @AfterClass
+    public static void deleteFile() {
+        file.delete();
+    }
+
+    @Before
+    public void init() {
+        // the value of fileserver.async.enabled, the context is shared by both runs
+        ReflectionTestUtils.setField(fileSender, "asyncEnabled", asyncEnabled);
+        completed = new CompletableFuture<>();
+    }
+
+    @Test
+    public void testStalledClientsBlockOtherRequestsOnlyWithoutAsync() throws Exception {
+        List<Socket> stalledClients = new ArrayList<>();
+        try {
+            for (int i = 0; i < STALLED_CLIENTS; i++) {
+                Socket socket = new Socket();
+                socket.setReceiveBufferSize(4096);
+                socket.connect(new InetSocketAddress("localhost", port));
+                OutputStream outputStream = socket.getOutputStream();
+                outputStream.write(("GET /large HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                outputStream.flush();
+                stalledClients.add(socket);
+            }
+            // give the container time to fill the socket buffers
+            Thread.sleep(500);
+
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/small")
+                    .openConnection();
+            connection.setConnectTimeout(2000);
+            connection.setReadTimeout(2000);
+            if (asyncEnabled) {
+                assertThat(connection.getResponseCode()).isEqualTo(200);
+            } else {
+                assertThatThrownBy(connection::getResponseCode).isInstanceOf(SocketTimeoutException.class);
+            }
+
+            // the stalled downloads are still complete, read concurrently as the blocked ones wait for a thread
+            ExecutorService readers = Executors.newFixedThreadPool(STALLED_CLIENTS);
+            try {
+                List<Future<Long>> bodies = new ArrayList<>();
+                for (Socket socket : stalledClients) {
+                    bodies.add(readers.submit(() -> readBody(socket)));
+                }
+                for (Future<Long> body : bodies) {
+                    assertThat(body.get(30, TimeUnit.SECONDS)).isEqualTo(SIZE);
+                }
+            } finally {
+                readers.shutdownNow();
+            }
+        } finally {
+            for (Socket socket : stalledClients) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testDeliveredBytesAreCountedWhenComplete() throws Exception {
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("localhost", port));
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(("GET /counted HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+            Thread.sleep(500);
+
+            // the controller returned long ago, but the client didn't read the file yet
+            assertThat(completed.isDone()).isFalse();
+
+            assertThat(readBody(socket)).isEqualTo(SIZE);
+            assertThat(completed.get(5, TimeUnit.SECONDS)).isEqualTo(SIZE);
+        }
+    }
+
+    private long readBody(Socket socket) throws IOException {
+        InputStream inputStream = socket.getInputStream();
+        // skip the headers
+        int matched = 0;
+        while (matched < 4) {
+            int b = inputStream.read();
+            if (b < 0) {
+                return -1;
+            }
+            matched = (b == "\r\n\r\n".charAt(matched)) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        long length = 0;
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = inputStream.read(buffer)) >= 0) {
+            length += read;
+        }
+        return length;
+    }
+
+    @Configuration
+    @ImportAutoConfiguration({
+        ServletWebServerFactoryAutoConfiguration.class,
+        HttpMessageConvertersAutoConfiguration.class,
+        EmbeddedWebServerFactoryCustomizerAutoConfiguration.class,
+        DispatcherServletAutoConfiguration.class,
+        WebMvcAutoConfiguration.class
+        })
+    @Import({FileSender.class, TestController.class})
+    static class Config {
+    }
+
+    @Controller
+    static class TestController {
+
+        @Autowired
+        private FileSender fileSender;
+
+        @GetMapping("/large")
+        public void large(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            fileSender.send(file, request, response);
+        }
+
+        @GetMapping("/counted")
+        public void counted(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            fileSender.send(file, request, response);
+            fileSender.whenComplete(request, () -> completed.complete(FileSender.getDeliveredBytes(request)));
+        }
+
+        @GetMapping("/small")
+        public void small(HttpServletResponse response) throws IOException {
+            response.getWriter().write("small");
+        }
+    }
+}
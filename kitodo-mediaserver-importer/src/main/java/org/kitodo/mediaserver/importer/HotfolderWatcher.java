@@ -0,0 +1,296 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+
+package org.kitodo.mediaserver.importer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Watches the hotfolders for new or changed work directories and submits them to the {@link ImportPipeline}.
+ *
+ * <p>
+ * New directories are reported by a {@link WatchService}. As some file systems, e.g. network file systems,
+ * don't report changes, the hotfolders are also scanned periodically. Both only look at the top level of the
+ * hotfolders, a scan lists the work directories and reads the modification time of their METS files.
+ *
+ * <p>
+ * A work directory is submitted once its METS file exists and the number, sizes and modification times of
+ * its files didn't change for the stable time, so works being copied are not imported partially. A work
+ * directory which is stable without METS file is dropped until a later scan finds it again. A work
+ * directory left in the hotfolder after its import, e.g. when importing works in place, is only submitted
+ * again when its METS file was modified.
+ */
+@Component
+public class HotfolderWatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HotfolderWatcher.class);
+
+    @Autowired
+    private ImportPipeline importPipeline;
+
+    @Value("${importer.hotfolders:}")
+    private List<String> hotfolders;
+
+    @Value("${importer.watch:true}")
+    private boolean watch;
+
+    @Value("${importer.scanInterval:60}")
+    private long scanInterval;
+
+    @Value("${importer.stableTime:10}")
+    private long stableTime;
+
+    private final List<Path> hotfolderPaths = new ArrayList<>();
+
+    // work directories which appeared or changed and are not yet stable
+    private final Map<Path, Candidate> candidates = new ConcurrentHashMap<>();
+
+    // the modification time of the METS file of the submitted work directories
+    private final Map<Path, Long> submitted = new ConcurrentHashMap<>();
+
+    private volatile boolean scanRequested;
+    private long lastScan = System.nanoTime();
+    private WatchService watchService;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Scans the hotfolders and starts watching them.
+     *
+     * @throws IOException if a hotfolder could not be read or watched
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        for (String hotfolder : hotfolders) {
+            if (!hotfolder.trim().isEmpty()) {
+                hotfolderPaths.add(Paths.get(hotfolder.trim()).toAbsolutePath().normalize());
+            }
+        }
+        if (hotfolderPaths.isEmpty()) {
+            LOGGER.info("No hotfolders configured");
+            return;
+        }
+        scan();
+
+        scheduler = Executors.newScheduledThreadPool(2, new CustomizableThreadFactory("hotfolder-"));
+        if (watch) {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (Path hotfolder : hotfolderPaths) {
+                hotfolder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+            scheduler.execute(this::watch);
+        }
+        long checkInterval = Math.max(TimeUnit.SECONDS.toMillis(stableTime) / 2, 500);
+        scheduler.scheduleWithFixedDelay(this::check, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        LOGGER.info("Watching hotfolders " + hotfolderPaths);
+    }
+
+    /**
+     * Stops watching the hotfolders.
+     *
+     * @throws IOException if the watch service could not be closed
+     */
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Lists the work directories in the hotfolders and adds new ones and those with a modified METS file to
+     * the candidates for import.
+     */
+    public void scan() {
+        for (Path hotfolder : hotfolderPaths) {
+            try (DirectoryStream<Path> directories = Files.newDirectoryStream(hotfolder, Files::isDirectory)) {
+                for (Path directory : directories) {
+                    addIfChanged(directory);
+                }
+            } catch (IOException e) {
+                LOGGER.error("Could not scan hotfolder " + hotfolder + ": " + e);
+            }
+        }
+        // forget submitted works which were moved away
+        submitted.keySet().removeIf(directory -> !Files.isDirectory(directory));
+    }
+
+    /**
+     * Gets the number of work directories waiting to be stable.
+     *
+     * @return the number of candidates
+     */
+    public int getCandidates() {
+        return candidates.size();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path hotfolder = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        scanRequested = true;
+                    } else {
+                        Path directory = hotfolder.resolve((Path) event.context());
+                        if (Files.isDirectory(directory)) {
+                            addIfChanged(directory);
+                        }
+                    }
+                }
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Scans if due and submits the candidates which are stable.
+     */
+    private void check() {
+        try {
+            long now = System.nanoTime();
+            if (scanRequested || scanInterval > 0 && now - lastScan >= TimeUnit.SECONDS.toNanos(scanInterval)) {
+                scanRequested = false;
+                lastScan = now;
+                scan();
+            }
+
+            Iterator<Map.Entry<Path, Candidate>> iterator = candidates.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Path, Candidate> entry = iterator.next();
+                Path directory = entry.getKey();
+                Candidate candidate = entry.getValue();
+                if (!Files.isDirectory(directory)) {
+                    iterator.remove();
+                    continue;
+                }
+                String fingerprint = getFingerprint(directory);
+                if (!fingerprint.equals(candidate.fingerprint)) {
+                    candidate.fingerprint = fingerprint;
+                    candidate.stableSince = now;
+                } else if (now - candidate.stableSince >= TimeUnit.SECONDS.toNanos(stableTime)) {
+                    iterator.remove();
+                    if (!Files.isRegularFile(ImportPipeline.getMetsFile(directory))) {
+                        // an incomplete work, added again by a later scan
+                        LOGGER.debug("Work directory " + directory + " is stable without METS file");
+                        continue;
+                    }
+                    long metsModified = getMetsModified(directory);
+                    if (importPipeline.submit(directory)) {
+                        submitted.put(directory, metsModified);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not check hotfolders: " + e, e);
+        }
+    }
+
+    /**
+     * Adds a work directory to the candidates, unless it is hidden or was submitted with its current METS file.
+     */
+    private void addIfChanged(Path directory) {
+        if (isHidden(directory) || candidates.containsKey(directory)) {
+            return;
+        }
+        Long submittedTime = submitted.get(directory);
+        if (submittedTime != null && submittedTime == getMetsModified(directory)) {
+            return;
+        }
+        if (candidates.putIfAbsent(directory, new Candidate()) == null) {
+            LOGGER.debug("Waiting for work directory " + directory + " to be stable");
+        }
+    }
+
+    /**
+     * Summarizes the number, sizes and modification times of the files in a work directory.
+     */
+    private static String getFingerprint(Path directory) {
+        long[] summary = new long[3];
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.forEach(file -> {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    summary[0]++;
+                    summary[1] += attributes.size();
+                    summary[2] = Math.max(summary[2], attributes.lastModifiedTime().toMillis());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            // e.g. a file was removed while walking, so the directory isn't stable
+            return e.toString();
+        }
+        return summary[0] + "/" + summary[1] + "/" + summary[2];
+    }
+
+    private static long getMetsModified(Path directory) {
+        try {
+            return Files.getLastModifiedTime(ImportPipeline.getMetsFile(directory)).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isHidden(Path directory) {
+        return directory.getFileName().toString().startsWith(".");
+    }
+
+    /**
+     * A work directory waiting to be stable.
+     */
+    private static class Candidate {
+
+        private String fingerprint = "";
+        private long stableSince = System.nanoTime();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+
+package org.kitodo.mediaserver.importer;
+
+import java.nio.file.Path;
+import org.kitodo.mediaserver.importer.mets.MetsData;
+
+/**
+ * A work passing through the stages of the {@link ImportPipeline}.
+ */
+public class ImportJob {
+
+    private final Path directory;
+    private final long startTime;
+    private MetsData mets;
+    private String workId;
+    private Path workPath;
+    private Path replacedPath;
+
+    /**
+     * Creates a job for a work directory in the hotfolder.
+     *
+     * @param directory the work directory
+     */
+    public ImportJob(Path directory) {
+        this.directory = directory;
+        this.startTime = System.nanoTime();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the time the job was created.
+     *
+     * @return the value of {@link System#nanoTime()}
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public MetsData getMets() {
+        return mets;
+    }
+
+    public void setMets(MetsData mets) {
+        this.mets = mets;
+    }
+
+    public String getWorkId() {
+        return workId;
+    }
+
+    public void setWorkId(String workId) {
+        this.workId = workId;
+    }
+
+    /**
+     * Gets the directory of the imported work.
+     *
+     * @return the directory the work was moved to
+     */
+    public Path getWorkPath() {
+        return workPath;
+    }
+
+    public void setWorkPath(Path workPath) {
+        this.workPath = workPath;
+    }
+
+    /**
+     * Gets the previous directory of a work imported again.
+     *
+     * @return the directory the previous files were moved to, or null if the work is new
+     */
+    public Path getReplacedPath() {
+        return replacedPath;
+    }
+
+    public void setReplacedPath(Path replacedPath) {
+        this.replacedPath = replacedPath;
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+
+package org.kitodo.mediaserver.importer;
+
+import io.micrometer.core.instrument.Metrics;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.xml.stream.XMLStreamException;
+import org.kitodo.mediaserver.core.cache.WorkCacheNotifier;
+import org.kitodo.mediaserver.core.models.WorkIndex;
+import org.kitodo.mediaserver.importer.mets.MetsData;
+import org.kitodo.mediaserver.importer.mets.MetsReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Imports work directories in three stages running in parallel: parsing the METS file, verifying the files
+ * and writing the works. After verifying, the METS file is compiled into the {@link WorkIndex} by which the
+ * fileserver finds the files, unless the work directory has a current one.
+ *
+ * <p>
+ * The stages are connected by bounded queues, so a slow stage holds back the ones before it instead of
+ * piling up parsed works in memory, and {@link #submit(Path)} blocks while the pipeline is full. Parsing and
+ * verifying run in several threads. The works are written by one thread in batches, each in one transaction,
+ * after moving their directories to the work files path. Failed works are moved to the error path.
+ *
+ * <p>
+ * The throughput is logged periodically in works per second. Imports are timed as "mediaserver.imports" with
+ * outcome "success" or "error".
+ */
+@Component
+public class ImportPipeline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImportPipeline.class);
+
+    private static final String IMPORTS_METER = "mediaserver.imports";
+
+    private static final int MAX_WORK_ID_LENGTH = 100;
+
+    // passed through the stages when the pipeline is stopped
+    private static final ImportJob END = new ImportJob(null);
+
+    @Autowired
+    private MetsReader metsReader;
+
+    @Autowired
+    private WorkWriter workWriter;
+
+    @Autowired
+    private WorkCacheNotifier workCacheNotifier;
+
+    @Value("${importer.workFilesPath:}")
+    private String workFilesPath;
+
+    @Value("${importer.errorPath:}")
+    private String errorPath;
+
+    @Value("${importer.verifyFileGroups:MASTER}")
+    private Set<String> verifyFileGroups;
+
+    @Value("${importer.parseThreads:0}")
+    private int parseThreads;
+
+    @Value("${importer.verifyThreads:4}")
+    private int verifyThreads;
+
+    @Value("${importer.queueSize:16}")
+    private int queueSize;
+
+    @Value("${importer.batchSize:500}")
+    private int batchSize;
+
+    @Value("${importer.reportInterval:10}")
+    private long reportInterval;
+
+    private BlockingQueue<ImportJob> parseQueue;
+    private BlockingQueue<ImportJob> verifyQueue;
+    private BlockingQueue<ImportJob> writeQueue;
+
+    private ExecutorService stages;
+    private ScheduledExecutorService reporter;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean running;
+
+    // the directories submitted and not yet imported or failed
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder imported = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private long reportedImported;
+    private long reportedFailed;
+    private long reportedTime;
+
+    /**
+     * Starts the threads of the stages and the reporting of the throughput.
+     */
+    @PostConstruct
+    public void start() {
+        parseQueue = new ArrayBlockingQueue<>(queueSize);
+        verifyQueue = new ArrayBlockingQueue<>(queueSize);
+        writeQueue = new ArrayBlockingQueue<>(Math.max(queueSize, batchSize));
+
+        stages = Executors.newCachedThreadPool(new CustomizableThreadFactory("import-"));
+        int parsers = parseThreads > 0 ? parseThreads : Runtime.getRuntime().availableProcessors();
+        startStage(parsers, parseQueue, verifyQueue, this::parse);
+        startStage(verifyThreads, verifyQueue, writeQueue, this::verify);
+        stages.execute(this::writeStage);
+        running = true;
+
+        Metrics.gauge("mediaserver.imports.pending", pending, Set::size);
+        reportedTime = System.nanoTime();
+        if (reportInterval > 0) {
+            reporter = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("import-report-"));
+            reporter.scheduleAtFixedRate(this::report, reportInterval, reportInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops accepting works, waits until the submitted works are imported and stops the threads.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        parseQueue.put(END);
+        finished.await();
+        stages.shutdown();
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        report();
+    }
+
+    /**
+     * Submits a work directory for import, waiting while the pipeline is full.
+     *
+     * <p>
+     * The directory must contain the METS file, named like the directory with extension ".xml".
+     *
+     * @param directory the work directory
+     * @return false, if the directory is already being imported
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean submit(Path directory) throws InterruptedException {
+        if (!running) {
+            throw new IllegalStateException("The import pipeline is stopped");
+        }
+        if (!pending.add(directory)) {
+            return false;
+        }
+        parseQueue.put(new ImportJob(directory));
+        return true;
+    }
+
+    /**
+     * Waits until all submitted works are imported or failed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (pending) {
+            while (!pending.isEmpty()) {
+                pending.wait();
+            }
+        }
+    }
+
+    public long getImported() {
+        return imported.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Starts the threads of a stage. The last thread seeing the end passes it to the next stage.
+     */
+    private void startStage(int threads, BlockingQueue<ImportJob> input, BlockingQueue<ImportJob> output,
+                            Stage stage) {
+        AtomicInteger active = new AtomicInteger(threads);
+        for (int i = 0; i < threads; i++) {
+            stages.execute(() -> {
+                try {
+                    while (true) {
+                        ImportJob job = input.take();
+                        if (job == END) {
+                            input.put(END);
+                            if (active.decrementAndGet() == 0) {
+                                output.put(END);
+                            }
+                            return;
+                        }
+                        try {
+                            stage.process(job);
+                            output.put(job);
+                        } catch (IOException | RuntimeException e) {
+                            fail(job, e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+    }
+
+    private void parse(ImportJob job) throws IOException {
+        Path directory = job.getDirectory();
+        Path metsFile = getMetsFile(directory);
+        if (!Files.isRegularFile(metsFile)) {
+            throw new FileNotFoundException("METS file " + metsFile + " not found");
+        }
+        MetsData mets;
+        try {
+            mets = metsReader.read(metsFile);
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not parse METS file " + metsFile + ": " + e.getMessage(), e);
+        }
+        job.setMets(mets);
+
+        String workId = mets.getWorkId();
+        if (workId == null || workId.isEmpty()) {
+            workId = directory.getFileName().toString();
+        }
+        if (workId.length() > MAX_WORK_ID_LENGTH || workId.equals(".") || workId.equals("..")
+                || workId.indexOf('/') >= 0 || workId.indexOf('\\') >= 0) {
+            throw new IllegalArgumentException("Invalid work id " + workId);
+        }
+        job.setWorkId(workId);
+    }
+
+    /**
+     * Gets the METS file of a work directory.
+     *
+     * @param directory the work directory
+     * @return the file named like the directory with extension ".xml"
+     */
+    static Path getMetsFile(Path directory) {
+        return directory.resolve(directory.getFileName() + ".xml");
+    }
+
+    private void verify(ImportJob job) throws IOException {
+        for (String fileGroup : verifyFileGroups) {
+            for (String location : job.getMets().getFileGroups().getOrDefault(fileGroup, Collections.emptyList())) {
+                Path file = resolve(job.getDirectory(), location);
+                if (file != null && !Files.isRegularFile(file)) {
+                    throw new FileNotFoundException("File " + location + " of file group " + fileGroup
+                            + " not found in " + job.getDirectory());
+                }
+            }
+        }
+        index(job);
+    }
+
+    /**
+     * Compiles the METS file into the {@link WorkIndex} of the work directory, unless it is current.
+     */
+    private void index(ImportJob job) throws IOException {
+        Path directory = job.getDirectory();
+        Path metsFile = getMetsFile(directory);
+        Path indexFile = directory.resolve(WorkIndex.FILE_NAME);
+        if (WorkIndex.isCurrent(indexFile, metsFile)) {
+            return;
+        }
+        WorkIndex.Builder builder = new WorkIndex.Builder(Files.getLastModifiedTime(metsFile).toMillis(),
+                Files.size(metsFile));
+        for (Map.Entry<String, List<String>> fileGroup : job.getMets().getFileGroups().entrySet()) {
+            List<String> ids = job.getMets().getFileIds(fileGroup.getKey());
+            for (int i = 0; i < fileGroup.getValue().size(); i++) {
+                String location = fileGroup.getValue().get(i);
+                Path file;
+                try {
+                    file = resolve(directory, location);
+                } catch (IOException e) {
+                    // not verified, but not delivered from the work directory either
+                    continue;
+                }
+                // local files relative to the work directory, as it is moved
+                builder.addFile(fileGroup.getKey(), ids.get(i),
+                        file != null ? directory.normalize().relativize(file).toString().replace('\\', '/') : location);
+            }
+        }
+        builder.write(indexFile);
+    }
+
+    /**
+     * Resolves the location of a file in a METS file against the work directory.
+     *
+     * @param directory the work directory
+     * @param location a relative path or file URL, e.g. "master/00000001.tif" or "file:///master/00000001.tif"
+     * @return the file, or null for a remote URL
+     * @throws IOException if the location is outside of the work directory
+     */
+    static Path resolve(Path directory, String location) throws IOException {
+        String path = location;
+        int colon = path.indexOf(':');
+        int slash = path.indexOf('/');
+        if (colon > 1 && (slash < 0 || colon < slash)) {
+            if (!path.regionMatches(true, 0, "file:", 0, colon + 1)) {
+                return null;
+            }
+            path = path.substring(colon + 1);
+        }
+        int start = 0;
+        while (start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+        Path file = directory.resolve(path.substring(start)).normalize();
+        if (!file.startsWith(directory.normalize())) {
+            throw new IOException("File " + location + " is outside of the work directory " + directory);
+        }
+        return file;
+    }
+
+    private void writeStage() {
+        List<ImportJob> batch = new ArrayList<>(batchSize);
+        try {
+            boolean end = false;
+            while (!end) {
+                batch.add(writeQueue.take());
+                writeQueue.drainTo(batch, batchSize - 1);
+                end = batch.remove(END);
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    private void write(List<ImportJob> batch) {
+        List<ImportJob> moved = new ArrayList<>(batch.size());
+        for (ImportJob job : batch) {
+            try {
+                move(job);
+                moved.add(job);
+            } catch (IOException | RuntimeException e) {
+                fail(job, e);
+            }
+        }
+        if (moved.isEmpty()) {
+            return;
+        }
+
+        try {
+            workWriter.write(moved);
+            moved.forEach(this::succeed);
+        } catch (RuntimeException e) {
+            // find the failing works
+            for (ImportJob job : moved) {
+                try {
+                    workWriter.write(Collections.singletonList(job));
+                    succeed(job);
+                } catch (RuntimeException jobException) {
+                    fail(job, jobException);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the work directory to the work files path. The directory of a work imported before is kept until
+     * the work is written.
+     */
+    private void move(ImportJob job) throws IOException {
+        Path directory = job.getDirectory().toAbsolutePath();
+        if (workFilesPath.isEmpty()) {
+            job.setWorkPath(directory);
+            return;
+        }
+        Path target = Paths.get(workFilesPath).resolve(job.getWorkId()).toAbsolutePath();
+        if (Files.exists(target)) {
+            Path replaced = target.resolveSibling("." + job.getWorkId() + ".replaced");
+            FileSystemUtils.deleteRecursively(replaced);
+            Files.move(target, replaced);
+            job.setReplacedPath(replaced);
+        }
+        Files.move(directory, target);
+        job.setWorkPath(target);
+    }
+
+    private void succeed(ImportJob job) {
+        if (job.getReplacedPath() != null) {
+            try {
+                FileSystemUtils.deleteRecursively(job.getReplacedPath());
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete the previous files of work " + job.getWorkId() + ": " + e);
+            }
+        }
+        workCacheNotifier.workChanged(job.getWorkId());
+        imported.increment();
+        Metrics.timer(IMPORTS_METER, "outcome", "success")
+                .record(System.nanoTime() - job.getStartTime(), TimeUnit.NANOSECONDS);
+        LOGGER.debug("Imported work " + job.getWorkId() + " from " + job.getDirectory());
+        done(job);
+    }
+
+    private void fail(ImportJob job, Exception e) {
+        LOGGER.error("Could not import work directory " + job.getDirectory() + ": " + e);
+        try {
+            Path current = job.getWorkPath() != null ? job.getWorkPath() : job.getDirectory();
+            Path target = errorPath.isEmpty() ? job.getDirectory()
+                    : Paths.get(errorPath).resolve(job.getDirectory().getFileName());
+            if (!current.toAbsolutePath().equals(target.toAbsolutePath())) {
+                FileSystemUtils.deleteRecursively(target);
+                Files.move(current, target);
+            }
+            if (job.getReplacedPath() != null) {
+                Files.move(job.getReplacedPath(), job.getReplacedPath().resolveSibling(job.getWorkId()));
+            }
+        } catch (IOException moveException) {
+            LOGGER.error("Could not move the files of failed work directory " + job.getDirectory() + ": "
+                    + moveException);
+        }
+        failed.increment();
+        Metrics.timer(IMPORTS_METER, "outcome", "error")
+                .record(System.nanoTime() - job.getStartTime(), TimeUnit.NANOSECONDS);
+        done(job);
+    }
+
+    private void done(ImportJob job) {
+        synchronized (pending) {
+            pending.remove(job.getDirectory());
+            pending.notifyAll();
+        }
+    }
+
+    private synchronized void report() {
+        long now = System.nanoTime();
+        long importedSum = imported.sum();
+        long failedSum = failed.sum();
+        long importedSinceReport = importedSum - reportedImported;
+        if (importedSinceReport > 0 || failedSum > reportedFailed) {
+            double seconds = (now - reportedTime) / 1e9;
+            LOGGER.info(String.format("Imported %d works in %.0f s (%.1f works/s), %d failed, %d pending",
+                    importedSinceReport, seconds, importedSinceReport / seconds, failedSum - reportedFailed,
+                    pending.size()));
+        }
+        reportedImported = importedSum;
+        reportedFailed = failedSum;
+        reportedTime = now;
+    }
+
+    /**
+     * A stage of the pipeline, processing one work.
+     */
+    private interface Stage {
+        void process(ImportJob job) throws IOException;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.importer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Writes imported works with their identifiers to the database.
+ *
+ * <p>
+ * Existing works are updated, keeping their enabled state. Identifiers no longer in the METS file are removed.
+ * The works are written by JDBC batches in chunks, so a chunk takes a constant number of round trips to the
+ * database instead of some per work and identifier. On MySQL, the batches are sent as multi-row statements
+ * with rewriteBatchedStatements=true in the url of the datasource.
+ */
+@Component
+public class WorkWriter {
+
+    private static final int MAX_TITLE_LENGTH = 255;
+
+    // rows per statement, also limiting the parameters of the IN lists
+    private static final int CHUNK_SIZE = 500;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${importer.identifierTypes:urn,doi}")
+    private Set<String> identifierTypes;
+
+    /**
+     * Writes a batch of works in one transaction.
+     *
+     * @param jobs the jobs of the works
+     */
+    @Transactional
+    public void write(List<ImportJob> jobs) {
+        for (int start = 0; start < jobs.size(); start += CHUNK_SIZE) {
+            writeChunk(jobs.subList(start, Math.min(start + CHUNK_SIZE, jobs.size())));
+        }
+    }
+
+    private void writeChunk(List<ImportJob> jobs) {
+        // a work imported twice in the chunk is written as last imported
+        Map<String, ImportJob> works = new LinkedHashMap<>();
+        for (ImportJob job : jobs) {
+            works.put(job.getWorkId(), job);
+        }
+        Object[] ids = works.keySet().toArray();
+
+        Set<String> existing = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT id FROM work WHERE id IN (" + getPlaceholders(ids.length) + ")", String.class, ids));
+        List<Object[]> updates = new ArrayList<>();
+        List<Object[]> inserts = new ArrayList<>();
+        // identifiers are unique, the last work having one gets it
+        Map<String, Object[]> identifiers = new LinkedHashMap<>();
+        for (ImportJob job : works.values()) {
+            String title = getTitle(job);
+            String path = job.getWorkPath().toString();
+            if (existing.contains(job.getWorkId())) {
+                updates.add(new Object[] {title, path, job.getWorkId()});
+            } else {
+                inserts.add(new Object[] {job.getWorkId(), title, path, true});
+            }
+            for (Map.Entry<String, String> entry : job.getMets().getIdentifiers().entrySet()) {
+                if (isImported(entry.getValue())) {
+                    identifiers.put(entry.getKey(), new Object[] {entry.getKey(), entry.getValue(), job.getWorkId()});
+                }
+            }
+        }
+        batchUpdate("UPDATE work SET title = ?, path = ? WHERE id = ?", updates);
+        batchUpdate("INSERT INTO work (id, title, path, enabled) VALUES (?, ?, ?, ?)", inserts);
+
+        // the identifiers are replaced, including those moved from other works
+        jdbcTemplate.update("DELETE FROM identifier WHERE work_id IN (" + getPlaceholders(ids.length) + ")", ids);
+        if (!identifiers.isEmpty()) {
+            Object[] values = identifiers.keySet().toArray();
+            jdbcTemplate.update("DELETE FROM identifier WHERE identifier IN (" + getPlaceholders(values.length) + ")",
+                    values);
+            batchUpdate("INSERT INTO identifier (identifier, type, work_id) VALUES (?, ?, ?)",
+                    new ArrayList<>(identifiers.values()));
+        }
+    }
+
+    private void batchUpdate(String sql, List<Object[]> rows) {
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate(sql, rows);
+        }
+    }
+
+    private static String getPlaceholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * Gets the title of a work, fitting into the database.
+     *
+     * @param job the job of the work
+     * @return the title, empty if the METS file has none
+     */
+    static String getTitle(ImportJob job) {
+        String title = job.getMets().getTitle();
+        if (title == null) {
+            return "";
+        }
+        return title.length() > MAX_TITLE_LENGTH ? title.substring(0, MAX_TITLE_LENGTH) : title;
+    }
+
+    /**
+     * Checks if identifiers of a type are imported.
+     *
+     * @param type the type of an identifier, may be null
+     * @return true, if the type is one of the configured identifier types
+     */
+    boolean isImported(String type) {
+        return type != null && identifierTypes.stream().anyMatch(type::equalsIgnoreCase);
+    }
+}
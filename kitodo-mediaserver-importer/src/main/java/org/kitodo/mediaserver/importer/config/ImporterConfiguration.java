@@ -0,0 +1,40 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+
+package org.kitodo.mediaserver.importer.config;
+
+import org.kitodo.mediaserver.core.cache.WorkCacheNotifier;
+import org.kitodo.mediaserver.core.config.ConversionServiceConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+/**
+ * Spring configuration of the importer module.
+ */
+@Configuration
+@EnableJpaRepositories("org.kitodo.mediaserver.core.db.repositories")
+@EntityScan("org.kitodo.mediaserver.core.db.entities")
+@Import(ConversionServiceConfiguration.class)
+public class ImporterConfiguration {
+
+    /**
+     * Gets the notifier telling the fileservers about imported works.
+     * @return the work cache notifier
+     */
+    @Bean
+    public WorkCacheNotifier workCacheNotifier() {
+        return new WorkCacheNotifier();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+
+package org.kitodo.mediaserver.importer.mets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The data of a METS file needed to import a work.
+ */
+public class MetsData {
+
+    private String workId;
+    private String title;
+    private final Map<String, String> identifiers = new LinkedHashMap<>();
+    private final Map<String, List<String>> fileGroups = new LinkedHashMap<>();
+    private final Map<String, List<String>> fileIds = new HashMap<>();
+
+    /**
+     * Gets the record identifier of the work.
+     *
+     * @return the id of the work, or null if the METS file has no record identifier
+     */
+    public String getWorkId() {
+        return workId;
+    }
+
+    public void setWorkId(String workId) {
+        this.workId = workId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    /**
+     * Gets the identifiers of the work.
+     *
+     * @return a map of the identifiers to their type, which may be null
+     */
+    public Map<String, String> getIdentifiers() {
+        return Collections.unmodifiableMap(identifiers);
+    }
+
+    public void addIdentifier(String identifier, String type) {
+        identifiers.putIfAbsent(identifier, type);
+    }
+
+    /**
+     * Gets the file groups.
+     *
+     * @return a map of the USE of each file group to the locations of its files
+     */
+    public Map<String, List<String>> getFileGroups() {
+        return Collections.unmodifiableMap(fileGroups);
+    }
+
+    /**
+     * Gets the IDs of the files of a file group.
+     *
+     * @param fileGroup the USE of the file group
+     * @return the IDs, which may be null, in the order of the locations
+     */
+    public List<String> getFileIds(String fileGroup) {
+        return Collections.unmodifiableList(fileIds.getOrDefault(fileGroup, Collections.emptyList()));
+    }
+
+    public void addFile(String fileGroup, String id, String location) {
+        fileGroups.computeIfAbsent(fileGroup, key -> new ArrayList<>()).add(location);
+        fileIds.computeIfAbsent(fileGroup, key -> new ArrayList<>()).add(id);
+    }
+}
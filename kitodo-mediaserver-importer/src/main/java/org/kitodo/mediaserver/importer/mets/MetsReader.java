@@ -0,0 +1,145 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+
+package org.kitodo.mediaserver.importer.mets;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads the data of a work from a METS file with a streaming parser.
+ *
+ * <p>
+ * Only the MODS of the first dmdSec, which describes the work itself, and the file section are read. Parsing
+ * stops after the file section, so the structure maps, which make up most of large METS files, are skipped.
+ * Titles and identifiers in related items, e.g. of a series, are ignored.
+ */
+@Component
+public class MetsReader {
+
+    static final String METS_NAMESPACE = "http://www.loc.gov/METS/";
+    static final String MODS_NAMESPACE = "http://www.loc.gov/mods/v3";
+    static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final XMLInputFactory inputFactory;
+
+    /**
+     * Creates a reader which doesn't resolve DTDs or external entities.
+     */
+    public MetsReader() {
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    }
+
+    /**
+     * Reads a METS file.
+     *
+     * @param metsFile the METS file
+     * @return the data of the work
+     * @throws IOException if the file could not be read
+     * @throws XMLStreamException if the file is not well-formed
+     */
+    public MetsData read(Path metsFile) throws IOException, XMLStreamException {
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(metsFile), BUFFER_SIZE)) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(inputStream);
+            try {
+                return read(reader);
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private MetsData read(XMLStreamReader reader) throws XMLStreamException {
+        MetsData mets = new MetsData();
+        int dmdSecs = 0;
+        boolean inWorkDmdSec = false;
+        int relatedItemDepth = 0;
+        boolean inTitleInfo = false;
+        String fileGroup = null;
+        String fileId = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (METS_NAMESPACE.equals(reader.getNamespaceURI())) {
+                    if ("dmdSec".equals(name)) {
+                        inWorkDmdSec = dmdSecs++ == 0;
+                    } else if ("fileGrp".equals(name)) {
+                        fileGroup = reader.getAttributeValue(null, "USE");
+                    } else if ("file".equals(name)) {
+                        fileId = reader.getAttributeValue(null, "ID");
+                    } else if ("FLocat".equals(name) && fileGroup != null) {
+                        String location = reader.getAttributeValue(XLINK_NAMESPACE, "href");
+                        if (location != null) {
+                            mets.addFile(fileGroup, fileId, location.trim());
+                        }
+                    }
+
+                } else if (inWorkDmdSec && MODS_NAMESPACE.equals(reader.getNamespaceURI())) {
+                    if ("relatedItem".equals(name)) {
+                        relatedItemDepth++;
+                    } else if (relatedItemDepth > 0) {
+                        continue;
+                    } else if ("titleInfo".equals(name)) {
+                        // alternative, translated, abbreviated or uniform titles have a type
+                        inTitleInfo = reader.getAttributeValue(null, "type") == null;
+                    } else if ("title".equals(name) && inTitleInfo && mets.getTitle() == null) {
+                        mets.setTitle(reader.getElementText().trim());
+                    } else if ("recordIdentifier".equals(name) && mets.getWorkId() == null) {
+                        mets.setWorkId(reader.getElementText().trim());
+                    } else if ("identifier".equals(name)) {
+                        String type = reader.getAttributeValue(null, "type");
+                        String identifier = reader.getElementText().trim();
+                        if (!identifier.isEmpty()) {
+                            mets.addIdentifier(identifier, type);
+                        }
+                    }
+                }
+
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String name = reader.getLocalName();
+                if (METS_NAMESPACE.equals(reader.getNamespaceURI())) {
+                    if ("fileSec".equals(name)) {
+                        break;
+                    } else if ("dmdSec".equals(name)) {
+                        inWorkDmdSec = false;
+                    } else if ("fileGrp".equals(name)) {
+                        fileGroup = null;
+                    } else if ("file".equals(name)) {
+                        fileId = null;
+                    }
+                } else if (MODS_NAMESPACE.equals(reader.getNamespaceURI())) {
+                    if ("relatedItem".equals(name)) {
+                        relatedItemDepth--;
+                    } else if ("titleInfo".equals(name)) {
+                        inTitleInfo = false;
+                    }
+                }
+            }
+        }
+        return mets;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+
+package org.kitodo.mediaserver.importer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Test for the hotfolder watcher.
+ */
+@SpringBootTest(classes = {HotfolderWatcher.class, HotfolderWatcherTest.Config.class}, properties = {
+    "importer.hotfolders=target/hotfolder-test/first,target/hotfolder-test/second",
+    "importer.stableTime=1",
+    "importer.scanInterval=0"
+    })
+@RunWith(SpringRunner.class)
+public class HotfolderWatcherTest {
+
+    private static final Path ROOT = Paths.get("target/hotfolder-test").toAbsolutePath();
+
+    @MockBean
+    private ImportPipeline importPipeline;
+
+    @Autowired
+    private HotfolderWatcher hotfolderWatcher;
+
+    @BeforeClass
+    public static void createHotfolders() throws Exception {
+        FileSystemUtils.deleteRecursively(ROOT);
+        Files.createDirectories(ROOT.resolve("first"));
+        Files.createDirectories(ROOT.resolve("second"));
+    }
+
+    @AfterClass
+    public static void deleteHotfolders() throws Exception {
+        FileSystemUtils.deleteRecursively(ROOT);
+    }
+
+    @Before
+    public void init() throws Exception {
+        when(importPipeline.submit(any())).thenReturn(true);
+    }
+
+    @Test
+    public void testStableWorksAreSubmittedOnce() throws Exception {
+        Path work = ROOT.resolve("second/123");
+        Files.createDirectories(work.resolve("master"));
+
+        // without METS file the work is not complete, it is dropped until the next scan
+        verify(importPipeline, after(2500).never()).submit(any());
+        assertThat(hotfolderWatcher.getCandidates()).isEqualTo(0);
+
+        // a work still being copied is not submitted
+        Files.write(work.resolve("123.xml"), new byte[] {1});
+        hotfolderWatcher.scan();
+        assertThat(hotfolderWatcher.getCandidates()).isEqualTo(1);
+        for (int i = 1; i <= 4; i++) {
+            Files.write(work.resolve("master/0000000" + i + ".tif"), new byte[i]);
+            Thread.sleep(400);
+        }
+        verify(importPipeline, never()).submit(any());
+
+        verify(importPipeline, timeout(5000)).submit(work);
+        assertThat(hotfolderWatcher.getCandidates()).isEqualTo(0);
+
+        // a work left in the hotfolder is only submitted again if its METS file changed
+        Files.setLastModifiedTime(work, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+        Thread.sleep(1000);
+        assertThat(hotfolderWatcher.getCandidates()).isEqualTo(0);
+        hotfolderWatcher.scan();
+        assertThat(hotfolderWatcher.getCandidates()).isEqualTo(0);
+        Files.setLastModifiedTime(work.resolve("123.xml"), FileTime.fromMillis(System.currentTimeMillis() + 60000));
+        hotfolderWatcher.scan();
+        assertThat(hotfolderWatcher.getCandidates()).isEqualTo(1);
+        verify(importPipeline, timeout(5000).times(2)).submit(work);
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public ConversionService conversionService() {
+            return new DefaultConversionService();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+
+package org.kitodo.mediaserver.importer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.cache.WorkCacheNotifier;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.IdentifierRepository;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.kitodo.mediaserver.core.models.WorkIndex;
+import org.kitodo.mediaserver.importer.config.ImporterConfiguration;
+import org.kitodo.mediaserver.importer.mets.MetsReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Test for the import pipeline.
+ */
+@SpringBootTest(classes = {ImportPipeline.class, MetsReader.class, WorkWriter.class, ImporterConfiguration.class}, properties = {
+    "importer.workFilesPath=target/import-test/files",
+    "importer.errorPath=target/import-test/error",
+    "importer.batchSize=2"
+    })
+@EnableAutoConfiguration
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ImportPipelineTest {
+
+    private static final Path ROOT = Paths.get("target/import-test");
+    private static final Path HOTFOLDER = ROOT.resolve("hotfolder");
+
+    @MockBean
+    private WorkCacheNotifier workCacheNotifier;
+
+    @Autowired
+    private ImportPipeline importPipeline;
+
+    @Autowired
+    private WorkRepository workRepository;
+
+    @Autowired
+    private IdentifierRepository identifierRepository;
+
+    @Before
+    public void createDirectories() throws IOException {
+        FileSystemUtils.deleteRecursively(ROOT);
+        Files.createDirectories(HOTFOLDER);
+        Files.createDirectories(ROOT.resolve("files"));
+        Files.createDirectories(ROOT.resolve("error"));
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        identifierRepository.deleteAll();
+        workRepository.deleteAll();
+        FileSystemUtils.deleteRecursively(ROOT);
+    }
+
+    @Test
+    public void testWorksAreImported() throws Exception {
+        createWork("first", "123", 2);
+        createWork("second", "456", 2);
+        createWork("incomplete", "789", 1);
+        createWork("other", null, 2);
+
+        for (String directory : new String[] {"first", "second", "incomplete", "other"}) {
+            assertThat(importPipeline.submit(HOTFOLDER.resolve(directory))).isTrue();
+        }
+        importPipeline.awaitIdle();
+
+        assertThat(workRepository.count()).isEqualTo(3);
+        Work work = workRepository.findById("123").get();
+        assertThat(work.getTitle()).isEqualTo("Test work");
+        assertThat(work.isEnabled()).isTrue();
+        assertThat(Paths.get(work.getPath())).isEqualTo(ROOT.resolve("files/123").toAbsolutePath());
+        assertThat(ROOT.resolve("files/123/master/00000002.tif")).exists();
+        assertThat(identifierRepository.findIdentifiersByWorkId("123"))
+                .containsExactlyInAnyOrder("urn:nbn:de:test-123", "10.1234/test/123");
+        WorkIndex index = WorkIndex.map(ROOT.resolve("files/123").resolve(WorkIndex.FILE_NAME));
+        assertThat(index.findLocation("MASTER", "00000001")).isEqualTo("master/00000001.tif");
+        assertThat(index.getFileId("MASTER", 1)).isEqualTo("FILE_0002_MASTER");
+        assertThat(index.getLocation("DEFAULT", 0)).isEqualTo("https://example.org/files/123/00000001.jpg");
+        // the directory name is the id of a work without record identifier
+        assertThat(workRepository.findById("other")).isPresent();
+        verify(workCacheNotifier).workChanged("456");
+
+        // a work with a missing master is not imported
+        assertThat(workRepository.findById("789")).isNotPresent();
+        assertThat(ROOT.resolve("error/incomplete/incomplete.xml")).exists();
+        assertThat(HOTFOLDER.resolve("incomplete")).doesNotExist();
+
+        // a work imported again replaces the previous one
+        createWork("first", "123", 1);
+        Files.write(HOTFOLDER.resolve("first/master/00000002.tif"), new byte[0]);
+        importPipeline.submit(HOTFOLDER.resolve("first"));
+        importPipeline.awaitIdle();
+        assertThat(ROOT.resolve("files/123/master/00000002.tif")).hasContent("");
+        assertThat(ROOT.resolve("files/.123.replaced")).doesNotExist();
+        assertThat(workRepository.count()).isEqualTo(3);
+    }
+
+    @Test
+    public void testResolveFileLocations() throws Exception {
+        Path directory = Paths.get("/hotfolder/123");
+        assertThat(ImportPipeline.resolve(directory, "file:///master/00000001.tif"))
+                .isEqualTo(Paths.get("/hotfolder/123/master/00000001.tif"));
+        assertThat(ImportPipeline.resolve(directory, "master/00000001.tif"))
+                .isEqualTo(Paths.get("/hotfolder/123/master/00000001.tif"));
+        assertThat(ImportPipeline.resolve(directory, "https://example.org/00000001.jpg")).isNull();
+        assertThatThrownBy(() -> ImportPipeline.resolve(directory, "file:///../456/master/00000001.tif"))
+                .isInstanceOf(IOException.class);
+    }
+
+    /**
+     * Creates a work directory from the test METS file, with some of its masters.
+     */
+    private void createWork(String directory, String workId, int masters) throws Exception {
+        Path workDirectory = HOTFOLDER.resolve(directory);
+        Files.createDirectories(workDirectory.resolve("master"));
+        String mets = new String(Files.readAllBytes(Paths.get(getClass().getResource("/mets/work.xml").toURI())),
+                "UTF-8");
+        mets = mets.replace("<mods:recordIdentifier source=\"test\">123</mods:recordIdentifier>",
+                workId != null ? "<mods:recordIdentifier>" + workId + "</mods:recordIdentifier>" : "")
+                .replace("test-123\"", "test-" + workId + "\"")
+                .replace("test-123<", "test-" + workId + "<")
+                .replace("test/123<", "test/" + workId + "<");
+        Files.write(workDirectory.resolve(directory + ".xml"), mets.getBytes("UTF-8"));
+        for (int i = 1; i <= masters; i++) {
+            Files.write(workDirectory.resolve("master/0000000" + i + ".tif"), new byte[] {1});
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.importer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.kitodo.mediaserver.core.cache.WorkCacheNotifier;
+import org.kitodo.mediaserver.core.db.entities.Work;
+import org.kitodo.mediaserver.core.db.repositories.IdentifierRepository;
+import org.kitodo.mediaserver.core.db.repositories.WorkRepository;
+import org.kitodo.mediaserver.importer.config.ImporterConfiguration;
+import org.kitodo.mediaserver.importer.mets.MetsData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Test for the work writer.
+ */
+@SpringBootTest(classes = {WorkWriter.class, ImporterConfiguration.class})
+@EnableAutoConfiguration
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class WorkWriterTest {
+
+    @MockBean
+    private WorkCacheNotifier workCacheNotifier;
+
+    @Autowired
+    private WorkWriter workWriter;
+
+    @Autowired
+    private WorkRepository workRepository;
+
+    @Autowired
+    private IdentifierRepository identifierRepository;
+
+    @After
+    public void cleanUp() {
+        identifierRepository.deleteAll();
+        workRepository.deleteAll();
+    }
+
+    @Test
+    public void testWorksAreInsertedAndUpdated() {
+        workWriter.write(Arrays.asList(
+                createJob("123", "First work", "urn:nbn:de:test-123", "urn", "PPN123", "ppn"),
+                createJob("456", "Second work", "urn:nbn:de:test-456", "urn", "10.1234/test", "doi")));
+
+        assertThat(workRepository.count()).isEqualTo(2);
+        Work work = workRepository.findById("123").get();
+        assertThat(work.getTitle()).isEqualTo("First work");
+        assertThat(work.getPath()).isEqualTo(Paths.get("/works/123").toString());
+        assertThat(work.isEnabled()).isTrue();
+        // identifiers of other types are not imported
+        assertThat(identifierRepository.findIdentifiersByWorkId("123")).containsExactly("urn:nbn:de:test-123");
+
+        work.setEnabled(false);
+        workRepository.save(work);
+
+        // the DOI moves to the first work, the other identifiers of the works are replaced
+        workWriter.write(Collections.singletonList(
+                createJob("123", "First work, revised", "urn:nbn:de:test-123-2", "urn", "10.1234/test", "doi")));
+
+        work = workRepository.findById("123").get();
+        assertThat(work.getTitle()).isEqualTo("First work, revised");
+        assertThat(work.isEnabled()).isFalse();
+        assertThat(identifierRepository.findIdentifiersByWorkId("123"))
+                .containsExactlyInAnyOrder("urn:nbn:de:test-123-2", "10.1234/test");
+        assertThat(identifierRepository.findIdentifiersByWorkId("456")).containsExactly("urn:nbn:de:test-456");
+        assertThat(identifierRepository.count()).isEqualTo(3);
+    }
+
+    private ImportJob createJob(String workId, String title, String... identifiers) {
+        MetsData mets = new MetsData();
+        mets.setWorkId(workId);
+        mets.setTitle(title);
+        for (int i = 0; i < identifiers.length; i += 2) {
+            mets.addIdentifier(identifiers[i], identifiers[i + 1]);
+        }
+        ImportJob job = new ImportJob(Paths.get("/hotfolder", workId));
+        job.setMets(mets);
+        job.setWorkId(workId);
+        job.setWorkPath(Paths.get("/works", workId));
+        return job;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+
+package org.kitodo.mediaserver.importer.mets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Test;
+
+/**
+ * Test for the METS reader.
+ */
+public class MetsReaderTest {
+
+    @Test
+    public void testReadWork() throws Exception {
+        Path metsFile = Paths.get(getClass().getResource("/mets/work.xml").toURI());
+
+        MetsData mets = new MetsReader().read(metsFile);
+
+        assertThat(mets.getWorkId()).isEqualTo("123");
+        assertThat(mets.getTitle()).isEqualTo("Test work");
+        // only the identifiers of the work, not those of its chapters or series
+        assertThat(mets.getIdentifiers()).containsExactly(
+                entry("urn:nbn:de:test-123", "urn"),
+                entry("10.1234/test/123", "doi"),
+                entry("123-local", "local"));
+        assertThat(mets.getFileGroups().keySet()).containsExactly("MASTER", "DEFAULT");
+        assertThat(mets.getFileGroups().get("MASTER"))
+                .containsExactly("file:///master/00000001.tif", "master/00000002.tif");
+        assertThat(mets.getFileIds("MASTER")).containsExactly("FILE_0001_MASTER", "FILE_0002_MASTER");
+    }
+}
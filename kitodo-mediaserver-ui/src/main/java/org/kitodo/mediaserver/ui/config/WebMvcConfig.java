@@ -13,11 +13,13 @@ package org.kitodo.mediaserver.ui.config;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Locale;
+import org.kitodo.mediaserver.core.config.ConversionServiceConfiguration;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.context.MessageSource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
 import org.springframework.context.support.ReloadableResourceBundleMessageSource;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.scheduling.annotation.EnableScheduling;
@@ -36,6 +38,7 @@ import org.thymeleaf.spring5.templateresolver.SpringResourceTemplateResolver;
  */
 @Configuration
 @ComponentScan(basePackages = "org.kitodo.mediaserver.ui")
+@Import(ConversionServiceConfiguration.class)
 @EnableWebMvc
 @EnableScheduling
 @EnableJpaRepositories("org.kitodo.mediaserver.core.db.repositories")
@@ -111,5 +114,4 @@ public class WebMvcConfig implements WebMvcConfigurer {
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(localeChangeInterceptor());
     }
-
 }
@@ -0,0 +1,52 @@
+/*
+ * (c) Kitodo. Key to digital objects e. V. <contact@kitodo.org>
+ *
+ * This file is part of the Kitodo project.
+ *
+ * It is licensed under GNU General Public License version 3 or later.
+ *
+ * For the full copyright and license information, please read the
+ * LICENSE file that was distributed with this source code.
+ */
+
+package org.kitodo.mediaserver.ui.status;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The metrics of a fileserver, formatted for the status page.
+ */
+public class FileserverStatus {
+
+    private final String url;
+
+    private boolean reachable = true;
+
+    private final Map<String, String> values = new LinkedHashMap<>();
+
+    public FileserverStatus(String url) {
+        this.url = url;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public boolean isReachable() {
+        return reachable;
+    }
+
+    public void setReachable(boolean reachable) {
+        this.reachable = reachable;
+    }
+
+    /**
+     * Gets the formatted values.
+     *
+     * @return the values by the message key of their label
+     */
+    public Map<String, String> getValues() {
+        return values;
+    }
+}
@@ -11,19 +11,221 @@
 
 package org.kitodo.mediaserver.ui.status;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
 
 /**
  * Status controller.
+ *
+ * <p>
+ * Shows the metrics of the configured fileservers, read with one request from their prometheus endpoints.
+ * Meters which were not used yet by a fileserver are shown as "-".
  */
 @Controller
 @RequestMapping("/status")
 public class StatusController {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatusController.class);
+
+    private static final String PROMETHEUS_PATH = "/actuator/prometheus";
+    private static final int TIMEOUT_MILLIS = 2000;
+    private static final double MEGABYTE = 1024 * 1024;
+    private static final String NO_VALUE = "-";
+
+    // e.g. cache_gets_total{cache="works",result="hit",} 42.0
+    private static final Pattern SAMPLE = Pattern.compile("(\\w+)(?:\\{(.*)\\})? (\\S+)");
+    private static final Pattern LABEL = Pattern.compile("(\\w+)=\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    @Value("${workCache.fileservers:}")
+    private List<String> fileservers;
+
+    private final RestTemplate restTemplate;
+
+    /**
+     * Creates the controller with a client which gives up on slow fileservers.
+     */
+    public StatusController() {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(TIMEOUT_MILLIS);
+        requestFactory.setReadTimeout(TIMEOUT_MILLIS);
+        restTemplate = new RestTemplate(requestFactory);
+    }
+
+    /**
+     * Shows the status page.
+     *
+     * @param model the model, takes the status of each fileserver
+     * @return the name of the view
+     */
     @RequestMapping()
     public String status(Model model) {
+        List<FileserverStatus> statuses = new ArrayList<>();
+        for (String fileserver : fileservers) {
+            statuses.add(getStatus(fileserver));
+        }
+        model.addAttribute("fileservers", statuses);
         return "status";
     }
+
+    private FileserverStatus getStatus(String fileserver) {
+        FileserverStatus status = new FileserverStatus(fileserver);
+        List<Sample> samples;
+        try {
+            samples = getSamples(fileserver);
+        } catch (RestClientException e) {
+            LOGGER.warn("Could not read the metrics of fileserver " + fileserver + ": " + e);
+            status.setReachable(false);
+            return status;
+        }
+
+        Map<String, String> values = status.getValues();
+        values.put("status.requests.hit", formatTimer(samples, "mediaserver.requests", "result:hit"));
+        values.put("status.requests.miss", formatTimer(samples, "mediaserver.requests", "result:miss"));
+        values.put("status.requests.tile", formatTimer(samples, "mediaserver.requests", "result:tile"));
+        values.put("status.requests.error", formatTimer(samples, "mediaserver.requests", "result:error"));
+        values.put("status.delivered", formatBytes(getCounter(samples, "mediaserver.delivered.bytes")));
+        values.put("status.works.lookup", formatTimer(samples, "mediaserver.works.lookup"));
+        values.put("status.works.hitRatio", formatRatio(
+                getCounter(samples, "cache.gets", "cache:works", "result:hit"),
+                getCounter(samples, "cache.gets", "cache:works", "result:miss")));
+        values.put("status.conversions", formatTimer(samples, "mediaserver.conversions"));
+        values.put("status.scheduler.waiting",
+                formatCount(getGauge(samples, "mediaserver.scheduler.waiting", "priority:interactive"))
+                + " / " + formatCount(getGauge(samples, "mediaserver.scheduler.waiting", "priority:batch")));
+        values.put("status.scheduler.wait", formatTimer(samples, "mediaserver.scheduler.wait"));
+        values.put("status.actions.queued", formatCount(getGauge(samples, "mediaserver.actions.queued")));
+        values.put("status.actions.wait", formatTimer(samples, "mediaserver.actions.wait"));
+        return status;
+    }
+
+    /**
+     * Reads all metrics of a fileserver in the prometheus text format.
+     *
+     * @param fileserver the url of the fileserver
+     * @return the samples
+     * @throws RestClientException if the fileserver is not reachable or doesn't expose its metrics
+     */
+    private List<Sample> getSamples(String fileserver) throws RestClientException {
+        String text = restTemplate.getForObject(fileserver + PROMETHEUS_PATH, String.class);
+        List<Sample> samples = new ArrayList<>();
+        if (text == null) {
+            return samples;
+        }
+        for (String line : text.split("\n")) {
+            Matcher matcher = SAMPLE.matcher(line);
+            if (line.startsWith("#") || !matcher.matches()) {
+                continue;
+            }
+            Map<String, String> labels = new HashMap<>();
+            if (matcher.group(2) != null) {
+                Matcher label = LABEL.matcher(matcher.group(2));
+                while (label.find()) {
+                    labels.put(label.group(1), label.group(2));
+                }
+            }
+            try {
+                samples.add(new Sample(matcher.group(1), labels, Double.parseDouble(matcher.group(3))));
+            } catch (NumberFormatException e) {
+                LOGGER.debug("Ignoring metric " + line + " of fileserver " + fileserver);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Sums the samples of a meter, over all series with the given tags.
+     *
+     * @param samples the samples of a fileserver
+     * @param name the prometheus name of the meter
+     * @param tags the tags, as "key:value"
+     * @return the sum or null, if the meter doesn't exist (yet)
+     */
+    private static Double sum(List<Sample> samples, String name, String... tags) {
+        Double sum = null;
+        for (Sample sample : samples) {
+            if (sample.name.equals(name) && sample.hasTags(tags)) {
+                sum = (sum != null ? sum : 0) + sample.value;
+            }
+        }
+        return sum;
+    }
+
+    private static Double getCounter(List<Sample> samples, String meter, String... tags) {
+        return sum(samples, toPrometheus(meter) + "_total", tags);
+    }
+
+    private static Double getGauge(List<Sample> samples, String meter, String... tags) {
+        return sum(samples, toPrometheus(meter), tags);
+    }
+
+    /**
+     * Translates a meter name as the prometheus registry does, without the suffix of the meter type,
+     * e.g. "cache.gets" to "cache_gets" for "cache_gets_total".
+     */
+    private static String toPrometheus(String meter) {
+        return meter.replace('.', '_');
+    }
+
+    private static String formatTimer(List<Sample> samples, String meter, String... tags) {
+        Double count = sum(samples, toPrometheus(meter) + "_seconds_count", tags);
+        Double totalTime = sum(samples, toPrometheus(meter) + "_seconds_sum", tags);
+        if (count == null || totalTime == null) {
+            return NO_VALUE;
+        }
+        return String.format("%,.0f (%,.1f ms)", count, count > 0 ? totalTime * 1000 / count : 0);
+    }
+
+    private static String formatCount(Double value) {
+        return value != null ? String.format("%,.0f", value) : NO_VALUE;
+    }
+
+    private static String formatBytes(Double value) {
+        return value != null ? String.format("%,.1f MB", value / MEGABYTE) : NO_VALUE;
+    }
+
+    private static String formatRatio(Double hits, Double misses) {
+        if (hits == null || misses == null || hits + misses == 0) {
+            return NO_VALUE;
+        }
+        return String.format("%.1f %%", 100 * hits / (hits + misses));
+    }
+
+    /**
+     * A sample of the prometheus text format.
+     */
+    private static class Sample {
+
+        private final String name;
+        private final Map<String, String> labels;
+        private final double value;
+
+        Sample(String name, Map<String, String> labels, double value) {
+            this.name = name;
+            this.labels = labels;
+            this.value = value;
+        }
+
+        boolean hasTags(String... tags) {
+            for (String tag : tags) {
+                int colon = tag.indexOf(':');
+                if (!tag.substring(colon + 1).equals(labels.get(tag.substring(0, colon)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }